@@ -8,6 +8,7 @@ import com.flightstats.hub.dao.aws.*;
 import com.flightstats.hub.model.ChannelConfig;
 import com.flightstats.hub.spoke.RemoteSpokeStore;
 import com.flightstats.hub.spoke.SpokeContentDao;
+import com.flightstats.hub.spoke.SpokeRepair;
 import com.flightstats.hub.spoke.SpokeTtlEnforcer;
 import com.flightstats.hub.webhook.Webhook;
 import com.google.inject.AbstractModule;
@@ -46,8 +47,14 @@ class ClusterHubBindings extends AbstractModule {
         bind(DynamoUtils.class).asEagerSingleton();
         bind(S3BatchManager.class).asEagerSingleton();
         bind(S3Verifier.class).asEagerSingleton();
+        bind(S3SingleCompactor.class).asEagerSingleton();
+        bind(S3Digests.class).asEagerSingleton();
         bind(AppUrlCheck.class).asEagerSingleton();
         bind(SpokeTtlEnforcer.class).asEagerSingleton();
+        bind(SpokeRepair.class).asEagerSingleton();
+        bind(LatestKeyIndex.class).asEagerSingleton();
+        bind(ItemCounts.class).asEagerSingleton();
+        bind(MaxItemsEnforcer.class).asEagerSingleton();
     }
 
     @Inject
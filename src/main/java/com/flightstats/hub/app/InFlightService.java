@@ -2,30 +2,127 @@ package com.flightstats.hub.app;
 
 import com.diffplug.common.base.Errors;
 import com.diffplug.common.base.Throwing;
+import com.flightstats.hub.exception.OverloadedException;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.Sleeper;
 import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Singleton;
+import com.timgroup.statsd.StatsDClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * InFlightService tracks in-flight writes, so shutdown can wait for them, and limits the concurrency of each Operation.
+ * <p>
+ * When an Operation is at its limit, requests wait up to inFlight.queueMillis, and are admitted round robin by channel.
+ * A channel which already holds its share of a saturated Operation is rejected with a 429,
+ * and requests which can not be admitted in time are rejected with a 503.
+ * <p>
+ * Only client requests are admitted, as marked by InFlightFilter.  Internal work, such as webhooks and
+ * S3 maintenance, and nested calls for an Operation the request already holds are not limited.
+ */
 @Singleton
 public class InFlightService {
     private final static Logger logger = LoggerFactory.getLogger(InFlightService.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVICE_UNAVAILABLE = 503;
+
     private final AtomicInteger inFlight = new AtomicInteger();
+    private final boolean admission = HubProperties.getProperty("inFlight.admission", true);
+    private final Map<Operation, Admission> admissions = new EnumMap<>(Operation.class);
+    private final ThreadLocal<Boolean> request = ThreadLocal.withInitial(() -> false);
+    private final ThreadLocal<Set<Operation>> held = ThreadLocal.withInitial(
+            () -> Collections.synchronizedSet(EnumSet.noneOf(Operation.class)));
+    private final ScheduledExecutorService expirer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("InFlightExpirer").setDaemon(true).build());
+
+    public enum Operation {
+        INSERT("insert", 200, true),
+        BULK_INSERT("bulkInsert", 50, true),
+        QUERY("query", 500, false),
+        BULK_READ("bulkRead", 50, false);
+
+        private final String name;
+        private final int defaultLimit;
+        private final boolean write;
+
+        Operation(String name, int defaultLimit, boolean write) {
+            this.name = name;
+            this.defaultLimit = defaultLimit;
+            this.write = write;
+        }
+    }
 
     public InFlightService() {
+        int queueMillis = HubProperties.getProperty("inFlight.queueMillis", 1000);
+        int retryAfter = HubProperties.getProperty("inFlight.retryAfterSeconds", 2);
+        for (Operation operation : Operation.values()) {
+            int limit = HubProperties.getProperty("inFlight." + operation.name + ".limit", operation.defaultLimit);
+            admissions.put(operation, new Admission(operation, limit, queueMillis, retryAfter));
+        }
         HubServices.registerPreStop(new InFlightServiceShutdown());
     }
 
-    public <X> X inFlight(Throwing.Supplier<X> supplier) {
+    public <X> X inFlight(Operation operation, String channel, Throwing.Supplier<X> supplier) {
+        Permit permit = acquire(operation, channel);
         try {
-            inFlight.incrementAndGet();
             return Errors.rethrow().wrap(supplier).get();
         } finally {
-            inFlight.decrementAndGet();
+            permit.close();
+        }
+    }
+
+    /**
+     * The caller must close the Permit once the operation is complete.
+     *
+     * @throws OverloadedException if the operation can not be admitted.
+     */
+    public Permit acquire(Operation operation, String channel) {
+        Set<Operation> operations = null;
+        if (admission && request.get()) {
+            operations = held.get();
+            if (operations.add(operation)) {
+                try {
+                    admissions.get(operation).acquire(channel);
+                } catch (RuntimeException e) {
+                    operations.remove(operation);
+                    throw e;
+                }
+            } else {
+                operations = null;
+            }
+        }
+        if (operation.write) {
+            inFlight.incrementAndGet();
         }
+        return new Permit(operation, channel, operations);
+    }
+
+    /**
+     * Marks the current thread as serving a client request, until requestCompleted is called.
+     */
+    public void requestStarted() {
+        request.set(true);
+        held.remove();
+    }
+
+    public void requestCompleted() {
+        request.set(false);
+        held.remove();
+    }
+
+    int getInUse(Operation operation) {
+        return admissions.get(operation).getInUse();
     }
 
     private void waitForInFlight() {
@@ -42,6 +139,149 @@ public class InFlightService {
         logger.info("completed waiting for in-flight to complete " + inFlight.get());
     }
 
+    public class Permit implements AutoCloseable {
+        private final Operation operation;
+        private final String channel;
+        private final Set<Operation> admitted;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Permit(Operation operation, String channel, Set<Operation> admitted) {
+            this.operation = operation;
+            this.channel = channel;
+            this.admitted = admitted;
+        }
+
+        /**
+         * Closes the Permit after the timeout, in case its owner never does.
+         */
+        public void expireAfter(long timeout, TimeUnit unit) {
+            expirer.schedule(() -> {
+                if (!closed.get()) {
+                    logger.info("expiring permit {} {}", operation.name, channel);
+                    statsd.increment("inFlight.expired", "operation:" + operation.name, "channel:" + channel);
+                    close();
+                }
+            }, timeout, unit);
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                if (operation.write) {
+                    inFlight.decrementAndGet();
+                }
+                if (admitted != null) {
+                    admitted.remove(operation);
+                    admissions.get(operation).release(channel);
+                }
+            }
+        }
+    }
+
+    static class Admission {
+        private final Operation operation;
+        private final int limit;
+        private final long queueMillis;
+        private final int retryAfter;
+        private final Map<String, Integer> channels = new HashMap<>();
+        private final LinkedHashMap<String, Deque<Waiter>> queues = new LinkedHashMap<>();
+        private int inUse;
+        private int waiting;
+
+        Admission(Operation operation, int limit, long queueMillis, int retryAfter) {
+            this.operation = operation;
+            this.limit = limit;
+            this.queueMillis = queueMillis;
+            this.retryAfter = retryAfter;
+        }
+
+        synchronized void acquire(String channel) {
+            if (inUse < limit && waiting == 0) {
+                admit(channel);
+                return;
+            }
+            if (channels.getOrDefault(channel, 0) >= getFairShare(channel)) {
+                throw reject(channel, TOO_MANY_REQUESTS);
+            }
+            if (waiting >= limit) {
+                throw reject(channel, SERVICE_UNAVAILABLE);
+            }
+            Waiter waiter = new Waiter();
+            queues.computeIfAbsent(channel, name -> new ArrayDeque<>()).add(waiter);
+            waiting++;
+            long deadline = System.currentTimeMillis() + queueMillis;
+            try {
+                while (!waiter.admitted) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        remove(channel, waiter);
+                        throw reject(channel, SERVICE_UNAVAILABLE);
+                    }
+                    wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.admitted) {
+                    release(channel);
+                } else {
+                    remove(channel, waiter);
+                }
+                throw new RuntimeInterruptedException(e);
+            }
+        }
+
+        synchronized void release(String channel) {
+            channels.computeIfPresent(channel, (name, count) -> count == 1 ? null : count - 1);
+            inUse--;
+            while (inUse < limit && !queues.isEmpty()) {
+                Iterator<Map.Entry<String, Deque<Waiter>>> iterator = queues.entrySet().iterator();
+                Map.Entry<String, Deque<Waiter>> next = iterator.next();
+                iterator.remove();
+                Waiter waiter = next.getValue().poll();
+                if (!next.getValue().isEmpty()) {
+                    queues.put(next.getKey(), next.getValue());
+                }
+                waiting--;
+                waiter.admitted = true;
+                admit(next.getKey());
+            }
+            notifyAll();
+        }
+
+        private void admit(String channel) {
+            inUse++;
+            channels.merge(channel, 1, Integer::sum);
+        }
+
+        private void remove(String channel, Waiter waiter) {
+            Deque<Waiter> queue = queues.get(channel);
+            if (queue != null && queue.remove(waiter)) {
+                waiting--;
+                if (queue.isEmpty()) {
+                    queues.remove(channel);
+                }
+            }
+        }
+
+        private int getFairShare(String channel) {
+            Set<String> active = new HashSet<>(channels.keySet());
+            active.addAll(queues.keySet());
+            active.add(channel);
+            return Math.max(1, limit / active.size());
+        }
+
+        private OverloadedException reject(String channel, int status) {
+            statsd.increment("inFlight.rejected", "operation:" + operation.name, "status:" + status, "channel:" + channel);
+            return new OverloadedException(operation.name + " is overloaded for " + channel, status, retryAfter);
+        }
+
+        synchronized int getInUse() {
+            return inUse;
+        }
+    }
+
+    private static class Waiter {
+        private boolean admitted;
+    }
 
     private class InFlightServiceShutdown extends AbstractIdleService {
         @Override
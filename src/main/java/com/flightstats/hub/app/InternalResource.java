@@ -6,6 +6,7 @@ import com.flightstats.hub.channel.InternalChannelResource;
 import com.flightstats.hub.cluster.InternalCuratorResource;
 import com.flightstats.hub.cluster.InternalZookeeperResource;
 import com.flightstats.hub.health.InternalHealthResource;
+import com.flightstats.hub.metrics.InternalLatencyResource;
 import com.flightstats.hub.metrics.InternalStacktraceResource;
 import com.flightstats.hub.metrics.InternalTracesResource;
 import com.flightstats.hub.time.InternalTimeResource;
@@ -44,6 +45,7 @@ public class InternalResource {
         addLink("channel", InternalChannelResource.DESCRIPTION);
         addLink("curator", InternalCuratorResource.DESCRIPTION);
         addLink("health", InternalHealthResource.DESCRIPTION);
+        addLink("latency", InternalLatencyResource.DESCRIPTION);
         addLink("properties", InternalPropertiesResource.DESCRIPTION);
         addLink("shutdown", InternalShutdownResource.DESCRIPTION);
         addLink("stacktrace", InternalStacktraceResource.DESCRIPTION);
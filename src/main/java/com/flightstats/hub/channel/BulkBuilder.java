@@ -1,5 +1,8 @@
 package com.flightstats.hub.channel;
 
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.app.InFlightService;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.model.ChannelContentKey;
 import com.flightstats.hub.model.ContentKey;
@@ -7,13 +10,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 class BulkBuilder {
 
     private final static Logger logger = LoggerFactory.getLogger(BulkBuilder.class);
+    private final static InFlightService inFlightService = HubProvider.getInstance(InFlightService.class);
+    private final static int permitSeconds = HubProperties.getProperty("inFlight.bulkReadSeconds", 600);
 
     public static Response build(SortedSet<ContentKey> keys, String channel,
                                  ChannelService channelService, UriInfo uriInfo, String accept) {
@@ -24,11 +32,13 @@ class BulkBuilder {
     public static Response build(SortedSet<ContentKey> keys, String channel,
                                  ChannelService channelService, UriInfo uriInfo, String accept,
                                  Consumer<Response.ResponseBuilder> headerBuilder) {
-        if ("application/zip".equalsIgnoreCase(accept)) {
-            return ZipBulkBuilder.build(keys, channel, channelService, headerBuilder);
-        } else {
-            return MultiPartBulkBuilder.build(keys, channel, channelService, uriInfo, headerBuilder);
-        }
+        return withPermit(channel, () -> {
+            if ("application/zip".equalsIgnoreCase(accept)) {
+                return ZipBulkBuilder.build(keys, channel, channelService, headerBuilder);
+            } else {
+                return MultiPartBulkBuilder.build(keys, channel, channelService, uriInfo, headerBuilder);
+            }
+        });
     }
 
     static Response buildTag(String tag, SortedSet<ChannelContentKey> keys,
@@ -40,10 +50,37 @@ class BulkBuilder {
     static Response buildTag(String tag, SortedSet<ChannelContentKey> keys,
                              ChannelService channelService, UriInfo uriInfo, String accept,
                              Consumer<Response.ResponseBuilder> headerBuilder) {
-        if ("application/zip".equalsIgnoreCase(accept)) {
-            return ZipBulkBuilder.buildTag(tag, keys, channelService, headerBuilder);
-        } else {
-            return MultiPartBulkBuilder.buildTag(tag, keys, channelService, uriInfo, headerBuilder);
+        return withPermit("tag:" + tag, () -> {
+            if ("application/zip".equalsIgnoreCase(accept)) {
+                return ZipBulkBuilder.buildTag(tag, keys, channelService, headerBuilder);
+            } else {
+                return MultiPartBulkBuilder.buildTag(tag, keys, channelService, uriInfo, headerBuilder);
+            }
+        });
+    }
+
+    /**
+     * Bulk reads are admitted before the response starts, and hold the permit until the response is written.
+     * The permit expires after inFlight.bulkReadSeconds, in case the response is never written.
+     */
+    private static Response withPermit(String channel, Supplier<Response> supplier) {
+        InFlightService.Permit permit = inFlightService.acquire(InFlightService.Operation.BULK_READ, channel);
+        permit.expireAfter(permitSeconds, TimeUnit.SECONDS);
+        try {
+            Response response = supplier.get();
+            StreamingOutput output = (StreamingOutput) response.getEntity();
+            return Response.fromResponse(response)
+                    .entity((StreamingOutput) os -> {
+                        try {
+                            output.write(os);
+                        } finally {
+                            permit.close();
+                        }
+                    })
+                    .build();
+        } catch (RuntimeException e) {
+            permit.close();
+            throw e;
         }
     }
 
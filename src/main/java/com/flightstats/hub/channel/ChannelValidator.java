@@ -41,6 +41,7 @@ public class ChannelValidator {
         validateTags(config);
         validateStorage(config);
         validateGlobal(config);
+        validateRateLimits(config);
         if (!isLocalHost) {
             preventDataLoss(config, oldConfig);
         }
@@ -140,6 +141,12 @@ public class ChannelValidator {
         }
     }
 
+    private void validateRateLimits(ChannelConfig request) {
+        if (request.getMaxItemsPerSecond() < 0 || request.getMaxBytesPerSecond() < 0) {
+            throw new InvalidRequestException("{\"error\": \"maxItemsPerSecond and maxBytesPerSecond must not be negative \"}");
+        }
+    }
+
     private void validateDescription(ChannelConfig request) {
         if (request.getDescription().length() > 1024) {
             throw new InvalidRequestException("{\"error\": \"Description must be less than 1024 bytes. \"}");
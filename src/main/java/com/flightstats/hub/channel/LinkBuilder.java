@@ -53,6 +53,8 @@ public class LinkBuilder {
             config.getGlobal().getSatellites().forEach(satellites::add);
         }
         root.put("maxItems", config.getMaxItems());
+        root.put("maxItemsPerSecond", config.getMaxItemsPerSecond());
+        root.put("maxBytesPerSecond", config.getMaxBytesPerSecond());
         if (config.getMutableTime() != null) {
             root.put("mutableTime", TimeUtil.FORMATTER.print(config.getMutableTime()));
         } else {
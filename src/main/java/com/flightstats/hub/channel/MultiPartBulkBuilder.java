@@ -1,14 +1,12 @@
 package com.flightstats.hub.channel;
 
 import com.flightstats.hub.dao.ChannelService;
-import com.flightstats.hub.dao.Request;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.ChannelContentKey;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.util.TimeUtil;
-import com.google.common.base.Optional;
 import com.google.common.io.ByteStreams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,9 +51,8 @@ class MultiPartBulkBuilder {
         Traces traces = ActiveTraces.getLocal();
         return write((BufferedOutputStream output) -> {
             ActiveTraces.setLocal(traces);
-            for (ChannelContentKey key : keys) {
-                writeContent(uriInfo, output, key.getContentKey(), key.getChannel(), channelService);
-            }
+            TagBulkFetcher.fetch(keys, channelService, (channel, content) -> writeContent(content, output,
+                    LinkBuilder.buildChannelUri(channel, uriInfo), channel));
         }, headerBuilder);
     }
 
@@ -74,19 +71,6 @@ class MultiPartBulkBuilder {
         return builder.build();
     }
 
-    private static void writeContent(UriInfo uriInfo, BufferedOutputStream output, ContentKey key, String channel,
-                                     ChannelService channelService) {
-        Request request = Request.builder()
-                .channel(channel)
-                .key(key)
-                .build();
-        Optional<Content> content = channelService.get(request);
-        if (content.isPresent()) {
-            Content item = content.get();
-            writeContent(item, output, LinkBuilder.buildChannelUri(channel, uriInfo), channel);
-        }
-    }
-
     private static void writeContent(Content content, OutputStream output, URI channelUri, String name) {
         writeContent(content, output, channelUri, name, true, false);
     }
@@ -0,0 +1,139 @@
+package com.flightstats.hub.channel;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.Traces;
+import com.flightstats.hub.model.ChannelContentKey;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.RuntimeInterruptedException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * TagBulkFetcher reads the items for a tag bulk request one minute at a time, using the batched
+ * ChannelService.get for each channel within the minute.
+ * Up to tag.bulkPrefetch minutes are read in parallel, and items are passed to the callback in key order.
+ * The window also stops growing at tag.bulkPrefetchItems keys, or once the loaded minutes hold tag.bulkPrefetchMB,
+ * so large items are read fewer minutes at a time.  The next minute is always read once the window is empty.
+ */
+class TagBulkFetcher {
+
+    private final static Logger logger = LoggerFactory.getLogger(TagBulkFetcher.class);
+    private static final int prefetch = HubProperties.getProperty("tag.bulkPrefetch", 10);
+    private static final int prefetchItems = HubProperties.getProperty("tag.bulkPrefetchItems", 1000);
+    private static final long prefetchBytes = HubProperties.getProperty("tag.bulkPrefetchMB", 50) * 1024L * 1024L;
+    private static final ExecutorService executorService = Executors.newFixedThreadPool(
+            HubProperties.getProperty("tag.bulkThreads", 20),
+            new ThreadFactoryBuilder().setNameFormat("TagBulkFetcher-%d").setDaemon(true).build());
+
+    static void fetch(SortedSet<ChannelContentKey> keys, ChannelService channelService,
+                      BiConsumer<String, Content> callback) {
+        fetch(keys, channelService, callback, prefetch, prefetchItems, prefetchBytes);
+    }
+
+    @VisibleForTesting
+    static void fetch(SortedSet<ChannelContentKey> keys, ChannelService channelService,
+                      BiConsumer<String, Content> callback, int maxMinutes, int maxItems, long maxBytes) {
+        Traces traces = ActiveTraces.getLocal();
+        Iterator<List<ChannelContentKey>> minutes = groupByMinute(keys).iterator();
+        Deque<Future<SortedMap<ChannelContentKey, Content>>> futures = new ArrayDeque<>();
+        Deque<Integer> futureItems = new ArrayDeque<>();
+        AtomicLong loadedBytes = new AtomicLong();
+        int windowItems = 0;
+        List<ChannelContentKey> next = minutes.hasNext() ? minutes.next() : null;
+        try {
+            while (next != null || !futures.isEmpty()) {
+                while (next != null && (futures.isEmpty() || (futures.size() < maxMinutes
+                        && windowItems + next.size() <= maxItems && loadedBytes.get() < maxBytes))) {
+                    List<ChannelContentKey> minute = next;
+                    futures.add(executorService.submit(() -> {
+                        ActiveTraces.setLocal(traces);
+                        try {
+                            SortedMap<ChannelContentKey, Content> contents = fetchMinute(minute, channelService);
+                            loadedBytes.addAndGet(getBytes(contents));
+                            return contents;
+                        } finally {
+                            ActiveTraces.setLocal(null);
+                        }
+                    }));
+                    futureItems.add(minute.size());
+                    windowItems += minute.size();
+                    next = minutes.hasNext() ? minutes.next() : null;
+                }
+                SortedMap<ChannelContentKey, Content> contents = futures.removeFirst().get();
+                windowItems -= futureItems.removeFirst();
+                contents.forEach((key, content) -> callback.accept(key.getChannel(), content));
+                loadedBytes.addAndGet(-getBytes(contents));
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeInterruptedException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * Streamed items are not held in memory, and are not counted.
+     */
+    private static long getBytes(SortedMap<ChannelContentKey, Content> contents) {
+        long bytes = 0;
+        for (Content content : contents.values()) {
+            try {
+                bytes += content.getSize();
+            } catch (UnsupportedOperationException e) {
+                logger.trace("streamed content {}", content.getContentKey());
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Keys are ordered by time then channel, so each minute is a contiguous run.
+     */
+    static List<List<ChannelContentKey>> groupByMinute(SortedSet<ChannelContentKey> keys) {
+        List<List<ChannelContentKey>> minutes = new ArrayList<>();
+        MinutePath current = null;
+        for (ChannelContentKey key : keys) {
+            MinutePath minutePath = new MinutePath(key.getContentKey().getTime());
+            if (!minutePath.equals(current)) {
+                current = minutePath;
+                minutes.add(new ArrayList<>());
+            }
+            minutes.get(minutes.size() - 1).add(key);
+        }
+        return minutes;
+    }
+
+    private static SortedMap<ChannelContentKey, Content> fetchMinute(List<ChannelContentKey> minute,
+                                                                     ChannelService channelService) {
+        Map<String, SortedSet<ContentKey>> channels = new TreeMap<>();
+        for (ChannelContentKey key : minute) {
+            channels.computeIfAbsent(key.getChannel(), name -> new TreeSet<>()).add(key.getContentKey());
+        }
+        SortedMap<ChannelContentKey, Content> contents = new ConcurrentSkipListMap<>();
+        channels.forEach((channel, keys) -> channelService.get(channel, keys, content -> {
+            ChannelContentKey key = new ChannelContentKey(channel, content.getContentKey().get());
+            if (keys.contains(key.getContentKey())) {
+                contents.put(key, content);
+            }
+        }));
+        for (ChannelContentKey key : minute) {
+            if (!contents.containsKey(key)) {
+                logger.warn("missing content for tag bulk {}", key);
+            }
+        }
+        return contents;
+    }
+}
@@ -3,6 +3,7 @@ package com.flightstats.hub.cluster;
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.exception.ConflictException;
 import com.flightstats.hub.exception.ContentTooLargeException;
+import com.flightstats.hub.metrics.LatencyRecorder;
 import com.flightstats.hub.model.ContentPath;
 import com.google.common.base.Optional;
 import com.google.inject.Inject;
@@ -139,8 +140,10 @@ public class LastContentPath {
     }
 
     private boolean setValue(String path, ContentPath nextPath, LastUpdated existing) throws Exception {
+        long start = System.currentTimeMillis();
         try {
             curator.setData().withVersion(existing.version).forPath(path, nextPath.toBytes());
+            LatencyRecorder.recordSince("zookeeper.update", start);
             return true;
         } catch (KeeperException.BadVersionException e) {
             logger.debug("bad version " + path + " " + e.getMessage());
@@ -0,0 +1,227 @@
+package com.flightstats.hub.cluster;
+
+import com.google.inject.Inject;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LongBlobSet has the same API as LongSet, and stores the whole set in a single node.
+ * <p>
+ * The values are sorted and delta encoded as varints, after a format byte.
+ * Changes from concurrent callers are written together, with a compare and set on the node's version,
+ * so a batch of changes costs one read and one write.
+ * <p>
+ * A node written by LongSet holds Curator's default data, or none, with one child per value.
+ * Its children are read as the set, and the first write converts the node, removing the children.
+ */
+public class LongBlobSet {
+    private final static Logger logger = LoggerFactory.getLogger(LongBlobSet.class);
+
+    private static final byte FORMAT = 1;
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final String path;
+    private final CuratorFramework curator;
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    @Inject
+    public LongBlobSet(String path, CuratorFramework curator) {
+        this.path = path;
+        this.curator = curator;
+        createNode();
+    }
+
+    private void createNode() {
+        try {
+            curator.create().creatingParentsIfNeeded().forPath(path, encode(Collections.emptySortedSet()));
+        } catch (KeeperException.NodeExistsException ignore) {
+            //this will typically happen, except the first time
+        } catch (Exception e) {
+            logger.warn("unable to create node", e);
+        }
+    }
+
+    public void add(long value) {
+        apply(new Change(value, true));
+    }
+
+    public void remove(long value) {
+        apply(new Change(value, false));
+    }
+
+    /**
+     * The caller's change may be written by another thread which holds the lock, along with any other queued changes.
+     */
+    private void apply(Change change) {
+        changes.add(change);
+        writeLock.lock();
+        try {
+            if (!change.written) {
+                List<Change> batch = new ArrayList<>();
+                Change next;
+                while ((next = changes.poll()) != null) {
+                    batch.add(next);
+                }
+                write(batch);
+                batch.forEach(written -> written.written = true);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void write(List<Change> batch) {
+        try {
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                Stat stat = new Stat();
+                byte[] bytes;
+                try {
+                    bytes = curator.getData().storingStatIn(stat).forPath(path);
+                } catch (KeeperException.NoNodeException e) {
+                    createNode();
+                    continue;
+                }
+                SortedSet<Long> values = decode(bytes);
+                Set<Long> legacy = Collections.emptySet();
+                if (values == null) {
+                    legacy = getLegacy();
+                    values = new TreeSet<>(legacy);
+                }
+                boolean changed = !legacy.isEmpty();
+                for (Change change : batch) {
+                    changed |= change.add ? values.add(change.value) : values.remove(change.value);
+                }
+                if (!changed) {
+                    return;
+                }
+                try {
+                    curator.setData().withVersion(stat.getVersion()).forPath(path, encode(values));
+                    deleteLegacy(legacy);
+                    return;
+                } catch (KeeperException.BadVersionException e) {
+                    logger.debug("version changed {} {}", path, stat.getVersion());
+                }
+            }
+            logger.warn("unable to write {} changes to {} after {} attempts", batch.size(), path, MAX_ATTEMPTS);
+        } catch (Exception e) {
+            logger.warn("unable to write " + path, e);
+        }
+    }
+
+    public Set<Long> getSet() {
+        try {
+            SortedSet<Long> values = decode(curator.getData().forPath(path));
+            if (values == null) {
+                return getLegacy();
+            }
+            return new HashSet<>(values);
+        } catch (KeeperException.NoNodeException e) {
+            logger.debug("no node {}", path);
+        } catch (Exception e) {
+            logger.warn("unable to get set " + path, e);
+        }
+        return new HashSet<>();
+    }
+
+    private Set<Long> getLegacy() throws Exception {
+        Set<Long> values = new HashSet<>();
+        for (String child : curator.getChildren().forPath(path)) {
+            try {
+                values.add(Long.valueOf(child));
+            } catch (NumberFormatException e) {
+                logger.warn("ignoring child {} of {}", child, path);
+            }
+        }
+        return values;
+    }
+
+    private void deleteLegacy(Set<Long> legacy) {
+        for (Long value : legacy) {
+            try {
+                curator.delete().forPath(path + "/" + value);
+            } catch (KeeperException.NoNodeException ignore) {
+                logger.trace("already deleted {} {}", path, value);
+            } catch (Exception e) {
+                logger.warn("unable to delete " + path + "/" + value, e);
+            }
+        }
+    }
+
+    public static void delete(String path, CuratorFramework curator) {
+        LongSet.delete(path, curator);
+    }
+
+    static byte[] encode(SortedSet<Long> values) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(1 + 2 * values.size());
+        output.write(FORMAT);
+        writeVarLong(output, values.size());
+        long previous = 0;
+        for (Long value : values) {
+            long delta = value - previous;
+            writeVarLong(output, (delta << 1) ^ (delta >> 63));
+            previous = value;
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * @return the values, or null if the data is not in FORMAT, such as the default data of a LongSet node
+     */
+    static SortedSet<Long> decode(byte[] bytes) {
+        if (bytes == null || bytes.length == 0 || bytes[0] != FORMAT) {
+            return null;
+        }
+        SortedSet<Long> values = new TreeSet<>();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.get();
+        long size = readVarLong(buffer);
+        long previous = 0;
+        for (long i = 0; i < size; i++) {
+            long zigzag = readVarLong(buffer);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            values.add(previous);
+        }
+        return values;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream output, long value) {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+
+    private static class Change {
+        private final long value;
+        private final boolean add;
+        private volatile boolean written;
+
+        private Change(long value, boolean add) {
+            this.value = value;
+            this.add = add;
+        }
+    }
+}
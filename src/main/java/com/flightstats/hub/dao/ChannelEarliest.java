@@ -0,0 +1,110 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.DirectionQuery;
+import com.flightstats.hub.model.Location;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.SortedSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ChannelEarliest keeps a lower bound for the first key of each non-historical channel, per Location,
+ * so next queries from the earliest time can skip the empty time buckets after the channel's ttl.
+ * <p>
+ * The bound is advanced from the results of next queries which start at the earliest time, by deleteBefore,
+ * and as items expire.  Reads are cached for channel.earliestCacheSeconds.
+ */
+@Singleton
+class ChannelEarliest {
+
+    private static final String CHANNEL_EARLIEST = "/ChannelEarliest/";
+
+    private final LastContentPath lastContentPath;
+    private final Cache<String, Optional<ContentPath>> cache = CacheBuilder.newBuilder()
+            .expireAfterWrite(HubProperties.getProperty("channel.earliestCacheSeconds", 10), TimeUnit.SECONDS)
+            .build();
+
+    @Inject
+    ChannelEarliest(LastContentPath lastContentPath) {
+        this.lastContentPath = lastContentPath;
+    }
+
+    /**
+     * @return the key a next query from the earliest time should start from, the later of its earliestTime and the bound
+     */
+    ContentKey getStart(DirectionQuery query) {
+        ContentKey start = new ContentKey(query.getEarliestTime(), "0");
+        if (!query.getChannelConfig().isHistorical()) {
+            Optional<ContentPath> earliest = get(query.getChannelName(), query.getLocation());
+            if (earliest.isPresent() && earliest.get().getTime().isAfter(start.getTime())) {
+                start = new ContentKey(earliest.get().getTime(), "0");
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Records the first key from a next query which started at the earliest time.
+     * Only keys older than the Spoke ttl are recorded, as the long term tiers can still be filled in
+     * by S3Verifier within that window, and a partial Spoke result could otherwise skip an item.
+     */
+    void update(DirectionQuery query, SortedSet<ContentKey> contentKeys) {
+        if (!query.isNext() || contentKeys.isEmpty()
+                || query.getLocation().equals(Location.CACHE)
+                || query.getChannelConfig().isHistorical()
+                || !query.getStartKey().equals(getStart(query))) {
+            return;
+        }
+        ContentKey first = contentKeys.first();
+        if (first.getTime().isBefore(TimeUtil.now().minusMinutes(HubProperties.getSpokeTtl()))) {
+            increase(query.getChannelName(), query.getLocation(), first);
+        }
+    }
+
+    /**
+     * Moves any existing bounds up to limitKey, once the items before it are deleted or expired.
+     */
+    void advance(String channel, ContentKey limitKey) {
+        for (Location location : Location.values()) {
+            Optional<ContentPath> earliest = get(channel, location);
+            if (earliest.isPresent() && earliest.get().compareTo(limitKey) < 0) {
+                increase(channel, location, limitKey);
+            }
+        }
+    }
+
+    void delete(String channel) {
+        for (Location location : Location.values()) {
+            lastContentPath.delete(channel, getPath(location));
+            cache.invalidate(getPath(location) + channel);
+        }
+    }
+
+    private void increase(String channel, Location location, ContentKey key) {
+        lastContentPath.updateIncrease(key, channel, getPath(location));
+        cache.invalidate(getPath(location) + channel);
+    }
+
+    private Optional<ContentPath> get(String channel, Location location) {
+        String basePath = getPath(location);
+        try {
+            return cache.get(basePath + channel, () -> Optional.fromNullable(lastContentPath.get(channel, null, basePath)));
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static String getPath(Location location) {
+        return CHANNEL_EARLIEST + location.name() + "/";
+    }
+}
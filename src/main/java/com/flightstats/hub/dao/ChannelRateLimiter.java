@@ -0,0 +1,123 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.cluster.CuratorCluster;
+import com.flightstats.hub.exception.OverloadedException;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.model.ChannelConfig;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.timgroup.statsd.StatsDClient;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ChannelRateLimiter enforces ChannelConfig.maxItemsPerSecond and maxBytesPerSecond with a token bucket per channel.
+ * <p>
+ * Each hub server allows its share of the channel's rate, the rate divided by the number of servers,
+ * which approximates the cluster wide limit when writes are balanced across the cluster.
+ * Buckets hold up to channel.rateLimitBurstSeconds of the rate, and are updated with compare and set.
+ */
+@Singleton
+public class ChannelRateLimiter {
+
+    private final static StatsDClient statsd = DataDog.statsd;
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final long burstNanos = TimeUnit.SECONDS.toNanos(HubProperties.getProperty("channel.rateLimitBurstSeconds", 1));
+    private final Map<String, TokenBucket> itemBuckets = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> byteBuckets = new ConcurrentHashMap<>();
+    private final Supplier<Integer> servers;
+
+    @Inject
+    public ChannelRateLimiter(@Named("HubCuratorCluster") CuratorCluster cluster) {
+        servers = Suppliers.memoizeWithExpiration(() -> Math.max(1, cluster.getServers().size()), 10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Takes the items and bytes from the channel's buckets, or neither of them.
+     *
+     * @throws OverloadedException with a 429 if the channel is over either rate.
+     */
+    public void check(ChannelConfig channel, long items, long bytes) {
+        if (channel.isReplicating()) {
+            return;
+        }
+        long itemNanos = acquire(channel, itemBuckets, channel.getMaxItemsPerSecond(), items, "items");
+        try {
+            acquire(channel, byteBuckets, channel.getMaxBytesPerSecond(), bytes, "bytes");
+        } catch (OverloadedException e) {
+            if (itemNanos > 0) {
+                itemBuckets.get(channel.getName()).release(itemNanos);
+            }
+            throw e;
+        }
+    }
+
+    public void delete(String channel) {
+        itemBuckets.remove(channel);
+        byteBuckets.remove(channel);
+    }
+
+    /**
+     * @return the nanos taken from the bucket, to release if the request is rejected.
+     */
+    private long acquire(ChannelConfig channel, Map<String, TokenBucket> buckets, long perSecond, long cost, String type) {
+        if (perSecond <= 0) {
+            return 0;
+        }
+        double rate = (double) perSecond / servers.get();
+        TokenBucket bucket = buckets.computeIfAbsent(channel.getName(), name -> new TokenBucket());
+        long costNanos = TokenBucket.getCostNanos(cost, rate);
+        long waitNanos = bucket.tryAcquire(cost, rate, burstNanos, System.nanoTime());
+        if (waitNanos > 0) {
+            statsd.increment("channel.rateLimited", "type:" + type, "channel:" + channel.getName());
+            int retryAfter = (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+            throw new OverloadedException(channel.getName() + " is over " + perSecond + " " + type + " per second",
+                    TOO_MANY_REQUESTS, retryAfter);
+        }
+        return costNanos;
+    }
+
+    /**
+     * TokenBucket keeps the time at which the bucket will be full again, which moves forward with each acquire.
+     */
+    static class TokenBucket {
+        private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+
+        /**
+         * @return 0 if the cost was taken, otherwise the nanos to wait before it could be.
+         */
+        long tryAcquire(long cost, double perSecond, long burstNanos, long now) {
+            long costNanos = getCostNanos(cost, perSecond);
+            while (true) {
+                long current = fullAt.get();
+                long start = Math.max(current, now);
+                long next = start + costNanos;
+                if (start > now && next - now > burstNanos) {
+                    return next - now - burstNanos;
+                }
+                if (fullAt.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        /**
+         * Returns a cost which was taken, moving the full time back.
+         */
+        void release(long costNanos) {
+            fullAt.addAndGet(-costNanos);
+        }
+
+        static long getCostNanos(long cost, double perSecond) {
+            return (long) ((double) cost * TimeUnit.SECONDS.toNanos(1) / perSecond);
+        }
+    }
+}
@@ -40,6 +40,11 @@ public interface ChannelService {
 
     void deleteBefore(String name, ContentKey limitKey);
 
+    /**
+     * Advances the earliest marker of a channel once the items before limitKey have been removed.
+     */
+    void updateEarliest(String name, ContentKey limitKey);
+
     Optional<Content> get(Request request);
 
     void get(String channel, SortedSet<ContentKey> keys, Consumer<Content> callback);
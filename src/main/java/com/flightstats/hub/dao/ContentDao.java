@@ -4,6 +4,7 @@ import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
 import com.google.common.base.Optional;
 
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.SortedSet;
 import java.util.function.Consumer;
@@ -38,6 +39,13 @@ public interface ContentDao {
         throw new UnsupportedOperationException("writeBatch is not supported");
     }
 
+    /**
+     * Writes a zip of the minute from the stream, and indexes the keys found in the zip.
+     */
+    default void writeBatch(String channel, ContentPath path, Collection<ContentKey> keys, InputStream stream) {
+        throw new UnsupportedOperationException("writeBatch is not supported");
+    }
+
     default boolean streamMinute(String channel, ContentPathKeys path, Consumer<Content> callback) {
         throw new UnsupportedOperationException("streamMinute is not supported");
     }
@@ -49,4 +57,10 @@ public interface ContentDao {
     default void delete(String channelName, ContentKey key) {
         throw new UnsupportedOperationException("delete key is not supported");
     }
+
+    default void delete(String channelName, Collection<ContentKey> keys) {
+        for (ContentKey key : keys) {
+            delete(channelName, key);
+        }
+    }
 }
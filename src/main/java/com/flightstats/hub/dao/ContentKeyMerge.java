@@ -0,0 +1,91 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * ContentKeyMerge is a lazy, de-duplicated view over the already sorted key sets returned by each ContentDao.
+ * <p>
+ * Iterating in either direction only reads as far into each source as the caller consumes,
+ * so queries with small counts do not need to copy or sort every key.
+ */
+public class ContentKeyMerge extends AbstractCollection<ContentKey> {
+
+    private final List<SortedSet<ContentKey>> sources;
+
+    public ContentKeyMerge(List<SortedSet<ContentKey>> sources) {
+        this.sources = sources;
+    }
+
+    @Override
+    public Iterator<ContentKey> iterator() {
+        List<Iterator<ContentKey>> iterators = new ArrayList<>();
+        for (SortedSet<ContentKey> source : sources) {
+            iterators.add(source.iterator());
+        }
+        return distinct(Iterators.mergeSorted(iterators, Comparator.naturalOrder()));
+    }
+
+    public Iterator<ContentKey> descendingIterator() {
+        List<Iterator<ContentKey>> iterators = new ArrayList<>();
+        for (SortedSet<ContentKey> source : sources) {
+            if (source instanceof NavigableSet) {
+                iterators.add(((NavigableSet<ContentKey>) source).descendingIterator());
+            } else {
+                iterators.add(new TreeSet<>(source).descendingIterator());
+            }
+        }
+        return distinct(Iterators.mergeSorted(iterators, Comparator.reverseOrder()));
+    }
+
+    public Stream<ContentKey> stream(boolean ascending) {
+        Iterator<ContentKey> iterator = ascending ? iterator() : descendingIterator();
+        Spliterator<ContentKey> spliterator = Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    @Override
+    public Stream<ContentKey> stream() {
+        return stream(true);
+    }
+
+    @Override
+    public int size() {
+        return Iterators.size(iterator());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (SortedSet<ContentKey> source : sources) {
+            if (!source.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Iterator<ContentKey> distinct(Iterator<ContentKey> merged) {
+        PeekingIterator<ContentKey> peeking = Iterators.peekingIterator(merged);
+        return new Iterator<ContentKey>() {
+            @Override
+            public boolean hasNext() {
+                return peeking.hasNext();
+            }
+
+            @Override
+            public ContentKey next() {
+                ContentKey key = peeking.next();
+                while (peeking.hasNext() && peeking.peek().equals(key)) {
+                    peeking.next();
+                }
+                return key;
+            }
+        };
+    }
+}
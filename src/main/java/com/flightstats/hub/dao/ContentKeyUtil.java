@@ -12,14 +12,11 @@ import java.util.stream.Stream;
 public class ContentKeyUtil {
 
     public static SortedSet<ContentKey> filter(Collection<ContentKey> keys, DirectionQuery query) {
-        Stream<ContentKey> stream = keys.stream();
+        Stream<ContentKey> stream;
         if (query.isNext()) {
-            stream = stream.filter(key -> key.compareTo(query.getStartKey()) > 0);
+            stream = ascending(keys).filter(key -> key.compareTo(query.getStartKey()) > 0);
         } else {
-            Collection<ContentKey> contentKeys = new TreeSet<>(Collections.reverseOrder());
-            contentKeys.addAll(keys);
-            stream = contentKeys.stream()
-                    .filter(key -> key.compareTo(query.getStartKey()) < 0);
+            stream = descending(keys).filter(key -> key.compareTo(query.getStartKey()) < 0);
         }
         stream = enforceLimits(query, stream);
         return stream
@@ -27,6 +24,25 @@ public class ContentKeyUtil {
                 .collect(Collectors.toCollection(TreeSet::new));
     }
 
+    private static Stream<ContentKey> ascending(Collection<ContentKey> keys) {
+        if (keys instanceof ContentKeyMerge) {
+            return ((ContentKeyMerge) keys).stream(true);
+        }
+        return keys.stream();
+    }
+
+    private static Stream<ContentKey> descending(Collection<ContentKey> keys) {
+        if (keys instanceof ContentKeyMerge) {
+            return ((ContentKeyMerge) keys).stream(false);
+        }
+        if (keys instanceof NavigableSet) {
+            return ((NavigableSet<ContentKey>) keys).descendingSet().stream();
+        }
+        Collection<ContentKey> contentKeys = new TreeSet<>(Collections.reverseOrder());
+        contentKeys.addAll(keys);
+        return contentKeys.stream();
+    }
+
     static Stream<ContentKey> enforceLimits(Query query, Stream<ContentKey> stream) {
         ChannelConfig channelConfig = query.getChannelConfig();
         if (!channelConfig.isHistorical()) {
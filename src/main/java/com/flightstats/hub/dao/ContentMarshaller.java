@@ -7,11 +7,14 @@ import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.exception.ContentTooLargeException;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.RawZipOutputStream;
 import com.google.common.io.ByteStreams;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -54,7 +57,36 @@ public class ContentMarshaller {
         Content.Builder builder = Content.builder().withContentKey(key);
         setMetaData(new String(bytes), builder);
         zipStream.getNextEntry();
-        return builder.withStream(zipStream).build();
+        return builder.withStream(new MarshalledStream(zipStream, read)).build();
+    }
+
+    /**
+     * @return the location of the deflated payload within bytes from toBytes, or null if it can not be found.
+     */
+    public static RawZipOutputStream.RawEntry getPayloadEntry(byte[] marshalled) {
+        RawZipOutputStream.RawEntry entry = RawZipOutputStream.readEntries(marshalled).get("payload");
+        if (entry == null || entry.getMethod() != ZipEntry.DEFLATED) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * MarshalledStream reads the payload of bytes from toBytes, which can also be copied while it is unread.
+     * The bytes are only held by the stream, so they are released along with it once the content is read.
+     */
+    public static class MarshalledStream extends FilterInputStream {
+
+        private final byte[] marshalled;
+
+        private MarshalledStream(InputStream payload, byte[] marshalled) {
+            super(payload);
+            this.marshalled = marshalled;
+        }
+
+        public byte[] getMarshalled() {
+            return marshalled;
+        }
     }
 
     public static void setMetaData(String metaData, Content.Builder builder) throws IOException {
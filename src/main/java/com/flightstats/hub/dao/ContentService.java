@@ -2,10 +2,12 @@ package com.flightstats.hub.dao;
 
 import com.flightstats.hub.model.*;
 import com.google.common.base.Optional;
+import org.joda.time.DateTime;
 
 import java.util.Collection;
 import java.util.SortedSet;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public interface ContentService {
 
@@ -13,6 +15,14 @@ public interface ContentService {
 
     ContentKey insert(String channelName, Content content) throws Exception;
 
+    /**
+     * Runs an insert of new items, passing it the time from clock to use for their keys.
+     * Implementations may track the insert from before that time is chosen until the insert completes.
+     */
+    default <T> T insertNew(Supplier<DateTime> clock, NewInsert<T> insert) throws Exception {
+        return insert.insert(clock.get());
+    }
+
     Collection<ContentKey> insert(BulkContent bulkContent) throws Exception;
 
     boolean historicalInsert(String channelName, Content content) throws Exception;
@@ -39,6 +49,10 @@ public interface ContentService {
         //do nothing
     }
 
+    interface NewInsert<T> {
+        T insert(DateTime now) throws Exception;
+    }
+
     static Optional<ContentKey> chooseLatest(Collection<ContentKey> contentKeys, DirectionQuery query) {
         if (contentKeys.isEmpty()) {
             return Optional.absent();
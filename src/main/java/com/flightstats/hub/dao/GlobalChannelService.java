@@ -157,6 +157,11 @@ public class GlobalChannelService implements ChannelService {
                 (Supplier<Void>) () -> null);
     }
 
+    @Override
+    public void updateEarliest(String name, ContentKey limitKey) {
+        localChannelService.updateEarliest(name, limitKey);
+    }
+
     @Override
     public Optional<Content> get(Request request) {
         return primaryAndSecondary(request.getChannel(),
@@ -2,6 +2,7 @@ package com.flightstats.hub.dao;
 
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.InFlightService;
+import com.flightstats.hub.app.InFlightService.Operation;
 import com.flightstats.hub.channel.ChannelValidator;
 import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.dao.aws.MultiPartParser;
@@ -14,6 +15,7 @@ import com.flightstats.hub.model.*;
 import com.flightstats.hub.replication.ReplicationGlobalManager;
 import com.flightstats.hub.time.TimeService;
 import com.flightstats.hub.util.TimeUtil;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -56,6 +58,10 @@ public class LocalChannelService implements ChannelService {
     private InFlightService inFlightService;
     @Inject
     private TimeService timeService;
+    @Inject
+    private ChannelRateLimiter channelRateLimiter;
+    @Inject
+    private ChannelEarliest channelEarliest;
 
     @Override
     public boolean channelExists(String channelName) {
@@ -120,20 +126,28 @@ public class LocalChannelService implements ChannelService {
     }
 
     private ContentKey insertInternal(String channelName, Content content) throws Exception {
-        return inFlightService.inFlight(() -> {
+        return inFlightService.inFlight(Operation.INSERT, channelName, () -> {
             Traces traces = ActiveTraces.getLocal();
             traces.add("ContentService.insert");
             try {
+                ChannelConfig channelConfig = getCachedChannelConfig(channelName);
                 content.packageStream();
+                channelRateLimiter.check(channelConfig, 1, content.getSize());
                 traces.add("ContentService.insert marshalled");
-                ContentKey key = content.keyAndStart(timeService.getNow());
-                logger.trace("writing key {} to channel {}", key, channelName);
-                contentService.insert(channelName, content);
+                ContentKey key = contentService.insertNew(timeService::getNow, now -> {
+                    ContentKey newKey = content.keyAndStart(now);
+                    logger.trace("writing key {} to channel {}", newKey, channelName);
+                    contentService.insert(channelName, content);
+                    return newKey;
+                });
                 traces.add("ContentService.insert end", key);
                 return key;
             } catch (ContentTooLargeException e) {
                 logger.info("content too large for channel " + channelName);
                 throw e;
+            } catch (OverloadedException e) {
+                traces.add("ContentService.insert", "rejected", e.getMessage());
+                throw e;
             } catch (Exception e) {
                 traces.add("ContentService.insert", "error", e.getMessage());
                 logger.warn("insertion error " + channelName, e);
@@ -156,7 +170,7 @@ public class LocalChannelService implements ChannelService {
             logger.warn(msg);
             throw new InvalidRequestException(msg);
         }
-        boolean insert = inFlightService.inFlight(() -> {
+        boolean insert = inFlightService.inFlight(Operation.INSERT, channelName, () -> {
             content.packageStream();
             return contentService.historicalInsert(channelName, content);
         });
@@ -174,10 +188,14 @@ public class LocalChannelService implements ChannelService {
             throw new ForbiddenRequestException(channel + " cannot modified while replicating");
         }
         long start = System.currentTimeMillis();
-        Collection<ContentKey> contentKeys = inFlightService.inFlight(() -> {
-            MultiPartParser multiPartParser = new MultiPartParser(bulkContent);
-            multiPartParser.parse();
-            return contentService.insert(bulkContent);
+        Collection<ContentKey> contentKeys = inFlightService.inFlight(Operation.BULK_INSERT, channel, () -> {
+            return contentService.insertNew(timeService::getNow, now -> {
+                MultiPartParser multiPartParser = new MultiPartParser(bulkContent);
+                multiPartParser.parse(now);
+                ChannelConfig channelConfig = getCachedChannelConfig(channel);
+                channelRateLimiter.check(channelConfig, bulkContent.getItems().size(), bulkContent.getSize());
+                return contentService.insert(bulkContent);
+            });
         });
         long time = System.currentTimeMillis() - start;
         statsd.time("channel", time, "method:post", "type:bulk", "channel:" + channel);
@@ -216,7 +234,13 @@ public class LocalChannelService implements ChannelService {
         }
         query = query.withStartKey(getLatestLimit(query.getChannelName(), query.isStable()));
         query = configureQuery(query);
-        Optional<ContentKey> latest = contentService.getLatest(query);
+        Optional<ContentKey> latest;
+        InFlightService.Permit permit = inFlightService.acquire(Operation.QUERY, channel);
+        try {
+            latest = contentService.getLatest(query);
+        } finally {
+            permit.close();
+        }
         ActiveTraces.getLocal().add("before filter", channel, latest);
         if (latest.isPresent()) {
             SortedSet<ContentKey> filtered = ContentKeyUtil.filter(latest.asSet(), query);
@@ -244,6 +268,14 @@ public class LocalChannelService implements ChannelService {
     @Override
     public void deleteBefore(String name, ContentKey limitKey) {
         contentService.deleteBefore(name, limitKey);
+        updateEarliest(name, limitKey);
+    }
+
+    @Override
+    public void updateEarliest(String name, ContentKey limitKey) {
+        if (!getCachedChannelConfig(name).isHistorical()) {
+            channelEarliest.advance(name, limitKey);
+        }
     }
 
     @Override
@@ -311,7 +343,13 @@ public class LocalChannelService implements ChannelService {
         query = query.withChannelConfig(getCachedChannelConfig(query.getChannelName()));
         ContentPath lastUpdated = getLastUpdated(query.getChannelName(), new ContentKey(TimeUtil.time(query.isStable())));
         query = query.withChannelStable(lastUpdated.getTime());
-        Stream<ContentKey> stream = contentService.queryByTime(query).stream();
+        Stream<ContentKey> stream;
+        InFlightService.Permit permit = inFlightService.acquire(Operation.QUERY, query.getChannelName());
+        try {
+            stream = contentService.queryByTime(query).stream();
+        } finally {
+            permit.close();
+        }
         stream = ContentKeyUtil.enforceLimits(query, stream);
         return stream.collect(Collectors.toCollection(TreeSet::new));
     }
@@ -322,13 +360,21 @@ public class LocalChannelService implements ChannelService {
             return Collections.emptySortedSet();
         }
         query = configureQuery(query);
-        List<ContentKey> keys = new ArrayList<>(contentService.queryDirection(query));
+        Collection<ContentKey> keys;
+        InFlightService.Permit permit = inFlightService.acquire(Operation.QUERY, query.getChannelName());
+        try {
+            keys = contentService.queryDirection(query);
+        } finally {
+            permit.close();
+        }
         SortedSet<ContentKey> contentKeys = ContentKeyUtil.filter(keys, query);
         ActiveTraces.getLocal().add("ChannelService.query", contentKeys);
+        channelEarliest.update(query, contentKeys);
         return contentKeys;
     }
 
-    private DirectionQuery configureQuery(DirectionQuery query) {
+    @VisibleForTesting
+    DirectionQuery configureQuery(DirectionQuery query) {
         ActiveTraces.getLocal().add("configureQuery.start", query);
         if (query.getCount() > DIR_COUNT_LIMIT) {
             query = query.withCount(DIR_COUNT_LIMIT);
@@ -338,7 +384,12 @@ public class LocalChannelService implements ChannelService {
         DateTime ttlTime = getChannelTtl(channelConfig, query.getEpoch());
         query = query.withEarliestTime(ttlTime);
 
-        if (query.getStartKey().getTime().isBefore(ttlTime)) {
+        if (query.isNext()) {
+            ContentKey earliestStart = channelEarliest.getStart(query);
+            if (query.getStartKey().compareTo(earliestStart) < 0) {
+                query = query.withStartKey(earliestStart);
+            }
+        } else if (query.getStartKey().getTime().isBefore(ttlTime)) {
             query = query.withStartKey(new ContentKey(ttlTime, "0"));
         }
         if (query.getEpoch().equals(Epoch.MUTABLE)) {
@@ -392,6 +443,8 @@ public class LocalChannelService implements ChannelService {
             replicationGlobalManager.notifyWatchers();
             lastContentPath.delete(channelName, REPLICATED_LAST_UPDATED);
         }
+        channelEarliest.delete(channelName);
+        channelRateLimiter.delete(channelName);
 
         return true;
     }
@@ -2,38 +2,72 @@ package com.flightstats.hub.dao;
 
 import com.flightstats.hub.model.ContentKey;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class QueryResult {
 
-    private SortedSet<ContentKey> contentKeys = Collections.synchronizedSortedSet(new TreeSet<>());
+    private final List<SortedSet<ContentKey>> results = new ArrayList<>();
+    private SortedSet<ContentKey> contentKeys;
     private AtomicInteger success = new AtomicInteger();
     private int attempts;
+    private boolean closed;
 
     public QueryResult(int attempts) {
         this.attempts = attempts;
     }
 
-    public void addKeys(Collection<ContentKey> keys) {
-        contentKeys.addAll(keys);
+    public synchronized void addKeys(Collection<ContentKey> keys) {
+        if (closed) {
+            return;
+        }
+        if (keys instanceof SortedSet) {
+            results.add((SortedSet<ContentKey>) keys);
+        } else {
+            results.add(new TreeSet<>(keys));
+        }
+        if (contentKeys != null) {
+            contentKeys.addAll(keys);
+        }
         success.incrementAndGet();
     }
 
-    public SortedSet<ContentKey> getContentKeys() {
+    /**
+     * Ignore any results which arrive after the caller has stopped waiting.
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * @return a mutable set with every key, which is built on first use.
+     */
+    public synchronized SortedSet<ContentKey> getContentKeys() {
+        if (contentKeys == null) {
+            contentKeys = Collections.synchronizedSortedSet(new TreeSet<>());
+            results.forEach(contentKeys::addAll);
+        }
         return contentKeys;
     }
 
+    /**
+     * @return a lazy merge of the results, without copying or sorting the keys.
+     */
+    public synchronized ContentKeyMerge getMergedKeys() {
+        return new ContentKeyMerge(new ArrayList<>(results));
+    }
+
+    public boolean isComplete() {
+        return success.get() == attempts;
+    }
+
     public boolean hadSuccess() {
         return success.get() >= 1;
     }
 
     @Override
     public String toString() {
-        return "contentKeys=" + contentKeys.size() + " success=" + success + " attempts=" + attempts;
+        return "results=" + results.size() + " success=" + success + " attempts=" + attempts;
     }
 }
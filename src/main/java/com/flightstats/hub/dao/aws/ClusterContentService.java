@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.concurrent.CountDownLatch;
@@ -57,6 +58,14 @@ public class ClusterContentService implements ContentService {
     private S3WriteQueue s3WriteQueue;
     @Inject
     private HubUtils hubUtils;
+    @Inject
+    private S3Digests s3Digests;
+    @Inject
+    private LatestKeyIndex latestKeyIndex;
+    @Inject
+    private ItemCounts itemCounts;
+
+    private final TimeQueryCache timeQueryCache = new TimeQueryCache();
 
     private static final ExecutorService executorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("ClusterContentService-%d").build());
 
@@ -65,10 +74,26 @@ public class ClusterContentService implements ContentService {
         HubServices.register(new ChannelLatestUpdatedService());
     }
 
+    @Override
+    public <T> T insertNew(Supplier<DateTime> clock, NewInsert<T> insert) throws Exception {
+        Object token = latestKeyIndex.started();
+        try {
+            return insert.insert(latestKeyIndex.getTime(token, clock));
+        } finally {
+            latestKeyIndex.completed(token);
+        }
+    }
+
     @Override
     public ContentKey insert(String channelName, Content content) throws Exception {
-        ContentKey key = spokeContentDao.insert(channelName, content);
         ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
+        ContentKey key = spokeContentDao.insert(channelName, content);
+        if (LatestKeyIndex.isIndexed(channel)) {
+            latestKeyIndex.inserted(channelName, key);
+        }
+        if (channel.getMaxItems() > 0) {
+            itemCounts.add(channelName, Collections.singletonList(key));
+        }
         if (channel.isSingle() || channel.isBoth()) {
             Supplier<Void> local = () -> {
                 s3SingleWrite(channelName, key);
@@ -90,8 +115,14 @@ public class ClusterContentService implements ContentService {
     @Override
     public Collection<ContentKey> insert(BulkContent bulkContent) throws Exception {
         String channelName = bulkContent.getChannel();
-        SortedSet<ContentKey> keys = spokeContentDao.insert(bulkContent);
         ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
+        SortedSet<ContentKey> keys = spokeContentDao.insert(bulkContent);
+        if (!keys.isEmpty() && LatestKeyIndex.isIndexed(channel)) {
+            latestKeyIndex.inserted(channelName, keys.last());
+        }
+        if (channel.getMaxItems() > 0) {
+            itemCounts.add(channelName, keys);
+        }
         if (channel.isSingle() || channel.isBoth()) {
             for (ContentKey key : keys) {
                 s3SingleWrite(channelName, key);
@@ -103,6 +134,9 @@ public class ClusterContentService implements ContentService {
     @Override
     public boolean historicalInsert(String channelName, Content content) throws Exception {
         s3SingleContentDao.insertHistorical(channelName, content);
+        if (content.getContentKey().isPresent()) {
+            timeQueryCache.invalidate(channelName, content.getContentKey().get().getTime());
+        }
         return true;
     }
 
@@ -120,6 +154,9 @@ public class ClusterContentService implements ContentService {
         Content content;
         if (channel.isSingle()) {
             content = s3SingleContentDao.get(channelName, key);
+            if (content == null && isCompacted(channelName, key)) {
+                content = s3BatchContentDao.get(channelName, key);
+            }
         } else if (channel.isBatch()) {
             content = s3BatchContentDao.get(channelName, key);
         } else {
@@ -131,6 +168,14 @@ public class ClusterContentService implements ContentService {
         return Optional.fromNullable(content);
     }
 
+    /**
+     * Single channels may have older minutes compacted into the batch format by the S3SingleCompactor.
+     */
+    private boolean isCompacted(String channelName, ContentPath path) {
+        ContentPath lastCompacted = lastContentPath.get(channelName, null, S3SingleCompactor.LAST_COMPACTED);
+        return lastCompacted != null && path.getTime().isBefore(lastCompacted.getTime().plusMinutes(1));
+    }
+
     private DateTime getSpokeTtlTime(String channelName) {
         DateTime startTime = channelService.getLastUpdated(channelName, new ContentKey(TimeUtil.now())).getTime();
         return startTime.minusMinutes(spokeTtlMinutes);
@@ -143,7 +188,7 @@ public class ClusterContentService implements ContentService {
         DateTime spokeTtlTime = getSpokeTtlTime(channelName);
         for (MinutePath minutePath : minutePaths) {
             if (minutePath.getTime().isAfter(spokeTtlTime)
-                    || channel.isSingle()) {
+                    || (channel.isSingle() && !isCompacted(channelName, minutePath))) {
                 getValues(channelName, callback, minutePath);
             } else {
                 if (!s3BatchContentDao.streamMinute(channelName, minutePath, callback)) {
@@ -164,15 +209,18 @@ public class ClusterContentService implements ContentService {
 
     @Override
     public Collection<ContentKey> queryByTime(TimeQuery query) {
-        return handleQuery(query, contentDao -> contentDao.queryByTime(query));
+        return timeQueryCache.get(query, () -> {
+            QueryResult queryResult = handleQuery(query, contentDao -> contentDao.queryByTime(query));
+            return queryResult.isComplete() ? queryResult.getContentKeys() : null;
+        });
     }
 
     @Override
     public Collection<ContentKey> queryDirection(DirectionQuery query) {
-        return handleQuery(query, contentDao -> contentDao.query(query));
+        return handleQuery(query, contentDao -> contentDao.query(query)).getMergedKeys();
     }
 
-    private Collection<ContentKey> handleQuery(Query query, Function<ContentDao, SortedSet<ContentKey>> daoQuery) {
+    private QueryResult handleQuery(Query query, Function<ContentDao, SortedSet<ContentKey>> daoQuery) {
         List<ContentDao> daos = new ArrayList<>();
         if (query.getLocation().equals(Location.CACHE)) {
             daos.add(spokeContentDao);
@@ -193,6 +241,10 @@ public class ClusterContentService implements ContentService {
             if (query.outsideOfCache(spokeTtlTime)) {
                 if (channel.isSingle()) {
                     daos.add(s3SingleContentDao);
+                    ContentPath lastCompacted = lastContentPath.get(channel.getName(), null, S3SingleCompactor.LAST_COMPACTED);
+                    if (lastCompacted != null && query.outsideOfCache(lastCompacted.getTime().plusMinutes(1))) {
+                        daos.add(s3BatchContentDao);
+                    }
                 } else if (channel.isBatch()) {
                     daos.add(s3BatchContentDao);
                 } else {
@@ -204,7 +256,7 @@ public class ClusterContentService implements ContentService {
         return query(daoQuery, daos);
     }
 
-    private static SortedSet<ContentKey> query(Function<ContentDao, SortedSet<ContentKey>> daoQuery, List<ContentDao> contentDaos) {
+    private static QueryResult query(Function<ContentDao, SortedSet<ContentKey>> daoQuery, List<ContentDao> contentDaos) {
         try {
             QueryResult queryResult = new QueryResult(contentDaos.size());
             CountDownLatch latch = new CountDownLatch(contentDaos.size());
@@ -222,8 +274,9 @@ public class ClusterContentService implements ContentService {
                 });
             }
             latch.await(118, TimeUnit.SECONDS);
+            queryResult.close();
             if (queryResult.hadSuccess()) {
-                return queryResult.getContentKeys();
+                return queryResult;
             } else {
                 traces.add("unable to complete query ", queryResult);
                 throw new FailedQueryException("unable to complete query " + queryResult + " " + threadName);
@@ -252,9 +305,20 @@ public class ClusterContentService implements ContentService {
         String channel = latestQuery.getChannelName();
         final ChannelConfig cachedChannelConfig = channelService.getCachedChannelConfig(channel);
         DateTime cacheTtlTime = getSpokeTtlTime(channel);
+        boolean indexed = LatestKeyIndex.isIndexed(cachedChannelConfig) && latestQuery.getLocation().equals(Location.ALL);
+        if (indexed) {
+            Optional<ContentKey> indexLatest = latestKeyIndex.getLatest(channel, latestQuery.getStartKey());
+            if (indexLatest.isPresent()) {
+                ActiveTraces.getLocal().add("found indexed latest", channel, indexLatest);
+                return indexLatest;
+            }
+        }
         Optional<ContentKey> latest = spokeContentDao.getLatest(channel, latestQuery.getStartKey(), ActiveTraces.getLocal());
         if (latest.isPresent()) {
             ActiveTraces.getLocal().add("found spoke latest", channel, latest);
+            if (indexed) {
+                latestKeyIndex.update(channel, latest.get());
+            }
             lastContentPath.delete(channel, CHANNEL_LATEST_UPDATED);
             return latest;
         }
@@ -305,7 +369,14 @@ public class ClusterContentService implements ContentService {
         s3SingleContentDao.delete(channelName);
         s3BatchContentDao.delete(channelName);
         lastContentPath.delete(channelName, CHANNEL_LATEST_UPDATED);
+        timeQueryCache.invalidate(channelName);
+        latestKeyIndex.delete(channelName);
+        itemCounts.delete(channelName);
+        lastContentPath.delete(channelName, MaxItemsEnforcer.LAST_CUTOFF);
         lastContentPath.delete(channelName, S3Verifier.LAST_SINGLE_VERIFIED);
+        lastContentPath.delete(channelName, S3Verifier.LAST_SINGLE_CONFIRMED);
+        lastContentPath.delete(channelName, S3SingleCompactor.LAST_COMPACTED);
+        s3Digests.delete(channelName);
         ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
         if (!channel.isSingle()) {
             new S3Batch(channel, hubUtils).stop();
@@ -315,18 +386,30 @@ public class ClusterContentService implements ContentService {
     @Override
     public void delete(String channelName, ContentKey contentKey) {
         s3SingleContentDao.delete(channelName, contentKey);
+        timeQueryCache.invalidate(channelName, contentKey.getTime());
+        ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
+        if (channel != null && channel.getMaxItems() > 0) {
+            itemCounts.remove(channelName, Collections.singletonList(contentKey));
+        }
     }
 
     @Override
     public void deleteBefore(String name, ContentKey limitKey) {
         s3SingleContentDao.deleteBefore(name, limitKey);
         s3BatchContentDao.deleteBefore(name, limitKey);
+        timeQueryCache.invalidateBefore(name, limitKey.getTime().plusMillis(1));
+        ChannelConfig channel = channelService.getCachedChannelConfig(name);
+        if (channel != null && channel.getMaxItems() > 0) {
+            itemCounts.deleteBefore(name, limitKey.getTime());
+        }
     }
 
     @Override
     public void notify(ChannelConfig newConfig, ChannelConfig oldConfig) {
         if (oldConfig == null) {
             lastContentPath.updateIncrease(ContentKey.NONE, newConfig.getName(), CHANNEL_LATEST_UPDATED);
+        } else {
+            timeQueryCache.invalidate(newConfig.getName());
         }
         if (newConfig.isSingle()) {
             if (oldConfig != null && !oldConfig.isSingle()) {
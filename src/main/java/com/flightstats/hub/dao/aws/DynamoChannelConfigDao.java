@@ -40,6 +40,12 @@ public class DynamoChannelConfigDao implements Dao<ChannelConfig> {
             item.put("mutableTime", new AttributeValue().withN(String.valueOf(config.getMutableTime().getMillis())));
         }
         item.put("protect", new AttributeValue().withBOOL(config.isProtect()));
+        if (config.getMaxItemsPerSecond() > 0) {
+            item.put("maxItemsPerSecond", new AttributeValue().withN(String.valueOf(config.getMaxItemsPerSecond())));
+        }
+        if (config.getMaxBytesPerSecond() > 0) {
+            item.put("maxBytesPerSecond", new AttributeValue().withN(String.valueOf(config.getMaxBytesPerSecond())));
+        }
         if (!config.getTags().isEmpty()) {
             item.put("tags", new AttributeValue().withSS(config.getTags()));
         }
@@ -130,6 +136,12 @@ public class DynamoChannelConfigDao implements Dao<ChannelConfig> {
         if (item.containsKey("protect")) {
             builder.protect(item.get("protect").getBOOL());
         }
+        if (item.containsKey("maxItemsPerSecond")) {
+            builder.maxItemsPerSecond(Long.parseLong(item.get("maxItemsPerSecond").getN()));
+        }
+        if (item.containsKey("maxBytesPerSecond")) {
+            builder.maxBytesPerSecond(Long.parseLong(item.get("maxBytesPerSecond").getN()));
+        }
         if (item.containsKey("mutableTime")) {
             builder.mutableTime(new DateTime(Long.parseLong(item.get("mutableTime").getN()), DateTimeZone.UTC));
         }
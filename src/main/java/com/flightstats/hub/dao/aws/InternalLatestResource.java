@@ -0,0 +1,35 @@
+package com.flightstats.hub.dao.aws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flightstats.hub.app.HubProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Receives latest key gossip from the other hub servers.
+ */
+@Path("/internal/latest")
+public class InternalLatestResource {
+
+    private final static Logger logger = LoggerFactory.getLogger(InternalLatestResource.class);
+    private static final LatestKeyIndex latestKeyIndex = HubProvider.getInstance(LatestKeyIndex.class);
+    private static final ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
+
+    @PUT
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response put(String gossip) {
+        try {
+            latestKeyIndex.receive(mapper.readTree(gossip));
+            return Response.ok().build();
+        } catch (Exception e) {
+            logger.warn("unable to receive latest gossip", e);
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * ItemCounts keeps the number of items per channel and minute, for channels with maxItems.
+ * Inserts add to the counts, deletes remove from them, and deleteBefore drops the earlier minutes.
+ * Counts are accumulated in memory and periodically merged into ZooKeeper, with one node per channel and hour
+ * holding the counts for each minute of that hour.
+ */
+@Singleton
+public class ItemCounts {
+
+    private final static Logger logger = LoggerFactory.getLogger(ItemCounts.class);
+    static final String COUNTS_PATH = "/ItemCounts/";
+
+    private final CuratorFramework curator;
+    private Map<String, Map<MinutePath, Long>> pending = new HashMap<>();
+
+    @Inject
+    public ItemCounts(CuratorFramework curator) {
+        this.curator = curator;
+        HubServices.register(new ItemCountsService(), HubServices.TYPE.AFTER_HEALTHY_START, HubServices.TYPE.PRE_STOP);
+    }
+
+    public void add(String channel, Collection<ContentKey> keys) {
+        change(channel, keys, 1);
+    }
+
+    public void remove(String channel, Collection<ContentKey> keys) {
+        change(channel, keys, -1);
+    }
+
+    private synchronized void change(String channel, Collection<ContentKey> keys, long delta) {
+        Map<MinutePath, Long> minutes = pending.computeIfAbsent(channel, name -> new HashMap<>());
+        for (ContentKey key : keys) {
+            minutes.merge(new MinutePath(key.getTime()), delta, Long::sum);
+        }
+    }
+
+    private synchronized Map<String, Map<MinutePath, Long>> drain() {
+        Map<String, Map<MinutePath, Long>> drained = pending;
+        pending = new HashMap<>();
+        return drained;
+    }
+
+    void flush() {
+        Map<String, Map<MinutePath, Long>> drained = drain();
+        for (Map.Entry<String, Map<MinutePath, Long>> channelEntry : drained.entrySet()) {
+            Map<Long, SortedMap<Integer, Long>> hours = new HashMap<>();
+            for (Map.Entry<MinutePath, Long> entry : channelEntry.getValue().entrySet()) {
+                DateTime time = entry.getKey().getTime();
+                hours.computeIfAbsent(getHour(time), hour -> new TreeMap<>())
+                        .put(time.getMinuteOfHour(), entry.getValue());
+            }
+            for (Map.Entry<Long, SortedMap<Integer, Long>> entry : hours.entrySet()) {
+                merge(getPath(channelEntry.getKey(), entry.getKey()), entry.getValue());
+            }
+        }
+    }
+
+    private void merge(String path, SortedMap<Integer, Long> counts) {
+        update(path, merged -> counts.forEach((minute, count) -> merged.merge(minute, count, Long::sum)), true);
+    }
+
+    /**
+     * Applies the change to the counts stored at path, dropping minutes which are no longer positive.
+     */
+    private void update(String path, Consumer<SortedMap<Integer, Long>> change, boolean create) {
+        try {
+            while (true) {
+                try {
+                    Stat stat = new Stat();
+                    byte[] bytes = curator.getData().storingStatIn(stat).forPath(path);
+                    SortedMap<Integer, Long> counts = fromString(new String(bytes, StandardCharsets.UTF_8));
+                    change.accept(counts);
+                    counts.values().removeIf(count -> count <= 0);
+                    curator.setData().withVersion(stat.getVersion()).forPath(path, toString(counts).getBytes(StandardCharsets.UTF_8));
+                    return;
+                } catch (KeeperException.NoNodeException e) {
+                    SortedMap<Integer, Long> counts = new TreeMap<>();
+                    change.accept(counts);
+                    counts.values().removeIf(count -> count <= 0);
+                    if (!create || counts.isEmpty()) {
+                        return;
+                    }
+                    try {
+                        curator.create().creatingParentsIfNeeded().forPath(path, toString(counts).getBytes(StandardCharsets.UTF_8));
+                        return;
+                    } catch (KeeperException.NodeExistsException ignore) {
+                        logger.trace("node created concurrently {}", path);
+                    }
+                } catch (KeeperException.BadVersionException e) {
+                    logger.trace("bad version {}", path);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("unable to update counts " + path, e);
+        }
+    }
+
+    /**
+     * Replaces the stored count for a minute, after the items in it have been listed.
+     */
+    void set(String channel, MinutePath minutePath, long count) {
+        DateTime time = minutePath.getTime().withZone(DateTimeZone.UTC);
+        update(getPath(channel, getHour(time)), counts -> counts.put(time.getMinuteOfHour(), count), count > 0);
+    }
+
+    /**
+     * @return the counts for each minute with items, for all of the hours stored for the channel.
+     */
+    SortedMap<MinutePath, Long> get(String channel) {
+        SortedMap<MinutePath, Long> counts = new TreeMap<>();
+        for (Long hour : getHours(channel)) {
+            try {
+                byte[] bytes = curator.getData().forPath(getPath(channel, hour));
+                DateTime hourTime = new DateTime(hour, DateTimeZone.UTC);
+                fromString(new String(bytes, StandardCharsets.UTF_8)).forEach((minute, count) ->
+                        counts.put(new MinutePath(hourTime.plusMinutes(minute)), count));
+            } catch (KeeperException.NoNodeException ignore) {
+                logger.trace("counts removed {} {}", channel, hour);
+            } catch (Exception e) {
+                logger.warn("unable to get counts " + channel + " " + hour, e);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Remove the counts for the minutes before the minute of time.
+     */
+    void deleteBefore(String channel, DateTime time) {
+        MinutePath limitMinute = new MinutePath(time);
+        synchronized (this) {
+            Map<MinutePath, Long> minutes = pending.get(channel);
+            if (minutes != null) {
+                minutes.keySet().removeIf(minutePath -> minutePath.compareTo(limitMinute) < 0);
+            }
+        }
+        long limit = getHour(time);
+        int limitMinuteOfHour = limitMinute.getTime().withZone(DateTimeZone.UTC).getMinuteOfHour();
+        for (Long hour : getHours(channel)) {
+            if (hour < limit) {
+                try {
+                    curator.delete().forPath(getPath(channel, hour));
+                } catch (KeeperException.NoNodeException ignore) {
+                    logger.trace("counts already removed {} {}", channel, hour);
+                } catch (Exception e) {
+                    logger.warn("unable to delete counts " + channel + " " + hour, e);
+                }
+            } else if (hour == limit && limitMinuteOfHour > 0) {
+                update(getPath(channel, hour), counts -> counts.keySet().removeIf(minute -> minute < limitMinuteOfHour), false);
+            }
+        }
+    }
+
+    void delete(String channel) {
+        try {
+            curator.delete().deletingChildrenIfNeeded().forPath(COUNTS_PATH + channel);
+        } catch (KeeperException.NoNodeException ignore) {
+            logger.trace("no counts for {}", channel);
+        } catch (Exception e) {
+            logger.warn("unable to delete counts " + channel, e);
+        }
+    }
+
+    private List<Long> getHours(String channel) {
+        List<Long> hours = new ArrayList<>();
+        try {
+            for (String child : curator.getChildren().forPath(COUNTS_PATH + channel)) {
+                hours.add(Long.parseLong(child));
+            }
+        } catch (KeeperException.NoNodeException ignore) {
+            logger.trace("no counts for {}", channel);
+        } catch (Exception e) {
+            logger.warn("unable to get counts " + channel, e);
+        }
+        return hours;
+    }
+
+    private static long getHour(DateTime time) {
+        return time.withZone(DateTimeZone.UTC).withMillisOfSecond(0).withSecondOfMinute(0).withMinuteOfHour(0).getMillis();
+    }
+
+    private String getPath(String channel, long hour) {
+        return COUNTS_PATH + channel + "/" + hour;
+    }
+
+    static String toString(SortedMap<Integer, Long> counts) {
+        StringBuilder builder = new StringBuilder();
+        counts.forEach((minute, count) -> builder.append(minute).append(":").append(count).append(","));
+        return StringUtils.removeEnd(builder.toString(), ",");
+    }
+
+    static SortedMap<Integer, Long> fromString(String value) {
+        SortedMap<Integer, Long> counts = new TreeMap<>();
+        for (String entry : StringUtils.split(value, ",")) {
+            counts.put(Integer.parseInt(StringUtils.substringBefore(entry, ":")),
+                    Long.parseLong(StringUtils.substringAfter(entry, ":")));
+        }
+        return counts;
+    }
+
+    private class ItemCountsService extends AbstractScheduledService {
+
+        @Override
+        protected void runOneIteration() throws Exception {
+            flush();
+        }
+
+        @Override
+        protected void shutDown() throws Exception {
+            flush();
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            int seconds = HubProperties.getProperty("maxItems.countFlushSeconds", 10);
+            return Scheduler.newFixedDelaySchedule(seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.flightstats.hub.dao.aws;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubHost;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.cluster.CuratorCluster;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.rest.RestClient;
+import com.flightstats.hub.time.TimeService;
+import com.flightstats.hub.util.HubUtils;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientResponse;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.MediaType;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * LatestKeyIndex keeps the latest key per channel in memory, updated on every local insert,
+ * and gossiped to the other hub servers every latest.gossipMillis.
+ * <p>
+ * Each gossip carries the sender's watermark, the time before which every insert on the sender has completed.
+ * A latest query is only answered from the index when the watermark from every server is after the query's limit,
+ * so the answer is the same as a Spoke fan-out would give.  Otherwise callers fall back to the fan-out.
+ * <p>
+ * Only live, non-historical, non-global channels are indexed, since their keys are always assigned at insert.
+ */
+@Singleton
+public class LatestKeyIndex {
+
+    private final static Logger logger = LoggerFactory.getLogger(LatestKeyIndex.class);
+    private final static Client client = RestClient.createInternalClient(1, 5, false);
+    private final static ObjectMapper mapper = new ObjectMapper();
+
+    private final boolean enabled = HubProperties.getProperty("latest.index", true);
+    private final Map<String, ContentKey> latest = new ConcurrentHashMap<>();
+    private final Map<String, ContentKey> localLatest = new ConcurrentHashMap<>();
+    private final Map<String, ContentKey> pending = new ConcurrentHashMap<>();
+    private final Set<String> pendingDeletes = ConcurrentHashMap.newKeySet();
+    private final Map<Object, Long> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Long> watermarks = new ConcurrentHashMap<>();
+    private final Map<String, Outbox> outboxes = new HashMap<>();
+    private final CuratorCluster cluster;
+    private final TimeService timeService;
+
+    @Inject
+    public LatestKeyIndex(@Named("HubCuratorCluster") CuratorCluster cluster, TimeService timeService) {
+        this.cluster = cluster;
+        this.timeService = timeService;
+        if (enabled) {
+            HubServices.register(new LatestKeyGossipService(), HubServices.TYPE.AFTER_HEALTHY_START, HubServices.TYPE.PRE_STOP);
+        }
+    }
+
+    static boolean isIndexed(ChannelConfig channel) {
+        return channel.isLive() && !channel.isHistorical() && !channel.isGlobal();
+    }
+
+    /**
+     * Call before a local insert chooses the time for its keys, then get that time with getTime.
+     * Pass the token to completed once the insert is finished, after any call to inserted.
+     */
+    Object started() {
+        Object token = new Object();
+        inFlight.put(token, 0L);
+        return token;
+    }
+
+    /**
+     * @return the time from clock, which the insert for token must use for its keys
+     */
+    DateTime getTime(Object token, Supplier<DateTime> clock) {
+        DateTime time = clock.get();
+        inFlight.put(token, time.getMillis());
+        return time;
+    }
+
+    void inserted(String channel, ContentKey key) {
+        if (enabled) {
+            update(channel, key);
+            localLatest.merge(channel, key, LatestKeyIndex::max);
+            pending.merge(channel, key, LatestKeyIndex::max);
+        }
+    }
+
+    void completed(Object token) {
+        inFlight.remove(token);
+    }
+
+    /**
+     * Records a key found through a fan-out query, which is at least as old as the latest key.
+     */
+    void update(String channel, ContentKey key) {
+        latest.merge(channel, key, LatestKeyIndex::max);
+    }
+
+    void delete(String channel) {
+        latest.remove(channel);
+        localLatest.remove(channel);
+        pending.remove(channel);
+        pendingDeletes.add(channel);
+    }
+
+    /**
+     * @return the latest key before limitKey, or absent if the index can not answer for certain.
+     */
+    Optional<ContentKey> getLatest(String channel, ContentKey limitKey) {
+        if (!enabled) {
+            return Optional.absent();
+        }
+        ContentKey key = latest.get(channel);
+        if (key == null || key.compareTo(limitKey) >= 0) {
+            return Optional.absent();
+        }
+        long limit = limitKey.getMillis();
+        if (getLocalWatermark() <= limit) {
+            return Optional.absent();
+        }
+        for (String server : cluster.getRandomRemoteServers()) {
+            Long watermark = watermarks.get(server);
+            if (watermark == null || watermark <= limit) {
+                return Optional.absent();
+            }
+        }
+        return Optional.of(key);
+    }
+
+    /**
+     * When keys are assigned from a remote clock, the local clock can not bound them, so the watermark stays at zero.
+     */
+    private long getLocalWatermark() {
+        if (timeService.isRemote()) {
+            return 0;
+        }
+        long watermark = System.currentTimeMillis();
+        for (Long start : inFlight.values()) {
+            watermark = Math.min(watermark, start);
+        }
+        return watermark;
+    }
+
+    void receive(JsonNode gossip) {
+        JsonNode keys = gossip.get("latest");
+        Iterator<Map.Entry<String, JsonNode>> fields = keys.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            Optional<ContentKey> key = ContentKey.fromUrl(field.getValue().asText());
+            if (key.isPresent()) {
+                update(field.getKey(), key.get());
+            }
+        }
+        for (JsonNode deleted : gossip.get("deleted")) {
+            latest.remove(deleted.asText());
+        }
+        watermarks.put(gossip.get("server").asText(), gossip.get("watermark").asLong());
+    }
+
+    private synchronized void gossip() {
+        long watermark = getLocalWatermark();
+        Map<String, ContentKey> changed = drain(pending);
+        Set<String> deleted = new HashSet<>(pendingDeletes);
+        pendingDeletes.removeAll(deleted);
+        Set<String> servers = new HashSet<>(cluster.getRandomRemoteServers());
+        outboxes.keySet().retainAll(servers);
+        watermarks.keySet().retainAll(servers);
+        for (String server : servers) {
+            Outbox outbox = outboxes.computeIfAbsent(server, name -> {
+                Outbox first = new Outbox();
+                first.latest.putAll(localLatest);
+                return first;
+            });
+            changed.forEach((channel, key) -> outbox.latest.merge(channel, key, LatestKeyIndex::max));
+            outbox.latest.keySet().removeAll(deleted);
+            outbox.deleted.addAll(deleted);
+            if (send(server, outbox, watermark)) {
+                outbox.latest.clear();
+                outbox.deleted.clear();
+            }
+        }
+    }
+
+    private boolean send(String server, Outbox outbox, long watermark) {
+        ObjectNode gossip = mapper.createObjectNode();
+        gossip.put("server", HubHost.getLocalNamePort());
+        gossip.put("watermark", watermark);
+        ObjectNode keys = gossip.putObject("latest");
+        outbox.latest.forEach((channel, key) -> keys.put(channel, key.toUrl()));
+        ArrayNode deleted = gossip.putArray("deleted");
+        outbox.deleted.forEach(deleted::add);
+        ClientResponse response = null;
+        try {
+            response = client.resource(HubHost.getScheme() + server + "/internal/latest")
+                    .type(MediaType.APPLICATION_JSON)
+                    .put(ClientResponse.class, gossip.toString());
+            return response.getStatus() == 200;
+        } catch (Exception e) {
+            logger.debug("unable to gossip to " + server, e);
+            return false;
+        } finally {
+            HubUtils.close(response);
+        }
+    }
+
+    private static Map<String, ContentKey> drain(Map<String, ContentKey> map) {
+        Map<String, ContentKey> drained = new HashMap<>();
+        for (String channel : new ArrayList<>(map.keySet())) {
+            ContentKey key = map.remove(channel);
+            if (key != null) {
+                drained.put(channel, key);
+            }
+        }
+        return drained;
+    }
+
+    private static ContentKey max(ContentKey first, ContentKey second) {
+        return first.compareTo(second) >= 0 ? first : second;
+    }
+
+    private static class Outbox {
+        private final Map<String, ContentKey> latest = new HashMap<>();
+        private final Set<String> deleted = new HashSet<>();
+    }
+
+    private class LatestKeyGossipService extends AbstractScheduledService {
+
+        @Override
+        protected void runOneIteration() throws Exception {
+            try {
+                gossip();
+            } catch (Exception e) {
+                logger.warn("unable to gossip latest keys", e);
+            }
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            long millis = HubProperties.getProperty("latest.gossipMillis", 500);
+            return Scheduler.newFixedDelaySchedule(millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
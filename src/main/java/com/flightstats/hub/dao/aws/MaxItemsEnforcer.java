@@ -0,0 +1,157 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.cluster.CuratorLeader;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.cluster.Leader;
+import com.flightstats.hub.cluster.Leadership;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.model.*;
+import com.flightstats.hub.util.Sleeper;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MaxItemsEnforcer applies ChannelConfig.maxItems using the per minute ItemCounts.
+ * <p>
+ * The cutoff minute is found by summing the counts backwards from the newest minute,
+ * so only that single minute needs to be queried to find the exact cutoff key.
+ * If that minute holds fewer keys than counted, the counts overstate the channel, so the minute's count is corrected
+ * and the channel is enforced by listing keys instead.
+ * The last cutoff is kept per channel in LAST_CUTOFF, so unchanged channels are skipped.
+ */
+@Singleton
+public class MaxItemsEnforcer {
+
+    static final String LAST_CUTOFF = "/MaxItemsLastCutoff/";
+    private final static Logger logger = LoggerFactory.getLogger(MaxItemsEnforcer.class);
+
+    @Inject
+    private ItemCounts itemCounts;
+    @Inject
+    private ChannelService channelService;
+    @Inject
+    private LastContentPath lastContentPath;
+
+    public MaxItemsEnforcer() {
+        if (HubProperties.getProperty("maxItems.run", true)) {
+            HubServices.register(new MaxItemsEnforcerService(), HubServices.TYPE.AFTER_HEALTHY_START, HubServices.TYPE.PRE_STOP);
+        }
+    }
+
+    private void enforceChannels() {
+        logger.debug("enforcing max items");
+        for (ChannelConfig channel : channelService.getChannels()) {
+            if (channel.getMaxItems() > 0) {
+                try {
+                    enforce(channel);
+                } catch (Exception e) {
+                    logger.warn("unable to enforce max items " + channel.getName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the counts do not yet cover maxItems, or overstate the cutoff minute,
+     * and the channel needs to be enforced by listing keys.
+     */
+    boolean enforce(ChannelConfig channel) {
+        String name = channel.getName();
+        SortedMap<MinutePath, Long> counts = itemCounts.get(name);
+        Map.Entry<MinutePath, Long> cutoff = findCutoff(counts, channel.getMaxItems());
+        if (cutoff == null) {
+            return false;
+        }
+        ActiveTraces.start("MaxItemsEnforcer.enforce", name, cutoff);
+        try {
+            MinutePath minutePath = cutoff.getKey();
+            List<ContentKey> keys = getKeys(name, minutePath);
+            if (keys.size() < cutoff.getValue()) {
+                logger.info("counts overstate {} {}, counted {} found {}", name, minutePath, counts.get(minutePath), keys.size());
+                itemCounts.set(name, minutePath, keys.size());
+                return false;
+            }
+            ContentKey limitKey = keys.get((int) (keys.size() - cutoff.getValue()));
+            ContentPath lastCutoff = lastContentPath.get(name, ContentKey.NONE, LAST_CUTOFF);
+            if (limitKey.compareTo(lastCutoff) > 0) {
+                logger.info("deleting {} keys before {}", name, limitKey);
+                channelService.deleteBefore(name, limitKey);
+                lastContentPath.updateIncrease(limitKey, name, LAST_CUTOFF);
+            }
+            itemCounts.deleteBefore(name, cutoff.getKey().getTime());
+            return true;
+        } finally {
+            ActiveTraces.end();
+        }
+    }
+
+    private List<ContentKey> getKeys(String channel, MinutePath minutePath) {
+        TimeQuery query = TimeQuery.builder()
+                .channelName(channel)
+                .startTime(minutePath.getTime())
+                .unit(TimeUtil.Unit.MINUTES)
+                .stable(false)
+                .build();
+        return new ArrayList<>(channelService.queryByTime(query));
+    }
+
+    /**
+     * @return the minute holding the oldest item to keep, with the number of items to keep from that minute,
+     * or null if the counts total less than maxItems.
+     */
+    static Map.Entry<MinutePath, Long> findCutoff(SortedMap<MinutePath, Long> counts, long maxItems) {
+        List<MinutePath> minutes = new ArrayList<>(counts.keySet());
+        long total = 0;
+        for (int i = minutes.size() - 1; i >= 0; i--) {
+            MinutePath minutePath = minutes.get(i);
+            long count = counts.get(minutePath);
+            if (total + count >= maxItems) {
+                return new AbstractMap.SimpleEntry<>(minutePath, maxItems - total);
+            }
+            total += count;
+        }
+        return null;
+    }
+
+    private class MaxItemsEnforcerService extends AbstractIdleService implements Leader {
+
+        private final int minutes = HubProperties.getProperty("maxItems.periodMinutes", 5);
+
+        @Override
+        protected void startUp() throws Exception {
+            CuratorLeader curatorLeader = new CuratorLeader("/MaxItemsEnforcerService", this);
+            curatorLeader.start();
+        }
+
+        @Override
+        protected void shutDown() throws Exception {
+            //do nothing
+        }
+
+        @Override
+        public void takeLeadership(Leadership leadership) {
+            logger.info("taking leadership");
+            while (leadership.hasLeadership()) {
+                long start = System.currentTimeMillis();
+                enforceChannels();
+                long sleep = TimeUnit.MINUTES.toMillis(minutes) - (System.currentTimeMillis() - start);
+                Sleeper.sleep(Math.max(0, sleep));
+            }
+            logger.info("lost leadership");
+        }
+    }
+}
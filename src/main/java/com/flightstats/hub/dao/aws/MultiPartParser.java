@@ -7,8 +7,10 @@ import com.flightstats.hub.model.BulkContent;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.util.ByteRing;
+import com.flightstats.hub.util.TimeUtil;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,11 +36,18 @@ public class MultiPartParser {
     }
 
     public void parse() throws IOException {
+        parse(TimeUtil.now());
+    }
+
+    /**
+     * @param now the time for the keys of new items
+     */
+    public void parse(DateTime now) throws IOException {
         parseItems();
         if (bulkContent.getItems().isEmpty()) {
             throw new InvalidRequestException("multipart has no items");
         } else if (bulkContent.isNew()) {
-            ContentKey masterKey = new ContentKey();
+            ContentKey masterKey = new ContentKey(now);
             bulkContent.setMasterKey(masterKey);
             for (int i = 0; i < bulkContent.getItems().size(); i++) {
                 bulkContent.getItems().get(i).setContentKey(ContentKey.bulkKey(masterKey, i));
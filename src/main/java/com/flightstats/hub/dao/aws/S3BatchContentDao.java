@@ -11,14 +11,19 @@ import com.flightstats.hub.dao.ContentDao;
 import com.flightstats.hub.dao.ContentMarshaller;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.metrics.LatencyRecorder;
 import com.flightstats.hub.metrics.MetricsSender;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
+import com.flightstats.hub.util.ByteRing;
+import com.flightstats.hub.util.RawZipOutputStream;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
 import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import com.timgroup.statsd.StatsDClient;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -28,6 +33,7 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
@@ -43,10 +49,12 @@ public class S3BatchContentDao implements ContentDao {
     private static final String BATCH_INDEX = "Batch/index/";
     private static final String BATCH_ITEMS = "Batch/items/";
     private static final ObjectMapper mapper = new ObjectMapper();
+    private static final int MIN_PART_BYTES = 5 * 1024 * 1024;
     private final AmazonS3 s3Client;
     private final MetricsSender sender;
     private final boolean useEncrypted = HubProperties.isAppEncrypted();
     private final int s3MaxQueryItems = HubProperties.getProperty("s3.maxQueryItems", 1000);
+    private final int partBytes = Math.max(MIN_PART_BYTES, HubProperties.getProperty("s3.batchPartBytes", 16 * 1024 * 1024));
     private final String s3BucketName;
     private final static StatsDClient statsd = DataDog.statsd;
 
@@ -347,6 +355,7 @@ public class S3BatchContentDao implements ContentDao {
     @Override
     public void writeBatch(String channel, ContentPath path, Collection<ContentKey> keys, byte[] bytes) {
         ActiveTraces.getLocal().add("S3BatchContentDao.writeBatch", channel, path);
+        long start = System.currentTimeMillis();
         try {
             logger.debug("writing {} batch {} keys {} bytes {}", channel, path, keys.size(), bytes.length);
             writeBatchItems(channel, path, bytes);
@@ -355,6 +364,7 @@ public class S3BatchContentDao implements ContentDao {
             statsd.count("s3.put.bytes", bytes.length + indexSize, "channel:" + channel, "type:batch");
             sender.send("channel." + channel + ".s3Batch.put", 1);
             sender.send("channel." + channel + ".s3Batch.bytes", bytes.length + indexSize);
+            LatencyRecorder.recordSince("s3.write.batch", start);
         } catch (Exception e) {
             logger.warn("unable to write batch to S3 " + channel + " " + path, e);
             throw e;
@@ -363,6 +373,65 @@ public class S3BatchContentDao implements ContentDao {
         }
     }
 
+    /**
+     * The stream is copied to S3 as it is read, and the index is built from the zip's entries.
+     * A stream which ends before the zip's central directory is aborted, rather than indexed as a complete batch.
+     */
+    @Override
+    public void writeBatch(String channel, ContentPath path, Collection<ContentKey> keys, InputStream stream) {
+        ActiveTraces.getLocal().add("S3BatchContentDao.writeBatch stream", channel, path);
+        long start = System.currentTimeMillis();
+        S3MultipartOutputStream upload = new S3MultipartOutputStream(s3Client, s3BucketName,
+                getS3BatchItemsKey(channel, path), partBytes, useEncrypted);
+        try {
+            ByteRing tail = new ByteRing(RawZipOutputStream.END_BYTES);
+            InputStream teeStream = new TeeInputStream(stream, new TeeOutputStream(upload, new OutputStream() {
+                @Override
+                public void write(int b) {
+                    tail.put((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    for (int i = Math.max(off, off + len - RawZipOutputStream.END_BYTES); i < off + len; i++) {
+                        tail.put(b[i]);
+                    }
+                }
+            }));
+            ZipInputStream zipStream = new ZipInputStream(teeStream);
+            List<ContentKey> indexKeys = new ArrayList<>();
+            ZipEntry entry;
+            while ((entry = zipStream.getNextEntry()) != null) {
+                Optional<ContentKey> key = ContentKey.fromUrl(entry.getName());
+                if (key.isPresent()) {
+                    indexKeys.add(key.get());
+                }
+            }
+            ByteStreams.exhaust(teeStream);
+            if (!RawZipOutputStream.isEnd(tail.getBytes())) {
+                throw new IOException("batch " + channel + " " + path + " ended before the central directory, read "
+                        + indexKeys.size() + " of " + keys.size() + " keys");
+            }
+            upload.close();
+            if (indexKeys.size() != keys.size()) {
+                logger.warn("batch {} {} has {} keys, expected {}", channel, path, indexKeys.size(), keys.size());
+            }
+            long bytes = upload.getBytesWritten();
+            long indexSize = writeBatchIndex(channel, path, indexKeys);
+            statsd.increment("s3.put", "type:batch", "channel:" + channel);
+            statsd.count("s3.put.bytes", bytes + indexSize, "channel:" + channel, "type:batch");
+            sender.send("channel." + channel + ".s3Batch.put", 1);
+            sender.send("channel." + channel + ".s3Batch.bytes", bytes + indexSize);
+            LatencyRecorder.recordSince("s3.write.batch", start);
+        } catch (Exception e) {
+            upload.abort();
+            logger.warn("unable to write batch to S3 " + channel + " " + path, e);
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+        } finally {
+            ActiveTraces.getLocal().add("S3BatchContentDao.writeBatch stream completed", channel, path);
+        }
+    }
+
     private long writeBatchIndex(String channel, ContentPath path, Collection<ContentKey> keys) {
         String batchIndexKey = getS3BatchIndexKey(channel, path);
         ObjectNode root = mapper.createObjectNode();
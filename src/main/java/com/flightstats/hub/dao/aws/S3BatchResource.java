@@ -34,19 +34,22 @@ public class S3BatchResource {
     public static boolean getAndWriteBatch(ContentDao contentDao, String channel, MinutePath path,
                                            Collection<ContentKey> keys, String batchUrl) {
         ActiveTraces.getLocal().add("S3BatchResource.getAndWriteBatch", path);
-        ClientResponse response = RestClient.defaultClient()
+        ClientResponse response = RestClient.internalClient()
                 .resource(batchUrl + "&location=CACHE")
                 .accept("application/zip")
                 .get(ClientResponse.class);
-        if (response.getStatus() != 200) {
-            logger.warn("unable to get data for {} {}", channel, response);
-            return false;
+        try {
+            if (response.getStatus() != 200) {
+                logger.warn("unable to get data for {} {}", channel, response);
+                return false;
+            }
+            ActiveTraces.getLocal().add("S3BatchResource.getAndWriteBatch got response");
+            contentDao.writeBatch(channel, path, keys, response.getEntityInputStream());
+            ActiveTraces.getLocal().add("S3BatchResource.getAndWriteBatch completed");
+            return true;
+        } finally {
+            response.close();
         }
-        ActiveTraces.getLocal().add("S3BatchResource.getAndWriteBatch got response");
-        byte[] bytes = response.getEntity(byte[].class);
-        contentDao.writeBatch(channel, path, keys, bytes);
-        ActiveTraces.getLocal().add("S3BatchResource.getAndWriteBatch completed");
-        return true;
     }
 
     /**
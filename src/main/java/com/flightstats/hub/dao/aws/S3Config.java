@@ -32,11 +32,14 @@ public class S3Config {
     private final Dao<ChannelConfig> channelConfigDao;
     private final String s3BucketName;
     private ChannelService channelService;
+    private final MaxItemsEnforcer maxItemsEnforcer;
 
     @Inject
     public S3Config(AmazonS3 s3Client, S3BucketName s3BucketName, CuratorLock curatorLock,
-                    @Named("ChannelConfig") Dao<ChannelConfig> channelConfigDao, ChannelService channelService) {
+                    @Named("ChannelConfig") Dao<ChannelConfig> channelConfigDao, ChannelService channelService,
+                    MaxItemsEnforcer maxItemsEnforcer) {
         this.s3Client = s3Client;
+        this.maxItemsEnforcer = maxItemsEnforcer;
         this.curatorLock = curatorLock;
         this.channelConfigDao = channelConfigDao;
         this.channelService = channelService;
@@ -87,6 +90,16 @@ public class S3Config {
         public void runWithLock() throws Exception {
             updateTtlDays();
             updateMaxItems();
+            updateEarliest();
+        }
+
+        private void updateEarliest() {
+            logger.info("updating earliest");
+            for (ChannelConfig config : configurations) {
+                if (config.getTtlDays() > 0 && !config.isHistorical()) {
+                    channelService.updateEarliest(config.getName(), new ContentKey(config.getTtlTime(), "0"));
+                }
+            }
         }
 
         private void updateMaxItems() {
@@ -100,6 +113,10 @@ public class S3Config {
         }
 
         private void updateMaxItems(ChannelConfig config) {
+            if (maxItemsEnforcer.enforce(config)) {
+                logger.info("max items enforced from counts for channel {}", config.getName());
+                return;
+            }
             logger.info("updating max items for channel {}", config.getName());
             ActiveTraces.start("S3Config.updateMaxItems", config.getName());
             Optional<ContentKey> optional = channelService.getLatest(config.getName(), false);
@@ -144,7 +161,8 @@ public class S3Config {
                         .withExpirationInDays(1)
                         .withStatus(BucketLifecycleConfiguration.ENABLED));
             } else {
-                rules = S3ConfigStrategy.apportion(configurations, new DateTime(), maxRules);
+                rules = S3ConfigStrategy.apportion(configurations, new DateTime(), maxRules,
+                        HubProperties.getProperty("s3Compactor.run", true));
             }
             logger.info("updating {} rules with ttl life cycle ", rules.size());
             logger.trace("updating {} ", rules);
@@ -16,18 +16,23 @@ class S3ConfigStrategy {
 
     private final static Logger logger = LoggerFactory.getLogger(S3ConfigStrategy.class);
 
-    static List<BucketLifecycleConfiguration.Rule> apportion(Iterable<ChannelConfig> channelConfigs, DateTime timeForSharding, int max) {
+    /**
+     * @param compacted when true, SINGLE channels also get a Batch rule, for the minutes S3SingleCompactor has rewritten.
+     */
+    static List<BucketLifecycleConfiguration.Rule> apportion(Iterable<ChannelConfig> channelConfigs, DateTime timeForSharding,
+                                                             int max, boolean compacted) {
         List<BucketLifecycleConfiguration.Rule> rules = new ArrayList<>();
         for (ChannelConfig config : channelConfigs) {
-            addRule(rules, config);
+            addRule(rules, config, compacted);
         }
         if (rules.size() <= max) {
             return rules;
         }
-        return handleMax(channelConfigs, timeForSharding, max, rules.size());
+        return handleMax(channelConfigs, timeForSharding, max, rules.size(), compacted);
     }
 
-    private static List<BucketLifecycleConfiguration.Rule> handleMax(Iterable<ChannelConfig> channelConfigs, DateTime timeForSharding, int max, double rulesCount) {
+    private static List<BucketLifecycleConfiguration.Rule> handleMax(Iterable<ChannelConfig> channelConfigs, DateTime timeForSharding,
+                                                                     int max, double rulesCount, boolean compacted) {
         int buckets = (int) Math.ceil(rulesCount / (0.8 * max));
         Map<Integer, List<BucketLifecycleConfiguration.Rule>> shardedRules = new HashMap<>();
         for (ChannelConfig config : channelConfigs) {
@@ -35,7 +40,7 @@ class S3ConfigStrategy {
             int mod = Math.abs(md5[0]) % buckets;
             List<BucketLifecycleConfiguration.Rule> ruleList = shardedRules.getOrDefault(mod, new ArrayList<>());
             shardedRules.put(mod, ruleList);
-            addRule(ruleList, config);
+            addRule(ruleList, config, compacted);
 
         }
         int days = 2;
@@ -59,12 +64,12 @@ class S3ConfigStrategy {
         return rules;
     }
 
-    private static void addRule(List<BucketLifecycleConfiguration.Rule> rules, ChannelConfig config) {
+    private static void addRule(List<BucketLifecycleConfiguration.Rule> rules, ChannelConfig config, boolean compacted) {
         if (config.getTtlDays() > 0) {
             if (config.isSingle() || config.isBoth()) {
                 rules.add(createRule(config, ""));
             }
-            if (config.isBatch() || config.isBoth()) {
+            if (config.isBatch() || config.isBoth() || (compacted && config.isSingle())) {
                 rules.add(createRule(config, "Batch"));
             }
         }
@@ -0,0 +1,57 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.replication.S3Batch;
+import com.flightstats.hub.webhook.WebhookService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * S3Confirmed reports the latest minute of a channel which is known to be complete in S3.
+ * Single storage is confirmed by the S3Verifier once it finds every Spoke item in S3, which trails the items it
+ * queues for writing, and batch storage is confirmed by the channel's S3Batch webhook.
+ */
+@Singleton
+public class S3Confirmed {
+
+    @Inject
+    private LastContentPath lastContentPath;
+    @Inject
+    private ChannelService channelService;
+    @Inject
+    private WebhookService webhookService;
+
+    /**
+     * @return the latest confirmed minute, or null if nothing is confirmed
+     */
+    public MinutePath getLastConfirmed(String channelName) {
+        ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
+        if (channel == null) {
+            return null;
+        }
+        MinutePath confirmed = null;
+        if (channel.isSingle() || channel.isBoth()) {
+            confirmed = toMinutePath(lastContentPath.getOrNull(channelName, S3Verifier.LAST_SINGLE_CONFIRMED));
+        }
+        if (channel.isBatch() || channel.isBoth()) {
+            String groupName = new S3Batch(channel, null).getGroupName();
+            MinutePath batch = toMinutePath(webhookService.getLastCompleted(groupName));
+            if (confirmed == null || (batch != null && batch.compareTo(confirmed) > 0)) {
+                confirmed = batch;
+            }
+        }
+        return confirmed;
+    }
+
+    private static MinutePath toMinutePath(ContentPath path) {
+        if (path == null || path instanceof MinutePath) {
+            return (MinutePath) path;
+        }
+        //a key only confirms the minutes before it
+        return new MinutePath(path.getTime().minusMinutes(1));
+    }
+}
@@ -0,0 +1,219 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinuteDigest;
+import com.flightstats.hub.model.MinutePath;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * S3Digests keeps a MinuteDigest of the items written to S3 by the S3WriteQueue, per channel and minute.
+ * Digests are accumulated in memory and periodically merged into ZooKeeper, so the S3Verifier can compare them
+ * with the Spoke digests, and only list keys for the minutes which differ.
+ * <p>
+ * Each channel has one node per hour, holding a line per minute, so a flush writes at most once per channel and hour.
+ */
+@Singleton
+public class S3Digests {
+
+    private final static Logger logger = LoggerFactory.getLogger(S3Digests.class);
+    static final String DIGEST_PATH = "/S3Digest/";
+
+    private final CuratorFramework curator;
+    private Map<String, Map<MinutePath, MinuteDigest>> pending = new HashMap<>();
+
+    @Inject
+    public S3Digests(CuratorFramework curator) {
+        this.curator = curator;
+        HubServices.register(new S3DigestsService(), HubServices.TYPE.AFTER_HEALTHY_START, HubServices.TYPE.PRE_STOP);
+    }
+
+    public synchronized void add(String channel, ContentKey key) {
+        pending.computeIfAbsent(channel, name -> new HashMap<>())
+                .computeIfAbsent(new MinutePath(key.getTime()), minutePath -> new MinuteDigest())
+                .add(key);
+    }
+
+    private synchronized Map<String, Map<MinutePath, MinuteDigest>> drain() {
+        Map<String, Map<MinutePath, MinuteDigest>> drained = pending;
+        pending = new HashMap<>();
+        return drained;
+    }
+
+    void flush() {
+        Map<String, Map<MinutePath, MinuteDigest>> drained = drain();
+        for (Map.Entry<String, Map<MinutePath, MinuteDigest>> channelEntry : drained.entrySet()) {
+            Map<MinutePath, SortedMap<MinutePath, MinuteDigest>> hours = new HashMap<>();
+            for (Map.Entry<MinutePath, MinuteDigest> entry : channelEntry.getValue().entrySet()) {
+                hours.computeIfAbsent(getHour(entry.getKey()), hour -> new TreeMap<>()).put(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<MinutePath, SortedMap<MinutePath, MinuteDigest>> hour : hours.entrySet()) {
+                merge(getPath(channelEntry.getKey(), hour.getKey()), hour.getValue());
+            }
+        }
+    }
+
+    private void merge(String path, SortedMap<MinutePath, MinuteDigest> digests) {
+        try {
+            while (true) {
+                try {
+                    Stat stat = new Stat();
+                    byte[] bytes = curator.getData().storingStatIn(stat).forPath(path);
+                    SortedMap<MinutePath, MinuteDigest> merged = decode(new String(bytes, StandardCharsets.UTF_8));
+                    for (Map.Entry<MinutePath, MinuteDigest> entry : digests.entrySet()) {
+                        merged.computeIfAbsent(entry.getKey(), minute -> new MinuteDigest()).merge(entry.getValue());
+                    }
+                    curator.setData().withVersion(stat.getVersion()).forPath(path, encode(merged).getBytes(StandardCharsets.UTF_8));
+                    return;
+                } catch (KeeperException.NoNodeException e) {
+                    try {
+                        curator.create().creatingParentsIfNeeded().forPath(path, encode(digests).getBytes(StandardCharsets.UTF_8));
+                        return;
+                    } catch (KeeperException.NodeExistsException ignore) {
+                        logger.trace("node created concurrently {}", path);
+                    }
+                } catch (KeeperException.BadVersionException e) {
+                    logger.trace("bad version {}", path);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("unable to merge digests " + path + " " + digests, e);
+        }
+    }
+
+    /**
+     * One line per minute, "minuteMillis count:hash".
+     */
+    static String encode(SortedMap<MinutePath, MinuteDigest> digests) {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<MinutePath, MinuteDigest> entry : digests.entrySet()) {
+            builder.append(entry.getKey().toZk()).append(" ").append(entry.getValue()).append("\n");
+        }
+        return builder.toString();
+    }
+
+    static SortedMap<MinutePath, MinuteDigest> decode(String value) {
+        SortedMap<MinutePath, MinuteDigest> digests = new TreeMap<>();
+        for (String line : StringUtils.split(value, "\n")) {
+            String[] split = StringUtils.split(line, " ");
+            if (split.length == 2) {
+                digests.put(MinutePath.NONE.fromZk(split[0]), MinuteDigest.fromString(split[1]));
+            } else {
+                logger.debug("ignoring digest line {}", line);
+            }
+        }
+        return digests;
+    }
+
+    static MinutePath getHour(MinutePath minutePath) {
+        return new MinutePath(minutePath.getTime().withMinuteOfHour(0));
+    }
+
+    /**
+     * Returns the S3 digests for the channel within the inclusive range.  Minutes with no writes are empty digests.
+     */
+    SortedMap<MinutePath, MinuteDigest> get(String channel, MinutePath startPath, MinutePath endPath) {
+        SortedMap<MinutePath, MinuteDigest> digests = new TreeMap<>();
+        for (MinutePath minutePath = startPath; minutePath.compareTo(endPath) <= 0; minutePath = minutePath.addMinute()) {
+            digests.put(minutePath, new MinuteDigest());
+        }
+        for (MinutePath hour : getHours(channel)) {
+            if (hour.compareTo(getHour(startPath)) < 0 || hour.compareTo(endPath) > 0) {
+                continue;
+            }
+            try {
+                byte[] bytes = curator.getData().forPath(getPath(channel, hour));
+                for (Map.Entry<MinutePath, MinuteDigest> entry : decode(new String(bytes, StandardCharsets.UTF_8)).entrySet()) {
+                    if (digests.containsKey(entry.getKey())) {
+                        digests.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            } catch (KeeperException.NoNodeException ignore) {
+                logger.trace("digest removed {} {}", channel, hour);
+            } catch (Exception e) {
+                logger.warn("unable to get digest " + channel + " " + hour, e);
+                for (int i = 0; i < 60; i++) {
+                    digests.remove(new MinutePath(hour.getTime().plusMinutes(i)));
+                }
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * Remove the digests for each hour which ends at or before endPath.
+     */
+    void deleteThrough(String channel, MinutePath endPath) {
+        for (MinutePath hour : getHours(channel)) {
+            if (hour.getTime().plusMinutes(59).compareTo(endPath.getTime()) <= 0) {
+                try {
+                    curator.delete().forPath(getPath(channel, hour));
+                } catch (KeeperException.NoNodeException ignore) {
+                    logger.trace("digest already removed {} {}", channel, hour);
+                } catch (Exception e) {
+                    logger.warn("unable to delete digest " + channel + " " + hour, e);
+                }
+            }
+        }
+    }
+
+    void delete(String channel) {
+        try {
+            curator.delete().deletingChildrenIfNeeded().forPath(DIGEST_PATH + channel);
+        } catch (KeeperException.NoNodeException ignore) {
+            logger.trace("no digests for {}", channel);
+        } catch (Exception e) {
+            logger.warn("unable to delete digests " + channel, e);
+        }
+    }
+
+    private List<MinutePath> getHours(String channel) {
+        List<MinutePath> hours = new ArrayList<>();
+        try {
+            for (String child : curator.getChildren().forPath(DIGEST_PATH + channel)) {
+                hours.add(MinutePath.NONE.fromZk(child));
+            }
+        } catch (KeeperException.NoNodeException ignore) {
+            logger.trace("no digests for {}", channel);
+        } catch (Exception e) {
+            logger.warn("unable to get digests " + channel, e);
+        }
+        return hours;
+    }
+
+    private String getPath(String channel, MinutePath hour) {
+        return DIGEST_PATH + channel + "/" + hour.toZk();
+    }
+
+    private class S3DigestsService extends AbstractScheduledService {
+
+        @Override
+        protected void runOneIteration() throws Exception {
+            flush();
+        }
+
+        @Override
+        protected void shutDown() throws Exception {
+            flush();
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            int seconds = HubProperties.getProperty("s3Verifier.digestFlushSeconds", 60);
+            return Scheduler.newFixedDelaySchedule(seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * S3MultipartOutputStream uploads what is written to a single S3 object, holding at most one part in memory.
+ * <p>
+ * The buffer grows with the object up to the part size, so small objects only use what they need.
+ * Objects smaller than a part are written with one put, larger objects with a multipart upload.
+ * The caller must either close, which completes the object, or abort.
+ */
+class S3MultipartOutputStream extends OutputStream {
+
+    private final static Logger logger = LoggerFactory.getLogger(S3MultipartOutputStream.class);
+    private static final int INITIAL_BYTES = 64 * 1024;
+
+    private final AmazonS3 s3Client;
+    private final String bucketName;
+    private final String key;
+    private final boolean encrypted;
+    private final int partBytes;
+    private byte[] buffer;
+    private final List<PartETag> partETags = new ArrayList<>();
+    private int position;
+    private long bytesWritten;
+    private String uploadId;
+    private boolean closed;
+
+    S3MultipartOutputStream(AmazonS3 s3Client, String bucketName, String key, int partBytes, boolean encrypted) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.key = key;
+        this.encrypted = encrypted;
+        this.partBytes = partBytes;
+        this.buffer = new byte[Math.min(partBytes, INITIAL_BYTES)];
+    }
+
+    @Override
+    public void write(int b) {
+        if (position == partBytes) {
+            uploadPart();
+        }
+        ensureCapacity(position + 1);
+        buffer[position++] = (byte) b;
+        bytesWritten++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            if (position == partBytes) {
+                uploadPart();
+            }
+            int count = Math.min(length, partBytes - position);
+            ensureCapacity(position + count);
+            System.arraycopy(bytes, offset, buffer, position, count);
+            position += count;
+            offset += count;
+            length -= count;
+            bytesWritten += count;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            int grown = (int) Math.min(partBytes, Math.max(capacity, 2L * buffer.length));
+            buffer = Arrays.copyOf(buffer, grown);
+        }
+    }
+
+    private void uploadPart() {
+        if (uploadId == null) {
+            InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(bucketName, key, createMetadata());
+            uploadId = s3Client.initiateMultipartUpload(request).getUploadId();
+            logger.debug("started upload {} {}", key, uploadId);
+        }
+        UploadPartRequest request = new UploadPartRequest()
+                .withBucketName(bucketName)
+                .withKey(key)
+                .withUploadId(uploadId)
+                .withPartNumber(partETags.size() + 1)
+                .withInputStream(new ByteArrayInputStream(buffer, 0, position))
+                .withPartSize(position);
+        partETags.add(s3Client.uploadPart(request).getPartETag());
+        position = 0;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (uploadId == null) {
+            ObjectMetadata metadata = createMetadata();
+            metadata.setContentLength(position);
+            s3Client.putObject(new PutObjectRequest(bucketName, key, new ByteArrayInputStream(buffer, 0, position), metadata));
+            return;
+        }
+        if (position > 0) {
+            uploadPart();
+        }
+        s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags));
+        logger.debug("completed upload {} {} parts {}", key, uploadId, partETags.size());
+    }
+
+    void abort() {
+        closed = true;
+        if (uploadId != null) {
+            try {
+                s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+            } catch (Exception e) {
+                logger.warn("unable to abort upload " + key + " " + uploadId, e);
+            }
+        }
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private ObjectMetadata createMetadata() {
+        ObjectMetadata metadata = new ObjectMetadata();
+        if (encrypted) {
+            metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        }
+        return metadata;
+    }
+}
@@ -0,0 +1,166 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.channel.ZipBulkBuilder;
+import com.flightstats.hub.cluster.CuratorLeader;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.cluster.Leader;
+import com.flightstats.hub.cluster.Leadership;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.dao.ContentDao;
+import com.flightstats.hub.exception.FailedReadException;
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.model.*;
+import com.flightstats.hub.util.RawZipOutputStream;
+import com.flightstats.hub.util.Sleeper;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * S3SingleCompactor rewrites closed minutes of SINGLE channels into the S3BatchContentDao format,
+ * one zip and one index per minute, and then removes the single objects.
+ * Only minutes which the S3Verifier has already verified, and which are older than s3Compactor.minAgeHours,
+ * are compacted.  The last compacted minute is kept per channel in LAST_COMPACTED.
+ */
+@Singleton
+public class S3SingleCompactor {
+
+    static final String LAST_COMPACTED = "/S3SingleLastCompacted/";
+    private final static Logger logger = LoggerFactory.getLogger(S3SingleCompactor.class);
+
+    private final int minAgeHours = HubProperties.getProperty("s3Compactor.minAgeHours", 24);
+    private final int maxMinutes = HubProperties.getProperty("s3Compactor.maxMinutesPerRun", 60 * 24);
+    @Inject
+    private LastContentPath lastContentPath;
+    @Inject
+    private ChannelService channelService;
+    @Inject
+    @Named(ContentDao.SINGLE_LONG_TERM)
+    private ContentDao s3SingleContentDao;
+    @Inject
+    @Named(ContentDao.BATCH_LONG_TERM)
+    private ContentDao s3BatchContentDao;
+
+    public S3SingleCompactor() {
+        if (HubProperties.getProperty("s3Compactor.run", true)) {
+            HubServices.register(new S3CompactorService(), HubServices.TYPE.AFTER_HEALTHY_START, HubServices.TYPE.PRE_STOP);
+        }
+    }
+
+    private void compactChannels() {
+        logger.info("Compacting Single S3 data");
+        for (ChannelConfig channel : channelService.getChannels()) {
+            if (channel.isSingle() && !channel.isHistorical()) {
+                try {
+                    compactChannel(channel);
+                } catch (Exception e) {
+                    logger.warn("unable to compact " + channel.getName(), e);
+                }
+            }
+        }
+        logger.info("Completed Compacting Single S3 data");
+    }
+
+    private void compactChannel(ChannelConfig channel) {
+        String name = channel.getName();
+        ContentPath verified = lastContentPath.get(name, null, S3Verifier.LAST_SINGLE_VERIFIED);
+        if (verified == null) {
+            return;
+        }
+        MinutePath endPath = new MinutePath(TimeUtil.now().minusHours(minAgeHours));
+        if (verified.compareTo(endPath) < 0) {
+            endPath = new MinutePath(verified.getTime());
+        }
+        DateTime defaultTime = new DateTime(channel.getCreationDate());
+        if (defaultTime.isBefore(channel.getTtlTime())) {
+            defaultTime = channel.getTtlTime();
+        }
+        MinutePath defaultPath = new MinutePath(defaultTime.minusMinutes(1));
+        ContentPath lastCompacted = lastContentPath.get(name, defaultPath, LAST_COMPACTED);
+        MinutePath minutePath = new MinutePath(lastCompacted.getTime()).addMinute();
+        logger.debug("compacting {} from {} to {}", name, minutePath, endPath);
+        int minutes = 0;
+        while (minutePath.compareTo(endPath) <= 0 && minutes < maxMinutes) {
+            compactMinute(name, minutePath);
+            lastContentPath.updateIncrease(minutePath, name, LAST_COMPACTED);
+            minutePath = minutePath.addMinute();
+            minutes++;
+        }
+    }
+
+    private void compactMinute(String channel, MinutePath minutePath) {
+        ActiveTraces.start("S3SingleCompactor.compactMinute", channel, minutePath);
+        try {
+            TimeQuery query = TimeQuery.builder()
+                    .channelName(channel)
+                    .startTime(minutePath.getTime())
+                    .unit(TimeUtil.Unit.MINUTES)
+                    .build();
+            SortedSet<ContentKey> keys = s3SingleContentDao.queryByTime(query);
+            if (keys.isEmpty()) {
+                return;
+            }
+            s3BatchContentDao.writeBatch(channel, minutePath, keys, toZip(channel, keys));
+            s3SingleContentDao.delete(channel, keys);
+            logger.debug("compacted {} {} keys {}", channel, minutePath, keys.size());
+        } finally {
+            ActiveTraces.end();
+        }
+    }
+
+    private byte[] toZip(String channel, SortedSet<ContentKey> keys) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (RawZipOutputStream output = new RawZipOutputStream(baos)) {
+            for (ContentKey key : keys) {
+                Content content = s3SingleContentDao.get(channel, key);
+                if (content == null) {
+                    throw new FailedReadException("unable to read " + channel + " " + key);
+                }
+                ZipBulkBuilder.createZipEntry(output, content);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    private class S3CompactorService extends AbstractIdleService implements Leader {
+
+        private final int minutes = HubProperties.getProperty("s3Compactor.periodMinutes", 60);
+
+        @Override
+        protected void startUp() throws Exception {
+            CuratorLeader curatorLeader = new CuratorLeader("/S3SingleCompactorService", this);
+            curatorLeader.start();
+        }
+
+        @Override
+        protected void shutDown() throws Exception {
+            //do nothing
+        }
+
+        @Override
+        public void takeLeadership(Leadership leadership) {
+            logger.info("taking leadership");
+            while (leadership.hasLeadership()) {
+                long start = System.currentTimeMillis();
+                compactChannels();
+                long sleep = TimeUnit.MINUTES.toMillis(minutes) - (System.currentTimeMillis() - start);
+                Sleeper.sleep(Math.max(0, sleep));
+            }
+            logger.info("lost leadership");
+        }
+    }
+}
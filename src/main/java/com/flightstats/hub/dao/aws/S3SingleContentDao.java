@@ -3,20 +3,26 @@ package com.flightstats.hub.dao.aws;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.*;
 import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
 import com.flightstats.hub.dao.ContentDao;
 import com.flightstats.hub.dao.ContentMarshaller;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.metrics.LatencyRecorder;
 import com.flightstats.hub.metrics.MetricsSender;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.model.DirectionQuery;
 import com.flightstats.hub.model.TimeQuery;
+import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.timgroup.statsd.StatsDClient;
 import org.apache.commons.lang3.StringUtils;
@@ -29,6 +35,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketTimeoutException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class S3SingleContentDao implements ContentDao {
     private final static StatsDClient statsd = DataDog.statsd;
@@ -41,12 +52,15 @@ public class S3SingleContentDao implements ContentDao {
     private final boolean useEncrypted = HubProperties.isAppEncrypted();
     private final int s3MaxQueryItems = HubProperties.getProperty("s3.maxQueryItems", 1000);
     private final String s3BucketName;
+    private final ExecutorService listThreadPool = Executors.newFixedThreadPool(HubProperties.getProperty("s3.listThreads", 20),
+            new ThreadFactoryBuilder().setNameFormat("S3SingleList-%d").build());
 
     @Inject
     public S3SingleContentDao(AmazonS3 s3Client, S3BucketName s3BucketName, MetricsSender sender) {
         this.s3Client = s3Client;
         this.sender = sender;
         this.s3BucketName = s3BucketName.getS3BucketName();
+        HubServices.register(new S3SingleContentDaoService());
     }
 
     public void initialize() {
@@ -97,6 +111,7 @@ public class S3SingleContentDao implements ContentDao {
             s3Client.putObject(request);
             long time = System.currentTimeMillis() - start;
             statsd.time("s3.put", time, "type:single", "channel:" + channelName);
+            LatencyRecorder.record("s3.write.single", time);
             return key;
         } catch (Exception e) {
             logger.warn("unable to write item to S3 " + channelName + " " + key, e);
@@ -113,6 +128,20 @@ public class S3SingleContentDao implements ContentDao {
         ActiveTraces.getLocal().add("S3SingleContentDao.deleted", s3ContentKey);
     }
 
+    @Override
+    public void delete(String channelName, Collection<ContentKey> keys) {
+        List<DeleteObjectsRequest.KeyVersion> keyVersions = new ArrayList<>();
+        for (ContentKey key : keys) {
+            keyVersions.add(new DeleteObjectsRequest.KeyVersion(getS3ContentKey(channelName, key)));
+        }
+        for (List<DeleteObjectsRequest.KeyVersion> partition : Lists.partition(keyVersions, 1000)) {
+            DeleteObjectsRequest request = new DeleteObjectsRequest(s3BucketName);
+            request.setKeys(partition);
+            s3Client.deleteObjects(request);
+        }
+        ActiveTraces.getLocal().add("S3SingleContentDao.deleted", channelName, keyVersions.size());
+    }
+
     public Content get(final String channelName, final ContentKey key) {
         ActiveTraces.getLocal().add("S3SingleContentDao.read", key);
         try {
@@ -169,6 +198,12 @@ public class S3SingleContentDao implements ContentDao {
                 .withBucketName(s3BucketName)
                 .withMaxKeys(s3MaxQueryItems);
         DateTime endTime = query.getEndTime();
+        TimeUtil.Unit subUnit = getSubUnit(query.getUnit());
+        if (endTime == null && subUnit != null && (query.getCount() <= 0 || query.getLimitKey() == null)) {
+            SortedSet<ContentKey> keys = queryBySubPrefixes(query, subUnit, traces);
+            traces.add("S3SingleContentDao.queryByTime completed", keys);
+            return keys;
+        }
         if (endTime == null) {
             request.withPrefix(query.getChannelName() + "/" + timePath);
             endTime = query.getStartTime().plus(query.getUnit().getDuration());
@@ -180,6 +215,99 @@ public class S3SingleContentDao implements ContentDao {
         return keys;
     }
 
+    private static TimeUtil.Unit getSubUnit(TimeUtil.Unit unit) {
+        switch (unit) {
+            case DAYS:
+                return TimeUtil.Unit.HOURS;
+            case HOURS:
+                return TimeUtil.Unit.MINUTES;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Lists the whole prefix first, and only if that listing is truncated, lists the remaining
+     * sub prefixes (hours in a day, minutes in an hour) in parallel instead of paging through them one at a time.
+     */
+    private SortedSet<ContentKey> queryBySubPrefixes(TimeQuery query, TimeUtil.Unit subUnit, Traces traces) {
+        String channelName = query.getChannelName();
+        DateTime endTime = query.getStartTime().plus(query.getUnit().getDuration());
+        SortedSet<ContentKey> keys = new TreeSet<>();
+        ListObjectsRequest request = new ListObjectsRequest()
+                .withBucketName(s3BucketName)
+                .withMaxKeys(s3MaxQueryItems)
+                .withPrefix(channelName + "/" + query.getUnit().format(query.getStartTime()));
+        statsd.increment("s3.list", "type:single", "channel:" + channelName);
+        sender.send("channel." + channelName + ".s3.list", 1);
+        traces.add("S3SingleContentDao.queryBySubPrefixes prefix:", request.getPrefix());
+        ObjectListing listing = s3Client.listObjects(request);
+        ContentKey marker = addKeys(channelName, listing, keys, endTime);
+        if (!listing.isTruncated() || marker == null || !marker.getTime().isBefore(endTime)) {
+            return keys;
+        }
+        String markerPath = subUnit.format(marker.getTime());
+        List<Future<SortedSet<ContentKey>>> futures = new ArrayList<>();
+        for (String subPath : getSubPaths(query.getStartTime(), query.getUnit(), subUnit)) {
+            if (subPath.compareTo(markerPath) < 0) {
+                continue;
+            }
+            futures.add(listThreadPool.submit(() -> {
+                ActiveTraces.setLocal(traces);
+                ListObjectsRequest subRequest = new ListObjectsRequest()
+                        .withBucketName(s3BucketName)
+                        .withMaxKeys(s3MaxQueryItems)
+                        .withPrefix(channelName + "/" + subPath);
+                if (subPath.equals(markerPath)) {
+                    subRequest.withMarker(channelName + "/" + marker.toUrl());
+                }
+                return iterateListObjects(channelName, subRequest, MAX_ITEMS, endTime, 0, null);
+            }));
+        }
+        try {
+            for (Future<SortedSet<ContentKey>> future : futures) {
+                if (keys.size() >= MAX_ITEMS) {
+                    future.cancel(true);
+                } else {
+                    keys.addAll(future.get());
+                }
+            }
+            return trim(keys, MAX_ITEMS);
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new RuntimeInterruptedException(e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    static SortedSet<ContentKey> trim(SortedSet<ContentKey> keys, int maxItems) {
+        if (keys.size() <= maxItems) {
+            return keys;
+        }
+        SortedSet<ContentKey> trimmed = new TreeSet<>();
+        Iterator<ContentKey> iterator = keys.iterator();
+        while (trimmed.size() < maxItems) {
+            trimmed.add(iterator.next());
+        }
+        return trimmed;
+    }
+
+    static List<String> getSubPaths(DateTime startTime, TimeUtil.Unit unit, TimeUtil.Unit subUnit) {
+        String path = unit.format(startTime);
+        List<String> subPaths = new ArrayList<>();
+        DateTime subTime = unit.round(startTime);
+        while (unit.format(subTime).equals(path)) {
+            subPaths.add(subUnit.format(subTime));
+            subTime = subTime.plus(subUnit.getDuration());
+        }
+        return subPaths;
+    }
+
     private SortedSet<ContentKey> iterateListObjects(String channelName, ListObjectsRequest request,
                                                      int maxItems, DateTime endTime, int count, ContentKey limitKey) {
         Traces traces = ActiveTraces.getLocal();
@@ -290,4 +418,18 @@ public class S3SingleContentDao implements ContentDao {
         }).start();
     }
 
+
+    private class S3SingleContentDaoService extends AbstractIdleService {
+
+        @Override
+        protected void startUp() throws Exception {
+            //do nothing
+        }
+
+        @Override
+        protected void shutDown() throws Exception {
+            listThreadPool.shutdown();
+            listThreadPool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
 }
@@ -13,6 +13,7 @@ import com.flightstats.hub.exception.FailedQueryException;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
+import com.flightstats.hub.spoke.RemoteSpokeStore;
 import com.flightstats.hub.util.HubUtils;
 import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.Sleeper;
@@ -31,8 +32,7 @@ import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -42,6 +42,11 @@ import java.util.concurrent.TimeUnit;
 public class S3Verifier {
 
     static final String LAST_SINGLE_VERIFIED = "/S3VerifierSingleLastVerified/";
+    /**
+     * The latest minute with every Spoke item found in S3.  This trails LAST_SINGLE_VERIFIED while missing items
+     * are still being written, and the minutes after it are verified again until they are found.
+     */
+    static final String LAST_SINGLE_CONFIRMED = "/S3VerifierSingleLastConfirmed/";
     private final static Logger logger = LoggerFactory.getLogger(S3Verifier.class);
 
     private final int offsetMinutes = HubProperties.getProperty("s3Verifier.offsetMinutes", 15);
@@ -62,6 +67,10 @@ public class S3Verifier {
     private S3WriteQueue s3WriteQueue;
     @Inject
     private Client followClient;
+    @Inject
+    private S3Digests s3Digests;
+    @Inject
+    private RemoteSpokeStore remoteSpokeStore;
 
     public S3Verifier() {
         if (HubProperties.getProperty("s3Verifier.run", true)) {
@@ -121,19 +130,77 @@ public class S3Verifier {
         if (channel.isLive() && range.startPath.compareTo(spokeTtlTime) < 0) {
             range.startPath = spokeTtlTime;
         }
+        ContentPath confirmed = lastContentPath.getOrNull(channel.getName(), LAST_SINGLE_CONFIRMED);
+        if (confirmed != null && confirmed.compareTo(range.startPath) < 0) {
+            MinutePath recheck = confirmed.compareTo(spokeTtlTime) < 0 ? spokeTtlTime : (MinutePath) confirmed;
+            if (recheck.compareTo(range.startPath) < 0) {
+                range.startPath = recheck;
+            }
+        }
         return range;
     }
 
     private void verifyChannel(VerifierRange range) {
         String channelName = range.channel.getName();
-        SortedSet<ContentKey> keysToAdd = getMissing(range.startPath, range.endPath, channelName, s3SingleContentDao, new TreeSet<>());
         logger.debug("verifyChannel.starting {}", range);
-        for (ContentKey key : keysToAdd) {
-            logger.trace("found missing {} {}", channelName, key);
-            s3WriteQueue.add(new ChannelContentKey(channelName, key));
+        MinutePath confirmed = range.endPath;
+        for (VerifierRange unmatched : getUnmatchedRanges(range)) {
+            logger.debug("verifyChannel.unmatched {}", unmatched);
+            SortedSet<ContentKey> keysToAdd = getMissing(unmatched.startPath, unmatched.endPath, channelName, s3SingleContentDao, new TreeSet<>());
+            for (ContentKey key : keysToAdd) {
+                logger.trace("found missing {} {}", channelName, key);
+                s3WriteQueue.add(new ChannelContentKey(channelName, key));
+            }
+            if (!keysToAdd.isEmpty()) {
+                MinutePath beforeMissing = new MinutePath(keysToAdd.first().getTime().minusMinutes(1));
+                if (beforeMissing.compareTo(confirmed) < 0) {
+                    confirmed = beforeMissing;
+                }
+            }
         }
-        logger.debug("verifyChannel.completed {}", range);
+        logger.debug("verifyChannel.completed {} confirmed {}", range, confirmed);
         lastContentPath.updateIncrease(range.endPath, range.channel.getName(), LAST_SINGLE_VERIFIED);
+        lastContentPath.updateIncrease(confirmed, range.channel.getName(), LAST_SINGLE_CONFIRMED);
+        s3Digests.deleteThrough(channelName, range.endPath);
+    }
+
+    /**
+     * Compares the Spoke and S3 digests for each minute in the range, and returns the ranges of consecutive
+     * minutes which need to be compared by keys.
+     */
+    private List<VerifierRange> getUnmatchedRanges(VerifierRange range) {
+        String channelName = range.channel.getName();
+        int minutes = (int) new Duration(range.startPath.getTime(), range.endPath.getTime()).getStandardMinutes() + 1;
+        try {
+            SortedMap<MinutePath, MinuteDigest> spokeDigests = remoteSpokeStore.getDigests(channelName, range.startPath, minutes);
+            SortedMap<MinutePath, MinuteDigest> s3 = s3Digests.get(channelName, range.startPath, range.endPath);
+            return getUnmatchedRanges(range, spokeDigests, s3);
+        } catch (InterruptedException e) {
+            throw new RuntimeInterruptedException(e);
+        } catch (Exception e) {
+            logger.warn("unable to compare digests " + range, e);
+            return Collections.singletonList(range);
+        }
+    }
+
+    static List<VerifierRange> getUnmatchedRanges(VerifierRange range, Map<MinutePath, MinuteDigest> spokeDigests,
+                                                  Map<MinutePath, MinuteDigest> s3Digests) {
+        List<VerifierRange> unmatched = new ArrayList<>();
+        VerifierRange current = null;
+        for (MinutePath minute = range.startPath; minute.compareTo(range.endPath) <= 0; minute = minute.addMinute()) {
+            MinuteDigest spokeDigest = spokeDigests.get(minute);
+            if (spokeDigest != null && spokeDigest.equals(s3Digests.get(minute))) {
+                current = null;
+            } else if (current == null) {
+                current = new VerifierRange(range.channel);
+                current.startPath = minute;
+                current.endPath = minute;
+                unmatched.add(current);
+            } else {
+                current.endPath = minute;
+            }
+        }
+        return unmatched;
     }
 
     private SortedSet<ContentKey> getMissing(MinutePath startPath, MinutePath endPath, String channelName, ContentDao s3ContentDao,
@@ -151,6 +218,8 @@ public class S3Verifier {
             builder.endTime(endPath.getTime());
         }
         TimeQuery timeQuery = builder.build();
+        //Spoke includes the end minute, while S3 stops before the end time
+        TimeQuery longTermQuery = endPath == null ? timeQuery : timeQuery.withEndTime(endPath.getTime().plusMinutes(1));
         try {
             CountDownLatch latch = new CountDownLatch(2);
             runInQueryPool(ActiveTraces.getLocal(), latch, () -> {
@@ -158,7 +227,7 @@ public class S3Verifier {
                 foundCacheKeys.addAll(spokeKeys);
                 queryResult.addKeys(spokeKeys);
             });
-            runInQueryPool(ActiveTraces.getLocal(), latch, () -> longTermKeys.addAll(s3ContentDao.queryByTime(timeQuery)));
+            runInQueryPool(ActiveTraces.getLocal(), latch, () -> longTermKeys.addAll(s3ContentDao.queryByTime(longTermQuery)));
             latch.await(timeout, TimeUnit.MINUTES);
             queryResult.getContentKeys().removeAll(longTermKeys);
             if (queryResult.getContentKeys().size() > 0) {
@@ -189,7 +258,7 @@ public class S3Verifier {
     }
 
     @ToString
-    class VerifierRange {
+    static class VerifierRange {
 
         MinutePath startPath;
         MinutePath endPath;
@@ -1,12 +1,15 @@
 package com.flightstats.hub.dao.aws;
 
 
+import com.amazonaws.AmazonServiceException;
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.dao.ContentDao;
 import com.flightstats.hub.exception.FailedReadException;
 import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.DataDog;
 import com.flightstats.hub.model.ChannelContentKey;
 import com.flightstats.hub.model.Content;
+import com.flightstats.hub.util.AdaptiveLimiter;
 import com.flightstats.hub.util.Sleeper;
 import com.github.rholder.retry.Retryer;
 import com.github.rholder.retry.RetryerBuilder;
@@ -16,75 +19,169 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import com.timgroup.statsd.StatsDClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * S3WriteQueue copies items from Spoke to S3.
+ * <p>
+ * A single dispatcher drains queued keys in groups, interleaves them by channel so a bursty channel
+ * can not starve the others, and hands each write to a pool whose concurrency is set by an {@link AdaptiveLimiter}.
+ * The limit starts at s3.writeQueueThreads, grows while S3 latency is stable, and backs off on throttling.
+ * It never exceeds s3.maxConnections, the size of the S3 client's connection pool.
+ */
 @SuppressWarnings("WeakerAccess")
 @Singleton
 public class S3WriteQueue {
 
     private final static Logger logger = LoggerFactory.getLogger(S3WriteQueue.class);
+    private final static StatsDClient statsd = DataDog.statsd;
 
     private static final int THREADS = HubProperties.getProperty("s3.writeQueueThreads", 20);
+    private static final int MAX_THREADS = Math.min(HubProperties.getProperty("s3.maxConnections", 50),
+            Math.max(THREADS, HubProperties.getProperty("s3.writeQueueMaxThreads", 100)));
+    private static final int BATCH_SIZE = HubProperties.getProperty("s3.writeQueueBatchSize", 1000);
     private Retryer<Void> retryer = buildRetryer();
     private BlockingQueue<ChannelContentKey> keys = new LinkedBlockingQueue<>(HubProperties.getProperty("s3.writeQueueSize", 40000));
-    private ExecutorService executorService = Executors.newFixedThreadPool(THREADS,
-            new ThreadFactoryBuilder().setNameFormat("S3WriteQueue-%d").build());
+    private final AdaptiveLimiter limiter = new AdaptiveLimiter(Math.min(THREADS, MAX_THREADS), 1, MAX_THREADS);
+    private final AtomicInteger dispatching = new AtomicInteger();
+    private ExecutorService dispatcher = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("S3WriteQueue-dispatch-%d").build());
+    private ThreadPoolExecutor executorService = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), new ThreadFactoryBuilder().setNameFormat("S3WriteQueue-%d").build());
     @Inject
     @Named(ContentDao.CACHE)
     private ContentDao spokeContentDao;
     @Inject
     @Named(ContentDao.SINGLE_LONG_TERM)
     private ContentDao s3SingleContentDao;
+    @Inject
+    private S3Digests s3Digests;
 
 
     @Inject
     private S3WriteQueue() throws InterruptedException {
-        for (int i = 0; i < THREADS; i++) {
-            executorService.submit(() -> {
+        executorService.allowCoreThreadTimeOut(true);
+        dispatcher.submit(() -> {
+            try {
+                while (true) {
+                    dispatch();
+                }
+            } catch (Exception e) {
+                logger.warn("exited thread", e);
+                return null;
+            }
+        });
+    }
+
+    private void dispatch() throws InterruptedException {
+        ChannelContentKey first = keys.poll(5, TimeUnit.SECONDS);
+        if (first == null) {
+            return;
+        }
+        List<ChannelContentKey> drained = new ArrayList<>();
+        drained.add(first);
+        keys.drainTo(drained, BATCH_SIZE - 1);
+        dispatching.addAndGet(drained.size());
+        for (ChannelContentKey key : interleaveByChannel(drained)) {
+            try {
+                limiter.acquire();
                 try {
-                    while (true) {
-                        write();
-                    }
-                } catch (Exception e) {
-                    logger.warn("exited thread", e);
-                    return null;
+                    executorService.submit(() -> write(key));
+                } catch (RejectedExecutionException e) {
+                    limiter.releaseDropped();
+                    logger.warn("unable to submit " + key, e);
                 }
-            });
+            } finally {
+                dispatching.decrementAndGet();
+            }
+        }
+        statsd.gauge("s3.writeQueue.limit", limiter.getLimit());
+    }
+
+    /**
+     * Groups keys by channel, preserving the order within each channel, and returns them round robin across channels.
+     */
+    static List<ChannelContentKey> interleaveByChannel(Collection<ChannelContentKey> keys) {
+        Map<String, Deque<ChannelContentKey>> channels = new LinkedHashMap<>();
+        for (ChannelContentKey key : keys) {
+            channels.computeIfAbsent(key.getChannel(), channel -> new ArrayDeque<>()).add(key);
         }
+        List<ChannelContentKey> interleaved = new ArrayList<>(keys.size());
+        while (!channels.isEmpty()) {
+            Iterator<Deque<ChannelContentKey>> iterator = channels.values().iterator();
+            while (iterator.hasNext()) {
+                Deque<ChannelContentKey> channelKeys = iterator.next();
+                interleaved.add(channelKeys.poll());
+                if (channelKeys.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+        return interleaved;
     }
 
-    private void write() throws InterruptedException {
+    /**
+     * Only the latency of the last successful S3 call is given to the limiter, excluding reads from Spoke and retry waits.
+     */
+    private void write(ChannelContentKey key) {
+        AtomicBoolean throttled = new AtomicBoolean();
+        AtomicLong s3Millis = new AtomicLong(-1);
         try {
-            ChannelContentKey key = keys.poll(5, TimeUnit.SECONDS);
             retryer.call(() -> {
-                writeContent(key);
+                writeContent(key, throttled, s3Millis);
                 return null;
             });
         } catch (Exception e) {
-            logger.warn("unable to call s3", e);
+            logger.warn("unable to call s3 " + key, e);
+        } finally {
+            if (throttled.get()) {
+                limiter.releaseDropped();
+            } else if (s3Millis.get() >= 0) {
+                limiter.release(s3Millis.get());
+            } else {
+                limiter.releaseIgnored();
+            }
         }
     }
 
-    private void writeContent(ChannelContentKey key) throws Exception {
-        if (key != null) {
-            ActiveTraces.start("S3WriteQueue.writeContent", key);
-            try {
-                logger.trace("writing {}", key.getContentKey());
-                Content content = spokeContentDao.get(key.getChannel(), key.getContentKey());
-                content.packageStream();
-                if (content.getData() == null) {
-                    throw new FailedReadException("unable to read " + key.toString());
-                }
-                s3SingleContentDao.insert(key.getChannel(), content);
-            } finally {
-                ActiveTraces.end();
+    private void writeContent(ChannelContentKey key, AtomicBoolean throttled, AtomicLong s3Millis) throws Exception {
+        ActiveTraces.start("S3WriteQueue.writeContent", key);
+        try {
+            logger.trace("writing {}", key.getContentKey());
+            Content content = spokeContentDao.get(key.getChannel(), key.getContentKey());
+            if (content == null) {
+                throw new FailedReadException("unable to read " + key.toString());
+            }
+            content.packageStream();
+            if (content.getData() == null) {
+                throw new FailedReadException("unable to read " + key.toString());
             }
+            long start = System.currentTimeMillis();
+            s3SingleContentDao.insert(key.getChannel(), content);
+            s3Millis.set(System.currentTimeMillis() - start);
+            s3Digests.add(key.getChannel(), key.getContentKey());
+        } catch (AmazonServiceException e) {
+            if (isThrottled(e)) {
+                throttled.set(true);
+            }
+            throw e;
+        } finally {
+            ActiveTraces.end();
         }
     }
 
+    private static boolean isThrottled(AmazonServiceException e) {
+        return e.getStatusCode() == 503 || "SlowDown".equals(e.getErrorCode());
+    }
+
     public void add(ChannelContentKey key) {
         boolean value = keys.offer(key);
         if (!value) {
@@ -94,15 +191,16 @@ public class S3WriteQueue {
 
     public void close() {
         int count = 0;
-        while (keys.size() > 0) {
+        while (keys.size() > 0 || dispatching.get() > 0 || limiter.getInFlight() > 0) {
             count++;
-            logger.info("waiting for keys {}", keys.size());
+            logger.info("waiting for keys {} dispatching {} in flight {}", keys.size(), dispatching.get(), limiter.getInFlight());
             if (count >= 60) {
-                logger.warn("waited too long for keys {}", keys.size());
+                logger.warn("waited too long for keys {} {}", keys.size(), limiter);
                 return;
             }
             Sleeper.sleepQuietly(1000);
         }
+        dispatcher.shutdownNow();
         executorService.shutdown();
     }
 
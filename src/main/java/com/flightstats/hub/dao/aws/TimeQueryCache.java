@@ -0,0 +1,128 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.Location;
+import com.flightstats.hub.model.TimeQuery;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.timgroup.statsd.StatsDClient;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.joda.time.DateTime;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * TimeQueryCache holds the keys for time buckets which are closed, where the whole bucket is before the
+ * channel's stable time, and so the keys can no longer change through normal inserts.
+ * <p>
+ * Historical channels are not cached, as their closed buckets still change through historical inserts,
+ * and those would only be invalidated on the node which took the insert.
+ * Deletes on this node invalidate the affected buckets, deletes made through other nodes are bounded by query.cacheMinutes.
+ */
+class TimeQueryCache {
+
+    private final static StatsDClient statsd = DataDog.statsd;
+    private static final Set<TimeUtil.Unit> UNITS = EnumSet.of(TimeUtil.Unit.SECONDS, TimeUtil.Unit.MINUTES,
+            TimeUtil.Unit.HOURS, TimeUtil.Unit.DAYS);
+
+    private final boolean enabled = HubProperties.getProperty("query.cache", true);
+    private final Cache<BucketKey, SortedSet<ContentKey>> cache = CacheBuilder.newBuilder()
+            .maximumWeight(HubProperties.getProperty("query.cacheMaxKeys", 1000000))
+            .weigher((BucketKey key, SortedSet<ContentKey> keys) -> keys.size() + 1)
+            .expireAfterWrite(HubProperties.getProperty("query.cacheMinutes", 10), TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * @param loader runs the query, returning null if the result is incomplete and should not be cached
+     */
+    SortedSet<ContentKey> get(TimeQuery query, Supplier<SortedSet<ContentKey>> loader) {
+        if (!enabled || !isClosed(query, TimeUtil.stable())) {
+            return loader.get();
+        }
+        BucketKey bucketKey = new BucketKey(query);
+        SortedSet<ContentKey> keys = cache.getIfPresent(bucketKey);
+        if (keys != null) {
+            ActiveTraces.getLocal().add("TimeQueryCache hit", bucketKey);
+            statsd.increment("query.cache.hit");
+            return keys;
+        }
+        statsd.increment("query.cache.miss");
+        keys = loader.get();
+        if (keys != null) {
+            cache.put(bucketKey, Collections.unmodifiableSortedSet(new TreeSet<>(keys)));
+        }
+        return keys;
+    }
+
+    void invalidate(String channel) {
+        cache.asMap().keySet().removeIf(bucketKey -> bucketKey.channel.equals(channel));
+    }
+
+    void invalidate(String channel, DateTime time) {
+        cache.asMap().keySet().removeIf(bucketKey -> bucketKey.channel.equals(channel)
+                && !time.isBefore(bucketKey.start) && time.isBefore(bucketKey.getEnd()));
+    }
+
+    void invalidateBefore(String channel, DateTime time) {
+        cache.asMap().keySet().removeIf(bucketKey -> bucketKey.channel.equals(channel)
+                && bucketKey.start.isBefore(time));
+    }
+
+    /**
+     * A query is cacheable when it asks for a whole bucket, without an end time, limit key or count,
+     * and the bucket ends before both the stable time and the channel's stable time.
+     * CACHE queries are not cached, as Spoke drops their keys when the spoke ttl passes.
+     * Queries without a channel config, or for historical channels, are not cached.
+     */
+    static boolean isClosed(TimeQuery query, DateTime stable) {
+        if (query.getChannelConfig() == null || query.getChannelConfig().isHistorical()) {
+            return false;
+        }
+        if (Location.CACHE.equals(query.getLocation()) || query.getEndTime() != null || query.getCount() > 0 || query.getTagName() != null
+                || !UNITS.contains(query.getUnit())) {
+            return false;
+        }
+        DateTime end = getEnd(query.getUnit(), query.getStartTime());
+        if (query.getChannelStable() != null && query.getChannelStable().isBefore(stable)) {
+            stable = query.getChannelStable();
+        }
+        return !end.isAfter(stable);
+    }
+
+    private static DateTime getEnd(TimeUtil.Unit unit, DateTime startTime) {
+        return unit.round(startTime).plus(unit.getDuration());
+    }
+
+    @EqualsAndHashCode
+    @ToString
+    private static class BucketKey {
+        private final String channel;
+        private final String location;
+        private final String epoch;
+        private final TimeUtil.Unit unit;
+        private final DateTime start;
+
+        private BucketKey(TimeQuery query) {
+            channel = query.getChannelName();
+            location = query.getLocation().name();
+            epoch = query.getEpoch().name();
+            unit = query.getUnit();
+            start = unit.round(query.getStartTime());
+        }
+
+        private DateTime getEnd() {
+            return TimeQueryCache.getEnd(unit, start);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.flightstats.hub.exception;
+
+/**
+ * OverloadedException rejects a request before it does any work, with a 429 when the channel is using
+ * more than its share of a saturated operation, and a 503 when the operation stays saturated.
+ */
+public class OverloadedException extends RuntimeException {
+
+    private final int status;
+    private final int retryAfterSeconds;
+
+    public OverloadedException(String message, int status, int retryAfterSeconds) {
+        super(message);
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
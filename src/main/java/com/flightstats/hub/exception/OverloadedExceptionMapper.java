@@ -0,0 +1,27 @@
+package com.flightstats.hub.exception;
+
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+@Provider
+@Singleton
+public class OverloadedExceptionMapper implements ExceptionMapper<OverloadedException> {
+    private final static Logger logger = LoggerFactory.getLogger(OverloadedExceptionMapper.class);
+
+    @Override
+    public Response toResponse(OverloadedException exception) {
+        logger.debug("rejected {}", exception.getMessage());
+        ActiveTraces.getLocal().add(exception);
+        ActiveTraces.end();
+        return Response.status(exception.getStatus())
+                .header("Retry-After", exception.getRetryAfterSeconds())
+                .entity(exception.getMessage())
+                .build();
+    }
+}
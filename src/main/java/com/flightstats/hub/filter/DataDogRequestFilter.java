@@ -1,6 +1,7 @@
 package com.flightstats.hub.filter;
 
 import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.metrics.LatencyRecorder;
 import com.flightstats.hub.util.RequestUtils;
 import com.google.common.annotations.VisibleForTesting;
 import com.timgroup.statsd.StatsDClient;
@@ -81,6 +82,7 @@ public class DataDogRequestFilter implements ContainerRequestFilter, ContainerRe
                 logger.trace("DataDog data sent: {}", Arrays.toString(tagArray));
                 statsd.recordExecutionTime("request", time, tagArray);
                 statsd.incrementCounter("request", tagArray);
+                LatencyRecorder.record("request." + tags.get("call"), time);
             }
 
             logger.trace("DataDog request {}, time: {}", tags.get("endpoint"), time);
@@ -0,0 +1,31 @@
+package com.flightstats.hub.filter;
+
+import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.app.InFlightService;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+
+/**
+ * Marks the threads serving client requests, so InFlightService only applies admission control to them.
+ */
+@SuppressWarnings("WeakerAccess")
+@Provider
+public class InFlightFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final InFlightService inFlightService = HubProvider.getInstance(InFlightService.class);
+
+    @Override
+    public void filter(ContainerRequestContext request) throws IOException {
+        inFlightService.requestStarted();
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+        inFlightService.requestCompleted();
+    }
+}
@@ -0,0 +1,24 @@
+package com.flightstats.hub.metrics;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+@SuppressWarnings("WeakerAccess")
+@Path("/internal/latency")
+public class InternalLatencyResource {
+
+    public static final String DESCRIPTION = "Latency percentiles in millis per endpoint and operation, for the interval since the last call and since startup, with links to other hubs in the cluster.";
+
+    @GET
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getLatency() {
+        ObjectNode root = InternalTracesResource.serverAndServers("/internal/latency");
+        LatencyRecorder.log(root);
+        return Response.ok(root).build();
+    }
+}
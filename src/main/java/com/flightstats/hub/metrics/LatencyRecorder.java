@@ -0,0 +1,86 @@
+package com.flightstats.hub.metrics;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubProperties;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LatencyRecorder keeps an in-process HdrHistogram of latencies, in millis, for each named operation.
+ * Recording is lock free, and each call to log() outputs the interval since the previous call,
+ * as well as the running totals since startup.
+ */
+public class LatencyRecorder {
+
+    private static final long HIGHEST_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int SIGNIFICANT_DIGITS = HubProperties.getProperty("latency.significantDigits", 3);
+    private static final boolean enabled = HubProperties.getProperty("latency.enable", true);
+
+    private static final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+
+    public static void record(String name, long millis) {
+        if (!enabled) {
+            return;
+        }
+        latencies.computeIfAbsent(name, Latency::new).record(millis);
+    }
+
+    public static void recordSince(String name, long startMillis) {
+        record(name, System.currentTimeMillis() - startMillis);
+    }
+
+    public static void log(ObjectNode root) {
+        Map<String, Latency> ordered = new TreeMap<>(latencies);
+        ObjectNode interval = root.putObject("interval");
+        ObjectNode total = root.putObject("total");
+        for (Latency latency : ordered.values()) {
+            latency.output(interval, total);
+        }
+    }
+
+    static void clear() {
+        latencies.clear();
+    }
+
+    private static class Latency {
+        private final String name;
+        private final Recorder recorder = new Recorder(HIGHEST_MILLIS, SIGNIFICANT_DIGITS);
+        private final Histogram total = new Histogram(HIGHEST_MILLIS, SIGNIFICANT_DIGITS);
+        private Histogram interval;
+
+        private Latency(String name) {
+            this.name = name;
+            total.setStartTimeStamp(System.currentTimeMillis());
+        }
+
+        private void record(long millis) {
+            recorder.recordValue(Math.min(Math.max(0, millis), HIGHEST_MILLIS));
+        }
+
+        private synchronized void output(ObjectNode intervalRoot, ObjectNode totalRoot) {
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            total.setEndTimeStamp(interval.getEndTimeStamp());
+            output(intervalRoot.putObject(name), interval);
+            output(totalRoot.putObject(name), total);
+        }
+
+        private static void output(ObjectNode node, Histogram histogram) {
+            node.put("count", histogram.getTotalCount());
+            node.put("start", histogram.getStartTimeStamp());
+            node.put("end", histogram.getEndTimeStamp());
+            node.put("min", histogram.getMinValue());
+            node.put("mean", histogram.getMean());
+            node.put("p50", histogram.getValueAtPercentile(50));
+            node.put("p90", histogram.getValueAtPercentile(90));
+            node.put("p99", histogram.getValueAtPercentile(99));
+            node.put("p999", histogram.getValueAtPercentile(99.9));
+            node.put("max", histogram.getMaxValue());
+        }
+    }
+}
@@ -52,10 +52,12 @@ public class ChannelConfig implements Serializable, NamedType {
     private final GlobalConfig global;
     private final boolean protect;
     private final DateTime mutableTime;
+    private final long maxItemsPerSecond;
+    private final long maxBytesPerSecond;
 
     private ChannelConfig(String name, String owner, Date creationDate, long ttlDays, long maxItems, String description,
                           Set<String> tags, String replicationSource, String storage, GlobalConfig global,
-                          boolean protect, DateTime mutableTime) {
+                          boolean protect, DateTime mutableTime, long maxItemsPerSecond, long maxBytesPerSecond) {
         this.name = StringUtils.trim(name);
         this.owner = StringUtils.trim(owner);
         this.creationDate = creationDate;
@@ -63,6 +65,8 @@ public class ChannelConfig implements Serializable, NamedType {
         this.tags = tags;
         this.replicationSource = replicationSource;
         this.mutableTime = mutableTime;
+        this.maxItemsPerSecond = maxItemsPerSecond;
+        this.maxBytesPerSecond = maxBytesPerSecond;
 
         if (maxItems == 0 && ttlDays == 0 && mutableTime == null) {
             this.ttlDays = 120;
@@ -132,6 +136,8 @@ public class ChannelConfig implements Serializable, NamedType {
         if (rootNode.has("storage")) builder.storage(getString(rootNode.get("storage")));
         if (rootNode.has("global")) builder.global(GlobalConfig.parseJson(rootNode.get("global")));
         if (rootNode.has("protect")) builder.protect(rootNode.get("protect").asBoolean());
+        if (rootNode.has("maxItemsPerSecond")) builder.maxItemsPerSecond(rootNode.get("maxItemsPerSecond").asLong());
+        if (rootNode.has("maxBytesPerSecond")) builder.maxBytesPerSecond(rootNode.get("maxBytesPerSecond").asLong());
         if (rootNode.has("mutableTime")) {
             builder.mutableTime(HubDateTimeTypeAdapter.deserialize(rootNode.get("mutableTime").asText()));
         }
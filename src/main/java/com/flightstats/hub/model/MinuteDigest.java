@@ -0,0 +1,71 @@
+package com.flightstats.hub.model;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * A MinuteDigest is a compact summary of the keys within a minute, the count plus the sum of the key hashes.
+ * The sum is order independent, so digests can be built incrementally and merged across servers.
+ */
+@Getter
+@EqualsAndHashCode
+public class MinuteDigest {
+
+    private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+    private long count;
+    private long hash;
+
+    public MinuteDigest() {
+        this(0, 0);
+    }
+
+    public MinuteDigest(long count, long hash) {
+        this.count = count;
+        this.hash = hash;
+    }
+
+    public static MinuteDigest of(Collection<ContentKey> keys) {
+        MinuteDigest digest = new MinuteDigest();
+        for (ContentKey key : keys) {
+            digest.add(key);
+        }
+        return digest;
+    }
+
+    public MinuteDigest add(ContentKey key) {
+        return add(key.toUrl());
+    }
+
+    public MinuteDigest add(String keyUrl) {
+        count++;
+        hash += hashFunction.hashString(keyUrl, StandardCharsets.UTF_8).asLong();
+        return this;
+    }
+
+    public MinuteDigest merge(MinuteDigest other) {
+        count += other.count;
+        hash += other.hash;
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public static MinuteDigest fromString(String value) {
+        return new MinuteDigest(Long.parseLong(StringUtils.substringBefore(value, ":")),
+                Long.parseLong(StringUtils.substringAfter(value, ":")));
+    }
+
+    @Override
+    public String toString() {
+        return count + ":" + hash;
+    }
+}
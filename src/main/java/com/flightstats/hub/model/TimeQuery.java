@@ -22,6 +22,7 @@ public class TimeQuery implements Query {
     private final String tagName;
     @Wither
     private final DateTime startTime;
+    @Wither
     private final DateTime endTime;
     private final TimeUtil.Unit unit;
     @Wither
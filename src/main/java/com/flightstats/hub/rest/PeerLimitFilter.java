@@ -0,0 +1,153 @@
+package com.flightstats.hub.rest;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.DataDog;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+import com.timgroup.statsd.StatsDClient;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * PeerLimitFilter limits the concurrent requests to each host and port, so a slow peer can not tie up
+ * an unbounded number of threads and connections.
+ * Requests wait up to Peers.waitMillis for a permit, and permits are held until the response entity is
+ * read to the end or closed.
+ * Requests to app.url are not limited, as the load balancer spreads them over every hub.
+ * Peers is shared by every client which uses it, while each Client needs its own filter.
+ */
+class PeerLimitFilter extends ClientFilter {
+
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    private final Peers peers;
+    private final String appPeer = getAppPeer();
+
+    PeerLimitFilter(Peers peers) {
+        this.peers = peers;
+    }
+
+    @Override
+    public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+        String peer = getPeer(request.getURI());
+        if (peer.equals(appPeer)) {
+            return getNext().handle(request);
+        }
+        Semaphore semaphore = peers.acquire(peer);
+        ClientResponse response;
+        try {
+            response = getNext().handle(request);
+        } catch (RuntimeException e) {
+            semaphore.release();
+            throw e;
+        }
+        if ("HEAD".equals(request.getMethod()) || response.getStatus() == 204 || response.getLength() == 0) {
+            semaphore.release();
+        } else {
+            response.setEntityInputStream(new ReleasingInputStream(response.getEntityInputStream(), semaphore));
+        }
+        return response;
+    }
+
+    private static String getPeer(URI uri) {
+        return uri.getHost() + ":" + uri.getPort();
+    }
+
+    private static String getAppPeer() {
+        try {
+            return getPeer(URI.create(HubProperties.getAppUrl()));
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Releases the permit once, when the entity is read to the end or closed.
+     */
+    private static class ReleasingInputStream extends FilterInputStream {
+        private final Semaphore semaphore;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private ReleasingInputStream(InputStream entity, Semaphore semaphore) {
+            super(entity);
+            this.semaphore = semaphore;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return released(super.read());
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return released(super.read(bytes, offset, length));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                release();
+            }
+        }
+
+        private int released(int read) {
+            if (read == -1) {
+                release();
+            }
+            return read;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                semaphore.release();
+            }
+        }
+    }
+
+    static class Peers {
+        private final int limit;
+        private final long waitMillis;
+        private final Map<String, Semaphore> semaphores = new ConcurrentHashMap<>();
+
+        Peers(int limit, long waitMillis) {
+            this.limit = limit;
+            this.waitMillis = waitMillis;
+        }
+
+        Semaphore acquire(String peer) {
+            Semaphore semaphore = semaphores.computeIfAbsent(peer, name -> new Semaphore(limit));
+            if (!semaphore.tryAcquire()) {
+                long start = System.currentTimeMillis();
+                try {
+                    if (!semaphore.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+                        statsd.increment("http.peer.rejected", "peer:" + peer);
+                        throw new ClientHandlerException("more than " + limit + " requests in flight to " + peer);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ClientHandlerException(e);
+                }
+                statsd.time("http.peer.wait", System.currentTimeMillis() - start, "peer:" + peer);
+            }
+            statsd.gauge("http.peer.inUse", limit - semaphore.availablePermits(), "peer:" + peer);
+            return semaphore;
+        }
+
+        int getInUse(String peer) {
+            Semaphore semaphore = semaphores.get(peer);
+            return semaphore == null ? 0 : limit - semaphore.availablePermits();
+        }
+    }
+}
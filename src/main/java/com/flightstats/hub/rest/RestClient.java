@@ -1,5 +1,6 @@
 package com.flightstats.hub.rest;
 
+import com.flightstats.hub.app.HubProperties;
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.config.ClientConfig;
 import com.sun.jersey.api.client.config.DefaultClientConfig;
@@ -17,13 +18,27 @@ import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.concurrent.TimeUnit;
 
-
+/**
+ * Clients share the JVM's keep-alive pool, which keeps up to http.maxIdleConnections idle connections per host.
+ * Internal clients also share PeerLimitFilter.Peers, which limits concurrent requests to each hub to http.peerLimit.
+ */
 public class RestClient {
 
     private final static Logger logger = LoggerFactory.getLogger(RestClient.class);
+
+    static {
+        System.setProperty("http.keepAlive", "true");
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", Integer.toString(HubProperties.getProperty("http.maxIdleConnections", 50)));
+        }
+    }
+
+    private final static PeerLimitFilter.Peers peers = new PeerLimitFilter.Peers(
+            HubProperties.getProperty("http.peerLimit", 200), HubProperties.getProperty("http.peerWaitMillis", 1000));
     private final static Client client = RestClient.createClient(15, 60, true, false);
     private final static Client gzipClient = RestClient.createClient(15, 60, true, true);
     private final static Client noRedirect = RestClient.createClient(15, 60, false, false);
+    private final static Client internal = RestClient.createInternalClient(15, 60, false);
 
     public static Client defaultClient() {
         return client;
@@ -37,6 +52,19 @@ public class RestClient {
         return gzipClient;
     }
 
+    public static Client internalClient() {
+        return internal;
+    }
+
+    /**
+     * For calls to other hubs, which are limited per peer.
+     */
+    public static Client createInternalClient(int connectTimeout, int readTimeout, boolean gzip) {
+        Client client = createClient(connectTimeout, readTimeout, true, gzip);
+        client.addFilter(new PeerLimitFilter(peers));
+        return client;
+    }
+
     public static Client createClient(int connectTimeout, int readTimeout, boolean followRedirects, boolean gzip) {
         try {
             TrustManager[] certs = new TrustManager[]{
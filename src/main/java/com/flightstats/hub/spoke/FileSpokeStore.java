@@ -1,7 +1,10 @@
 package com.flightstats.hub.spoke;
 
 import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.dao.aws.S3Confirmed;
 import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinuteDigest;
 import com.flightstats.hub.model.MinutePath;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.annotations.VisibleForTesting;
@@ -15,8 +18,12 @@ import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.NotFoundException;
 import java.io.*;
-import java.util.Arrays;
-import java.util.Collection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Direct interactions with the file system
@@ -25,14 +32,42 @@ public class FileSpokeStore {
 
     private final static Logger logger = LoggerFactory.getLogger(FileSpokeStore.class);
     private final String storagePath;
+    private final SpokeGroupCommit groupCommit;
+    private SpokeQuota quota;
 
     public FileSpokeStore() {
-        this(HubProperties.getSpokePath());
+        this(HubProperties.getSpokePath(), HubProperties.getProperty("spoke.durable", false));
+        if (SpokeQuota.isEnabled()) {
+            quota = new SpokeQuota(storagePath, channel -> HubProvider.getInstance(S3Confirmed.class).getLastConfirmed(channel));
+            quota.register();
+        }
+    }
+
+    @VisibleForTesting
+    FileSpokeStore(String storagePath, SpokeQuota quota) {
+        this(storagePath, false);
+        this.quota = quota;
+    }
+
+    /**
+     * @return true if the items are counted against a quota, and expired items should be removed through this store
+     */
+    boolean hasQuota() {
+        return quota != null;
     }
 
     public FileSpokeStore(String storagePath) {
+        this(storagePath, false);
+    }
+
+    /**
+     * @param durable when true, inserts are not acknowledged until they are forced to disk,
+     *                with concurrent inserts grouped into one commit every spoke.durableWindowMillis.
+     */
+    public FileSpokeStore(String storagePath, boolean durable) {
         this.storagePath = StringUtils.appendIfMissing(storagePath, "/");
-        logger.info("starting with storage path " + this.storagePath);
+        logger.info("starting with storage path " + this.storagePath + " durable " + durable);
+        groupCommit = durable ? new SpokeGroupCommit(HubProperties.getProperty("spoke.durableWindowMillis", 2)) : null;
         if (!insert("hub-startup/" + new ContentKey().toUrl(), ("" + System.currentTimeMillis()).getBytes())) {
             throw new RuntimeException("unable to create startup file");
         }
@@ -48,11 +83,21 @@ public class FileSpokeStore {
 
     public boolean insert(String path, InputStream input) {
         File file = spokeFilePathPart(path);
+        List<File> createdDirectories = groupCommit == null ? Collections.emptyList() : getMissingDirectories(file);
         logger.trace("insert {} {} {}", file, file.getParentFile().mkdirs(), file.canExecute());
+        long previous = file.length();
         try (FileOutputStream output = new FileOutputStream(file)) {
             long copy = ByteStreams.copy(input, output);
             boolean setExecutable = file.setExecutable(true);
             logger.trace("copied {} {} {}", file, copy, setExecutable);
+            if (quota != null) {
+                quota.add(path, copy - previous);
+            }
+            if (groupCommit != null) {
+                List<File> directories = new ArrayList<>(createdDirectories);
+                directories.add(file.getParentFile());
+                return groupCommit.commit(output.getChannel(), directories);
+            }
             return true;
         } catch (IOException e) {
             logger.info("unable to write to " + path, e);
@@ -60,6 +105,21 @@ public class FileSpokeStore {
         }
     }
 
+    /**
+     * Returns the directories which need to be synced if the file's parents are created, nearest the root first.
+     */
+    private List<File> getMissingDirectories(File file) {
+        LinkedList<File> missing = new LinkedList<>();
+        File parent = file.getParentFile();
+        while (parent != null && !parent.exists()) {
+            parent = parent.getParentFile();
+            if (parent != null) {
+                missing.addFirst(parent);
+            }
+        }
+        return missing;
+    }
+
     public byte[] read(String path) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         read(path, baos);
@@ -97,11 +157,20 @@ public class FileSpokeStore {
 
     public boolean delete(String path) throws Exception {
         FileUtils.deleteDirectory(new File(storagePath + path));
+        if (quota != null && !StringUtils.contains(path, "/")) {
+            quota.removeChannel(path);
+        }
         return true;
     }
 
     public boolean deleteFile(String path) throws Exception {
-        return FileUtils.deleteQuietly(spokeFilePathPart(path));
+        File file = spokeFilePathPart(path);
+        long length = file.length();
+        boolean deleted = FileUtils.deleteQuietly(file);
+        if (deleted && quota != null) {
+            quota.add(path, -length);
+        }
+        return deleted;
     }
 
     // given a url containing a key, return the file format
@@ -256,6 +325,26 @@ public class FileSpokeStore {
         } while (found < count && minutePath.getTime().isBefore(now));
     }
 
+    /**
+     * Writes one line per minute, "minutePath count:hash", for the minutes starting at startMinute.
+     */
+    public void writeDigests(String channel, String startMinute, int minutes, OutputStream output) throws IOException {
+        String channelPath = storagePath + channel + "/";
+        MinutePath minutePath = MinutePath.fromUrl(startMinute).get();
+        for (int i = 0; i < minutes; i++) {
+            String minuteUrl = minutePath.toUrl();
+            MinuteDigest digest = new MinuteDigest();
+            String[] items = new File(channelPath + minuteUrl).list();
+            if (items != null) {
+                for (String item : items) {
+                    digest.add(spokeKeyFromPath(minuteUrl + "/" + item));
+                }
+            }
+            output.write((minuteUrl + " " + digest + "\n").getBytes(StandardCharsets.UTF_8));
+            minutePath = minutePath.addMinute();
+        }
+    }
+
     void enforceTtl(String channel, DateTime dateTime) {
         String limitPath = TimeUtil.minutes(dateTime);
         logger.debug("enforceTtl {} {}", channel, limitPath);
@@ -277,14 +366,55 @@ public class FileSpokeStore {
             limitCompare += limitPath[i] + "/";
         }
         for (String item : items) {
-            logger.info("looking at {} {}", item, limitCompare);
+            logger.trace("looking at {} {}", item, limitCompare);
             String current = path + "/" + item + "/";
             if (current.compareTo(limitCompare) <= 0) {
                 if (count < 4) {
                     recurseDelete(path + "/" + item, limitPath, count + 1, channel);
+                    if (current.compareTo(limitCompare) < 0) {
+                        //only succeeds once the directory is empty
+                        new File(storagePath + current).delete();
+                    }
                 } else {
                     logger.info("deleting {}", storagePath + "/" + current);
                     FileUtils.deleteQuietly(new File(storagePath + "/" + current));
+                    if (quota != null) {
+                        quota.removeMinute(channel, StringUtils.removeStart(path + "/" + item, channel + "/"));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the channel's files and empty directories last modified before modifiedBefore, like find -mmin -delete.
+     */
+    void enforceModifiedTtl(String channel, long modifiedBefore) {
+        File channelDirectory = new File(storagePath + channel);
+        if (!channelDirectory.exists()) {
+            return;
+        }
+        Path rootPath = new File(storagePath).toPath();
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(channelDirectory.toPath())) {
+            //modified times are read before deleting, as deletes update the parent directory
+            paths = walk.filter(path -> !path.equals(channelDirectory.toPath()))
+                    .filter(path -> path.toFile().lastModified() < modifiedBefore)
+                    .sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("unable to walk " + channelDirectory, e);
+            return;
+        }
+        for (Path path : paths) {
+            File file = path.toFile();
+            String relative = rootPath.relativize(path).toString();
+            long length = file.isFile() ? file.length() : 0;
+            if (file.delete() && quota != null) {
+                if (length > 0) {
+                    quota.add(relative, -length);
+                } else if (StringUtils.split(relative, "/").length == 6) {
+                    quota.removeMinute(channel, StringUtils.removeStart(relative, channel + "/"));
                 }
             }
         }
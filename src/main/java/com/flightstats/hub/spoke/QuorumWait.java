@@ -0,0 +1,39 @@
+package com.flightstats.hub.spoke;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QuorumWait releases a waiting caller as soon as enough servers have answered successfully,
+ * or every server has completed, whichever comes first.
+ */
+class QuorumWait {
+
+    private final int servers;
+    private final int needed;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private int successes;
+    private int completions;
+
+    QuorumWait(int servers, int needed) {
+        this.servers = servers;
+        this.needed = needed;
+        if (servers == 0) {
+            done.countDown();
+        }
+    }
+
+    synchronized void completed(boolean success) {
+        completions++;
+        if (success) {
+            successes++;
+        }
+        if (successes >= needed || completions >= servers) {
+            done.countDown();
+        }
+    }
+
+    boolean await(long millis) throws InterruptedException {
+        return done.await(millis, TimeUnit.MILLISECONDS);
+    }
+}
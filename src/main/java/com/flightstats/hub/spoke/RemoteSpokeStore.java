@@ -9,12 +9,16 @@ import com.flightstats.hub.dao.ContentMarshaller;
 import com.flightstats.hub.dao.QueryResult;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.metrics.LatencyRecorder;
 import com.flightstats.hub.metrics.MetricsSender;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinuteDigest;
+import com.flightstats.hub.model.MinutePath;
 import com.flightstats.hub.rest.RestClient;
 import com.flightstats.hub.util.HubUtils;
+import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
@@ -27,30 +31,37 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.core.StreamingOutput;
 import java.net.ConnectException;
 import java.net.UnknownHostException;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 @SuppressWarnings({"Convert2streamapi", "Convert2Lambda"})
 public class RemoteSpokeStore {
 
     private final static Logger logger = LoggerFactory.getLogger(RemoteSpokeStore.class);
 
-    private final static Client write_client = RestClient.createClient(1, 5, true, false);
-    private final static Client query_client = RestClient.createClient(5, 15, true, true);
+    private final static Client write_client = RestClient.createInternalClient(1, 5, false);
+    private final static Client query_client = RestClient.createInternalClient(5, 15, true);
+    private final static Client bulk_client = createBulkClient();
 
     private final CuratorCluster cluster;
     private final MetricsSender sender;
     private final ExecutorService executorService;
     private final int stableSeconds = HubProperties.getProperty("app.stable_seconds", 5);
+    private final boolean readRepair = HubProperties.getProperty("spoke.readRepair", true);
+    private final boolean queryQuorum = HubProperties.getProperty("spoke.queryQuorum", false);
+    private final SpokeQueryDeadline keysDeadline = new SpokeQueryDeadline();
+    private final SpokeQueryDeadline latestDeadline = new SpokeQueryDeadline();
     private final static StatsDClient statsd = DataDog.statsd;
 
     @Inject
@@ -72,7 +83,7 @@ public class RemoteSpokeStore {
                 public void run() {
                     try {
                         ContentKey key = new ContentKey();
-                        if (insert(path + key.toUrl(), key.toUrl().getBytes(), server, traces, "payload")) {
+                        if (insert(path + key.toUrl(), key.toUrl().getBytes(), write_client, server, traces, "payload")) {
                             quorumLatch.countDown();
                         } else {
                             traces.log(logger);
@@ -100,9 +111,10 @@ public class RemoteSpokeStore {
         logger.info("*********************************************");
         String path = HubHost.getLocalAddressPort();
         for (String server : servers) {
+            ClientResponse response = null;
             try {
                 logger.info("calling server {} path {}", server, path);
-                ClientResponse response = query_client.resource(HubHost.getScheme() + server + "/internal/spoke/test/" + path)
+                response = query_client.resource(HubHost.getScheme() + server + "/internal/spoke/test/" + path)
                         .get(ClientResponse.class);
                 if (response.getStatus() == 200) {
                     logger.info("success calling {}", response);
@@ -115,17 +127,33 @@ public class RemoteSpokeStore {
             } catch (Exception e) {
                 logger.warn("unable to test " + path + " with " + server, e);
                 return false;
+            } finally {
+                HubUtils.close(response);
             }
         }
         logger.info("all startup tests succeeded  " + path);
         return true;
     }
 
+    private static Client createBulkClient() {
+        Client client = RestClient.createInternalClient(1, 5, false);
+        client.setChunkedEncodingSize(HubProperties.getProperty("spoke.bulkChunkBytes", 64 * 1024));
+        return client;
+    }
+
     public boolean insert(String path, byte[] payload, String spokeApi) throws InterruptedException {
-        return insert(path, payload, cluster.getServers(), ActiveTraces.getLocal(), spokeApi);
+        return insert(path, payload, write_client, cluster.getServers(), ActiveTraces.getLocal(), spokeApi);
     }
 
-    private boolean insert(final String path, final byte[] payload, Collection<String> servers, final Traces traces, final String spokeApi) throws InterruptedException {
+    /**
+     * Streams the output to each server with chunked encoding, so the payload is never held in memory as a whole.
+     */
+    public boolean insertStream(String path, StreamingOutput output, String spokeApi) throws InterruptedException {
+        return insert(path, output, bulk_client, cluster.getServers(), ActiveTraces.getLocal(), spokeApi);
+    }
+
+    private boolean insert(final String path, final Object payload, Client client, Collection<String> servers,
+                           final Traces traces, final String spokeApi) throws InterruptedException {
         int quorum = getQuorum(servers.size());
         CountDownLatch quorumLatch = new CountDownLatch(quorum);
         AtomicBoolean reported = new AtomicBoolean();
@@ -138,7 +166,7 @@ public class RemoteSpokeStore {
                     traces.add(uri);
                     ClientResponse response = null;
                     try {
-                        response = write_client.resource(uri).put(ClientResponse.class, payload);
+                        response = client.resource(uri).put(ClientResponse.class, payload);
                         long complete = System.currentTimeMillis();
                         traces.add(server, response.getEntity(String.class));
                         if (response.getStatus() == 201) {
@@ -167,6 +195,7 @@ public class RemoteSpokeStore {
         long time = System.currentTimeMillis() - traces.getStart();
         statsd.time("consistent", time);
         sender.send("consistent", time);
+        LatencyRecorder.record("spoke.write." + spokeApi, time);
         return quorumLatch.getCount() != quorum;
     }
 
@@ -186,6 +215,7 @@ public class RemoteSpokeStore {
 
     public Content get(String path, ContentKey key) {
         Collection<String> servers = cluster.getRandomServers();
+        List<String> missed = new ArrayList<>();
         for (String server : servers) {
             ClientResponse response = null;
             try {
@@ -196,8 +226,12 @@ public class RemoteSpokeStore {
                 if (response.getStatus() == 200) {
                     byte[] entity = response.getEntity(byte[].class);
                     if (entity.length > 0) {
+                        readRepair(path, key, entity, missed);
                         return ContentMarshaller.toContent(entity, key);
                     }
+                    missed.add(server);
+                } else if (response.getStatus() == 404) {
+                    missed.add(server);
                 }
             } catch (JsonMappingException e) {
                 logger.info("JsonMappingException for " + path);
@@ -217,6 +251,77 @@ public class RemoteSpokeStore {
         return null;
     }
 
+    /**
+     * Copies the payload to servers which were missing a stable item.
+     */
+    private void readRepair(String path, ContentKey key, byte[] payload, List<String> missed) {
+        if (!readRepair || missed.isEmpty() || key.getTime().isAfter(TimeUtil.stable())) {
+            return;
+        }
+        logger.info("read repair {} to {}", path, missed);
+        statsd.increment("spoke.readRepair");
+        executorService.submit(() -> repair(path, payload, missed));
+    }
+
+    /**
+     * Writes the payload to the specified servers.
+     * Repairs are timed separately from inserts, so they do not skew the heisenberg, consistent or spoke.write metrics.
+     *
+     * @return true if any of the servers accepted the write
+     */
+    boolean repair(String path, byte[] payload, Collection<String> servers) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        CountDownLatch latch = new CountDownLatch(servers.size());
+        AtomicInteger written = new AtomicInteger();
+        for (final String server : servers) {
+            executorService.submit(() -> {
+                setThread(path);
+                ClientResponse response = null;
+                try {
+                    response = write_client.resource(HubHost.getScheme() + server + "/internal/spoke/payload/" + path)
+                            .put(ClientResponse.class, payload);
+                    if (response.getStatus() == 201) {
+                        written.incrementAndGet();
+                    } else {
+                        logger.info("repair failed: server {} path {} response {}", server, path, response);
+                    }
+                } catch (Exception e) {
+                    logger.warn("repair failed: " + server + " " + path, e);
+                } finally {
+                    HubUtils.close(response);
+                    resetThread();
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await(stableSeconds, TimeUnit.SECONDS);
+        statsd.time("spoke.repair.write", System.currentTimeMillis() - start);
+        statsd.count("spoke.repair.servers", written.get());
+        return written.get() > 0;
+    }
+
+    /**
+     * @return the raw payload from a single server, or null if that server does not have it.
+     */
+    byte[] getPayload(String server, String path) {
+        ClientResponse response = null;
+        try {
+            response = query_client.resource(HubHost.getScheme() + server + "/internal/spoke/payload/" + path)
+                    .get(ClientResponse.class);
+            if (response.getStatus() == 200) {
+                byte[] entity = response.getEntity(byte[].class);
+                if (entity.length > 0) {
+                    return entity;
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("unable to get payload " + server + " " + path, e);
+        } finally {
+            HubUtils.close(response);
+        }
+        return null;
+    }
+
     QueryResult readTimeBucket(String channel, String timePath) throws InterruptedException {
         return getKeys("/internal/spoke/time/" + channel + "/" + timePath);
     }
@@ -228,16 +333,20 @@ public class RemoteSpokeStore {
     private QueryResult getKeys(final String path) throws InterruptedException {
         Traces traces = ActiveTraces.getLocal();
         Collection<String> servers = cluster.getServers();
-        CountDownLatch countDownLatch = new CountDownLatch(servers.size());
+        int needed = queryQuorum ? SpokeQueryDeadline.getReadQuorum(servers.size()) : servers.size();
+        QuorumWait quorumWait = new QuorumWait(servers.size(), needed);
         QueryResult queryResult = new QueryResult(servers.size());
+        List<Future<?>> futures = new ArrayList<>();
         for (final String server : servers) {
-            executorService.submit(new Runnable() {
+            futures.add(executorService.submit(new Runnable() {
                 @Override
                 public void run() {
                     ClientResponse response = null;
+                    boolean success = false;
                     try {
                         setThread(path);
                         traces.add("spoke calling", server, path);
+                        long start = System.currentTimeMillis();
                         response = query_client.resource(HubHost.getScheme() + server + path).get(ClientResponse.class);
                         traces.add("spoke server response", server, response);
                         if (response.getStatus() == 200) {
@@ -246,6 +355,8 @@ public class RemoteSpokeStore {
                             ContentKeyUtil.convertKeyStrings(keysString, keySet);
                             traces.add(server, keySet);
                             queryResult.addKeys(keySet);
+                            keysDeadline.record(System.currentTimeMillis() - start);
+                            success = true;
                         }
                     } catch (ClientHandlerException e) {
                         if (e.getCause() != null && e.getCause() instanceof ConnectException) {
@@ -257,6 +368,77 @@ public class RemoteSpokeStore {
                     } catch (Exception e) {
                         logger.warn("unable to handle " + server + " " + path, e);
                         traces.add("unable to handle ", server, path, e);
+                    } finally {
+                        HubUtils.close(response);
+                        resetThread();
+                        quorumWait.completed(success);
+                    }
+                }
+            }));
+        }
+        long maxMillis = TimeUnit.SECONDS.toMillis(20);
+        quorumWait.await(queryQuorum ? keysDeadline.getDeadlineMillis(maxMillis) : maxMillis);
+        queryResult.close();
+        if (queryQuorum) {
+            futures.forEach(future -> future.cancel(true));
+        }
+        return queryResult;
+    }
+
+    /**
+     * Returns the digests for each minute where every responding Spoke server agrees.
+     * Minutes which are missing from the result need to be compared by keys.
+     */
+    public SortedMap<MinutePath, MinuteDigest> getDigests(String channel, MinutePath startPath, int minutes) throws InterruptedException {
+        return agreedDigests(new ArrayList<>(getServerDigests(channel, startPath, minutes).values()));
+    }
+
+    /**
+     * Returns the digests from each responding Spoke server, keyed by server.
+     */
+    Map<String, Map<MinutePath, MinuteDigest>> getServerDigests(String channel, MinutePath startPath, int minutes) throws InterruptedException {
+        String path = "/internal/spoke/digest/" + channel + "/" + minutes + "/" + startPath.toUrl();
+        return callServers(path, entity -> {
+            Map<MinutePath, MinuteDigest> digests = new HashMap<>();
+            for (String line : StringUtils.split(entity, "\n")) {
+                String[] split = StringUtils.split(line, " ");
+                digests.put(MinutePath.fromUrl(split[0]).get(), MinuteDigest.fromString(split[1]));
+            }
+            return digests;
+        });
+    }
+
+    /**
+     * Returns the keys in the minute from each responding Spoke server, keyed by server.
+     */
+    Map<String, SortedSet<ContentKey>> getServerKeys(String channel, MinutePath minutePath) throws InterruptedException {
+        return callServers("/internal/spoke/time/" + channel + "/" + minutePath.toUrl(), entity -> {
+            SortedSet<ContentKey> keys = new TreeSet<>();
+            ContentKeyUtil.convertKeyStrings(entity, keys);
+            return keys;
+        });
+    }
+
+    private <T> Map<String, T> callServers(String path, Function<String, T> parser) throws InterruptedException {
+        Traces traces = ActiveTraces.getLocal();
+        Collection<String> servers = cluster.getServers();
+        CountDownLatch countDownLatch = new CountDownLatch(servers.size());
+        Map<String, T> responses = new ConcurrentHashMap<>();
+        for (final String server : servers) {
+            executorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    ClientResponse response = null;
+                    try {
+                        setThread(path);
+                        response = query_client.resource(HubHost.getScheme() + server + path).get(ClientResponse.class);
+                        traces.add("spoke server response", server, response);
+                        if (response.getStatus() == 200) {
+                            responses.put(server, parser.apply(response.getEntity(String.class)));
+                        }
+                    } catch (Exception e) {
+                        logger.warn("unable to call " + server + " " + path, e);
+                        traces.add("unable to call ", server, path, e);
                     } finally {
                         HubUtils.close(response);
                         resetThread();
@@ -266,21 +448,42 @@ public class RemoteSpokeStore {
             });
         }
         countDownLatch.await(20, TimeUnit.SECONDS);
-        return queryResult;
+        return new HashMap<>(responses);
+    }
+
+    static SortedMap<MinutePath, MinuteDigest> agreedDigests(List<Map<MinutePath, MinuteDigest>> responses) {
+        SortedMap<MinutePath, MinuteDigest> agreed = new TreeMap<>();
+        if (responses.isEmpty()) {
+            return agreed;
+        }
+        for (Map.Entry<MinutePath, MinuteDigest> entry : responses.get(0).entrySet()) {
+            boolean matches = true;
+            for (Map<MinutePath, MinuteDigest> response : responses) {
+                matches &= entry.getValue().equals(response.get(entry.getKey()));
+            }
+            if (matches) {
+                agreed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return agreed;
     }
 
     public Optional<ContentKey> getLatest(String channel, String path, Traces traces) throws InterruptedException {
         Collection<String> servers = cluster.getServers();
-        CountDownLatch countDownLatch = new CountDownLatch(servers.size());
+        int needed = queryQuorum ? SpokeQueryDeadline.getReadQuorum(servers.size()) : servers.size();
+        QuorumWait quorumWait = new QuorumWait(servers.size(), needed);
         SortedSet<ContentKey> orderedKeys = Collections.synchronizedSortedSet(new TreeSet<>());
+        List<Future<?>> futures = new ArrayList<>();
         for (final String server : servers) {
-            executorService.submit(new Runnable() {
+            futures.add(executorService.submit(new Runnable() {
                 @Override
                 public void run() {
                     ClientResponse response = null;
+                    boolean success = false;
                     try {
                         setThread(path);
                         traces.add("spoke calling", server, channel);
+                        long start = System.currentTimeMillis();
                         response = query_client.resource(HubHost.getScheme() + server + "/internal/spoke/latest/" + path)
                                 .get(ClientResponse.class);
                         traces.add("spoke server response", server, response);
@@ -291,6 +494,10 @@ public class RemoteSpokeStore {
                             }
                             traces.add(server, key);
                         }
+                        if (response.getStatus() == 200 || response.getStatus() == 404) {
+                            latestDeadline.record(System.currentTimeMillis() - start);
+                            success = true;
+                        }
                     } catch (ClientHandlerException e) {
                         if (e.getCause() != null && e.getCause() instanceof ConnectException) {
                             logger.warn("connection exception " + server);
@@ -304,12 +511,16 @@ public class RemoteSpokeStore {
                     } finally {
                         HubUtils.close(response);
                         resetThread();
-                        countDownLatch.countDown();
+                        quorumWait.completed(success);
                     }
                 }
-            });
+            }));
+        }
+        long maxMillis = TimeUnit.SECONDS.toMillis(5);
+        quorumWait.await(queryQuorum ? latestDeadline.getDeadlineMillis(maxMillis) : maxMillis);
+        if (queryQuorum) {
+            futures.forEach(future -> future.cancel(true));
         }
-        countDownLatch.await(5, TimeUnit.SECONDS);
         if (orderedKeys.isEmpty()) {
             return Optional.absent();
         }
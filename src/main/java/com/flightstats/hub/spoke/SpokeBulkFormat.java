@@ -0,0 +1,142 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.model.Content;
+import com.google.common.io.ByteStreams;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * SpokeBulkFormat is the streaming wire format for bulk writes between Spoke servers.
+ * <p>
+ * Each item is an int key length, the key bytes, an int data length and the data bytes.
+ * The stream ends with a key length of -1, so a truncated stream can be told apart from a complete one.
+ * Items are written and read one at a time, so neither end needs to hold the whole batch.
+ */
+class SpokeBulkFormat {
+
+    private static final int END = -1;
+
+    interface ItemConsumer {
+        /**
+         * @return false to stop reading
+         */
+        boolean accept(String key, InputStream data) throws IOException;
+    }
+
+    static void write(Collection<Content> items, OutputStream outputStream) throws IOException {
+        write(items, newPackaged(), outputStream);
+    }
+
+    /**
+     * @return the set to share between concurrent writes of the same items, tracking which are packaged
+     */
+    static Set<Content> newPackaged() {
+        return Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    /**
+     * Write items, packaging each with {@link Content#packageStream()} as it is reached.
+     * When several servers are written concurrently with the same packaged set, the first writer to reach
+     * an item packages it for the rest.
+     */
+    static void write(Collection<Content> items, Set<Content> packaged, OutputStream outputStream) throws IOException {
+        DataOutputStream output = new DataOutputStream(outputStream);
+        for (Content content : items) {
+            byte[] key = content.getContentKey().get().toUrl().getBytes(StandardCharsets.UTF_8);
+            output.writeInt(key.length);
+            output.write(key);
+            byte[] data = getPackaged(content, packaged);
+            output.writeInt(data.length);
+            output.write(data);
+        }
+        output.writeInt(END);
+        output.flush();
+    }
+
+    private static byte[] getPackaged(Content content, Set<Content> packaged) throws IOException {
+        synchronized (content) {
+            if (packaged.add(content)) {
+                content.packageStream();
+            }
+            return content.getData();
+        }
+    }
+
+    /**
+     * Read each item in turn, passing the consumer a stream of exactly that item's data.
+     *
+     * @return the number of items read, or -1 if the consumer stopped early
+     * @throws EOFException if the stream ends before the end marker
+     */
+    static int read(InputStream inputStream, ItemConsumer consumer) throws IOException {
+        DataInputStream input = new DataInputStream(inputStream);
+        int count = 0;
+        int keyLength = input.readInt();
+        while (keyLength != END) {
+            byte[] key = new byte[keyLength];
+            input.readFully(key);
+            int dataLength = input.readInt();
+            ExactInputStream data = new ExactInputStream(ByteStreams.limit(input, dataLength), dataLength);
+            if (!consumer.accept(new String(key, StandardCharsets.UTF_8), data)) {
+                return -1;
+            }
+            data.skipRemaining();
+            count++;
+            keyLength = input.readInt();
+        }
+        return count;
+    }
+
+    /**
+     * Throws an EOFException, rather than returning -1, if the underlying stream ends early.
+     */
+    private static class ExactInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        ExactInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int read = super.read();
+            if (read < 0) {
+                throw new EOFException("expected " + remaining + " more bytes");
+            }
+            remaining--;
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int read = super.read(b, off, len);
+            if (read < 0) {
+                throw new EOFException("expected " + remaining + " more bytes");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        void skipRemaining() throws IOException {
+            ByteStreams.exhaust(this);
+        }
+
+        @Override
+        public void close() throws IOException {
+            //the underlying stream holds the rest of the items
+        }
+    }
+}
@@ -31,6 +31,7 @@ public class SpokeContentDao implements ContentDao {
 
     private final static Logger logger = LoggerFactory.getLogger(SpokeContentDao.class);
 
+    private final boolean streamBulk = HubProperties.getProperty("spoke.streamBulk", true);
     @Inject
     private RemoteSpokeStore spokeStore;
 
@@ -50,6 +51,9 @@ public class SpokeContentDao implements ContentDao {
         traces.add("SpokeContentDao.writeBulk");
         String channelName = bulkContent.getChannel();
         try {
+            if (streamBulk) {
+                return insertStream(bulkContent, traces);
+            }
             SortedSet<ContentKey> keys = new TreeSet<>();
             List<Content> items = bulkContent.getItems();
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -84,6 +88,22 @@ public class SpokeContentDao implements ContentDao {
         }
     }
 
+    private SortedSet<ContentKey> insertStream(BulkContent bulkContent, Traces traces) throws Exception {
+        String channelName = bulkContent.getChannel();
+        SortedSet<ContentKey> keys = new TreeSet<>();
+        List<Content> items = bulkContent.getItems();
+        logger.debug("streaming {} items to master {}", items.size(), bulkContent.getMasterKey());
+        for (Content content : items) {
+            keys.add(content.getContentKey().get());
+        }
+        Set<Content> packaged = SpokeBulkFormat.newPackaged();
+        if (!spokeStore.insertStream(channelName, output -> SpokeBulkFormat.write(items, packaged, output), "bulk")) {
+            throw new FailedWriteException("unable to write bulk to spoke " + channelName);
+        }
+        traces.add("SpokeContentDao.writeBulk completed", keys);
+        return keys;
+    }
+
     private String getPath(String channelName, ContentKey key) {
         return channelName + "/" + key.toUrl();
     }
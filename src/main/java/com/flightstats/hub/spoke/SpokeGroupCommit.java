@@ -0,0 +1,110 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.util.RuntimeInterruptedException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * SpokeGroupCommit makes written files durable in batches.
+ * <p>
+ * Each writer forces its own file on its own thread, so file syncs run in parallel,
+ * then hands over the file's directories and blocks until they have been synced.
+ * A single committer thread waits windowMillis after the first writer arrives, then syncs each affected
+ * directory once, before releasing all of the waiting writers together.
+ */
+class SpokeGroupCommit {
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokeGroupCommit.class);
+
+    private final long windowMillis;
+    private final BlockingQueue<Commit> queue = new LinkedBlockingQueue<>();
+
+    SpokeGroupCommit(long windowMillis) {
+        this.windowMillis = windowMillis;
+        Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("SpokeGroupCommit-%d").setDaemon(true).build())
+                .submit(() -> {
+                    while (true) {
+                        try {
+                            commitBatch();
+                        } catch (InterruptedException e) {
+                            logger.info("exiting group commit");
+                            return;
+                        } catch (Exception e) {
+                            logger.warn("unexpected group commit issue", e);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Blocks until the channel, and the directories holding the file, have been forced to disk.
+     *
+     * @param directories the file's parent, plus any parents created for this file
+     * @return true if the file is durable
+     */
+    boolean commit(FileChannel channel, Collection<File> directories) {
+        try {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.warn("unable to force file", e);
+            return false;
+        }
+        Commit commit = new Commit(directories);
+        queue.add(commit);
+        try {
+            return commit.future.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeInterruptedException(e);
+        } catch (ExecutionException e) {
+            logger.warn("unable to commit", e);
+            return false;
+        }
+    }
+
+    private void commitBatch() throws InterruptedException {
+        Commit first = queue.take();
+        Thread.sleep(windowMillis);
+        List<Commit> batch = new ArrayList<>();
+        batch.add(first);
+        queue.drainTo(batch);
+        Set<File> directories = new LinkedHashSet<>();
+        for (Commit commit : batch) {
+            directories.addAll(commit.directories);
+        }
+        boolean directoriesSynced = true;
+        for (File directory : directories) {
+            directoriesSynced &= syncDirectory(directory);
+        }
+        for (Commit commit : batch) {
+            commit.future.complete(directoriesSynced);
+        }
+        logger.trace("committed {} files {} directories", batch.size(), directories.size());
+    }
+
+    private static boolean syncDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+            return true;
+        } catch (IOException e) {
+            logger.warn("unable to sync directory " + directory, e);
+            return false;
+        }
+    }
+
+    private static class Commit {
+        private final Collection<File> directories;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        private Commit(Collection<File> directories) {
+            this.directories = directories;
+        }
+    }
+}
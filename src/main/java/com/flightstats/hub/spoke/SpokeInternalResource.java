@@ -102,6 +102,34 @@ public class SpokeInternalResource {
         }
     }
 
+    @Path("/bulk/{channel}")
+    @PUT
+    public Response putBulkStream(@PathParam("channel") String channel, InputStream input) {
+        long start = System.currentTimeMillis();
+        try {
+            int items = SpokeBulkFormat.read(new BufferedInputStream(input),
+                    (key, data) -> spokeStore.insert(channel + "/" + key, data));
+            if (items < 0) {
+                logger.warn("unable to write bulk item {}", channel);
+                return Response
+                        .status(Response.Status.INTERNAL_SERVER_ERROR)
+                        .entity(new SingleTrace("failed", start).toString())
+                        .build();
+            }
+            long end = System.currentTimeMillis();
+            if ((end - start) > 4000) {
+                logger.info("slow bulk write response {} {} items {}", channel, new DateTime(start), items);
+            }
+            return Response
+                    .created(uriInfo.getRequestUri())
+                    .entity(new SingleTrace("success", start).toString())
+                    .build();
+        } catch (Exception e) {
+            logger.warn("unable to write " + channel, e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     private byte[] readByesFully(ObjectInputStream stream) throws IOException {
         int size = stream.readInt();
         byte[] data = new byte[size];
@@ -200,6 +228,23 @@ public class SpokeInternalResource {
         return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
     }
 
+    @Path("/digest/{channel}/{minutes}/{startMinute:.+}")
+    @GET
+    public Response getDigests(@PathParam("channel") String channel, @PathParam("minutes") int minutes,
+                               @PathParam("startMinute") String startMinute) {
+        try {
+            Response.ResponseBuilder builder = Response.ok((StreamingOutput) os -> {
+                BufferedOutputStream output = new BufferedOutputStream(os);
+                spokeStore.writeDigests(channel, startMinute, minutes, output);
+                output.flush();
+            });
+            return builder.build();
+        } catch (Exception e) {
+            logger.warn("unable to get digests " + channel + " " + startMinute, e);
+        }
+        return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+    }
+
     @Path("/test/{server}")
     @GET
     public Response test(@PathParam("server") String server) {
@@ -0,0 +1,48 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+
+import java.util.Arrays;
+
+/**
+ * SpokeQueryDeadline tracks recent Spoke response times for a type of query,
+ * and derives how long a caller should wait for a quorum of servers to answer.
+ * <p>
+ * The deadline is spoke.queryDeadlineMultiplier times the recent p99, bounded by spoke.queryMinDeadlineMillis
+ * and the query's maximum wait.  Until enough samples have been seen, the maximum wait is used.
+ */
+class SpokeQueryDeadline {
+
+    private static final int SAMPLES = 200;
+    private static final int MIN_SAMPLES = 20;
+
+    private final double multiplier = HubProperties.getProperty("spoke.queryDeadlineMultiplier", 3.0);
+    private final long minMillis = HubProperties.getProperty("spoke.queryMinDeadlineMillis", 250);
+    private final long[] latencies = new long[SAMPLES];
+    private int index;
+    private int count;
+
+    synchronized void record(long millis) {
+        latencies[index] = millis;
+        index = (index + 1) % SAMPLES;
+        count = Math.min(SAMPLES, count + 1);
+    }
+
+    synchronized long getDeadlineMillis(long maxMillis) {
+        if (count < MIN_SAMPLES) {
+            return maxMillis;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        long p99 = sorted[(int) Math.ceil(count * 0.99) - 1];
+        long deadline = (long) (p99 * multiplier);
+        return Math.min(maxMillis, Math.max(minMillis, deadline));
+    }
+
+    /**
+     * The number of servers a read needs to hear from to overlap with every write quorum.
+     */
+    static int getReadQuorum(int servers) {
+        return Math.max(1, servers - RemoteSpokeStore.getQuorum(servers) + 1);
+    }
+}
@@ -0,0 +1,276 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.rest.RestClient;
+import com.flightstats.hub.util.HubUtils;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.sun.jersey.api.client.ClientResponse;
+import com.timgroup.statsd.Event;
+import com.timgroup.statsd.StatsDClient;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * SpokeQuota tracks the bytes stored by Spoke per channel and minute, updated as items are inserted and deleted.
+ * <p>
+ * When the node exceeds spoke.quotaMB, or a channel exceeds spoke.channelQuotaMB, the oldest minutes are evicted
+ * until usage is back under spoke.quotaLowWaterRatio of the quota.  Before evicting, affected channels are sent
+ * to the S3Verifier, so any items not yet in S3 are queued early.
+ * Only closed minutes which are confirmed in long term storage are evicted.  Queued items do not confirm a minute,
+ * it is confirmed once a later verification finds all of its items in S3.  A channel with nothing left to evict
+ * stays over quota, and raises an alert.
+ * The SpokeTtlEnforcer removes expired minutes through FileSpokeStore, which updates the counts directly.
+ * The quota is only created when enabled.
+ */
+class SpokeQuota {
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokeQuota.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+    private static final long MB = 1024 * 1024;
+
+    private final String storagePath;
+    private final long quotaBytes = HubProperties.getProperty("spoke.quotaMB", 0) * MB;
+    private final long channelQuotaBytes = HubProperties.getProperty("spoke.channelQuotaMB", 0) * MB;
+    private final double lowWaterRatio = HubProperties.getProperty("spoke.quotaLowWaterRatio", 0.9);
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final Map<String, ConcurrentNavigableMap<String, AtomicLong>> channels = new ConcurrentHashMap<>();
+    private final Function<String, MinutePath> confirmed;
+
+    /**
+     * @param confirmed returns the latest minute of a channel confirmed in long term storage, or null
+     */
+    SpokeQuota(String storagePath, Function<String, MinutePath> confirmed) {
+        this.storagePath = storagePath;
+        this.confirmed = confirmed;
+    }
+
+    /**
+     * @return true if either spoke.quotaMB or spoke.channelQuotaMB is set, so minutes may be evicted
+     */
+    static boolean isEnabled() {
+        return HubProperties.getProperty("spoke.quotaMB", 0) > 0 || HubProperties.getProperty("spoke.channelQuotaMB", 0) > 0;
+    }
+
+    void register() {
+        HubServices.register(new SpokeQuotaService());
+    }
+
+    void add(String path, long bytes) {
+        String[] split = StringUtils.split(path, "/");
+        if (split.length < 6 || bytes == 0) {
+            return;
+        }
+        String minute = split[1] + "/" + split[2] + "/" + split[3] + "/" + split[4] + "/" + split[5];
+        channels.computeIfAbsent(split[0], name -> new ConcurrentSkipListMap<>())
+                .computeIfAbsent(minute, key -> new AtomicLong())
+                .addAndGet(bytes);
+        totalBytes.addAndGet(bytes);
+    }
+
+    void removeMinute(String channel, String minute) {
+        Map<String, AtomicLong> minutes = channels.get(channel);
+        if (minutes == null) {
+            return;
+        }
+        AtomicLong bytes = minutes.remove(minute);
+        if (bytes != null) {
+            totalBytes.addAndGet(-bytes.get());
+        }
+    }
+
+    void removeChannel(String channel) {
+        Map<String, AtomicLong> minutes = channels.remove(channel);
+        if (minutes != null) {
+            minutes.values().forEach(bytes -> totalBytes.addAndGet(-bytes.get()));
+        }
+    }
+
+    long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    long getChannelBytes(String channel) {
+        Map<String, AtomicLong> minutes = channels.get(channel);
+        if (minutes == null) {
+            return 0;
+        }
+        return minutes.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    /**
+     * Counts the existing files once at startup, so usage from before a restart is included.
+     */
+    void scan() {
+        File root = new File(storagePath);
+        if (!root.exists()) {
+            return;
+        }
+        Path rootPath = root.toPath();
+        try (Stream<Path> paths = Files.walk(rootPath)) {
+            paths.filter(Files::isRegularFile)
+                    .forEach(path -> add(rootPath.relativize(path).toString(), path.toFile().length()));
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("unable to scan " + storagePath, e);
+        }
+        logger.info("scanned spoke usage {} bytes", totalBytes.get());
+    }
+
+    void enforce() {
+        Set<String> flushed = new HashSet<>();
+        Set<String> stuck = new HashSet<>();
+        String openMinute = TimeUtil.Unit.MINUTES.format(TimeUtil.stable());
+        if (channelQuotaBytes > 0) {
+            for (String channel : channels.keySet()) {
+                long target = (long) (channelQuotaBytes * lowWaterRatio);
+                long channelBytes = getChannelBytes(channel);
+                if (channelBytes > channelQuotaBytes) {
+                    logger.warn("channel {} is over quota {} {}", channel, channelBytes, channelQuotaBytes);
+                    flush(channel, flushed);
+                    while (channelBytes > target && evictOldest(channel, openMinute, stuck)) {
+                        channelBytes = getChannelBytes(channel);
+                    }
+                }
+            }
+        }
+        if (quotaBytes > 0 && totalBytes.get() > quotaBytes) {
+            logger.warn("spoke is over quota {} {}", totalBytes.get(), quotaBytes);
+            long target = (long) (quotaBytes * lowWaterRatio);
+            while (totalBytes.get() > target) {
+                String oldest = getChannelWithOldestMinute(stuck);
+                if (oldest == null) {
+                    break;
+                }
+                flush(oldest, flushed);
+                evictOldest(oldest, openMinute, stuck);
+            }
+        }
+        statsd.gauge("spoke.quota.stuck", stuck.size());
+        if (!stuck.isEmpty()) {
+            logger.error("unable to evict unconfirmed minutes for channels {}", stuck);
+            Event event = DataDog.getEventBuilder()
+                    .withTitle("Spoke Quota Exceeded")
+                    .withText("no confirmed minutes to evict for " + stuck)
+                    .withAlertType(Event.AlertType.ERROR)
+                    .build();
+            statsd.recordEvent(event, "spoke", "quota");
+        }
+    }
+
+    private String getChannelWithOldestMinute(Set<String> excluded) {
+        String oldestChannel = null;
+        String oldestMinute = null;
+        for (Map.Entry<String, ConcurrentNavigableMap<String, AtomicLong>> entry : channels.entrySet()) {
+            if (excluded.contains(entry.getKey())) {
+                continue;
+            }
+            Map.Entry<String, AtomicLong> first = entry.getValue().firstEntry();
+            if (first != null && (oldestMinute == null || first.getKey().compareTo(oldestMinute) < 0)) {
+                oldestMinute = first.getKey();
+                oldestChannel = entry.getKey();
+            }
+        }
+        return oldestChannel;
+    }
+
+    /**
+     * Evicts the channel's oldest minute, if it is before openMinute and confirmed in long term storage.
+     * Otherwise the channel is added to stuck.
+     */
+    private boolean evictOldest(String channel, String openMinute, Set<String> stuck) {
+        ConcurrentNavigableMap<String, AtomicLong> minutes = channels.get(channel);
+        if (minutes == null) {
+            return false;
+        }
+        Map.Entry<String, AtomicLong> oldest = minutes.firstEntry();
+        if (oldest == null) {
+            return false;
+        }
+        MinutePath lastConfirmed = confirmed.apply(channel);
+        if (oldest.getKey().compareTo(openMinute) >= 0 || lastConfirmed == null
+                || oldest.getKey().compareTo(TimeUtil.Unit.MINUTES.format(lastConfirmed.getTime())) > 0) {
+            logger.warn("unable to evict {} {}, confirmed through {}", channel, oldest.getKey(), lastConfirmed);
+            stuck.add(channel);
+            return false;
+        }
+        if (!minutes.remove(oldest.getKey(), oldest.getValue())) {
+            return true;
+        }
+        String path = channel + "/" + oldest.getKey();
+        logger.warn("evicting {} {} bytes", path, oldest.getValue().get());
+        FileUtils.deleteQuietly(new File(storagePath + path));
+        totalBytes.addAndGet(-oldest.getValue().get());
+        statsd.incrementCounter("spoke.quota.evicted", "channel:" + channel);
+        return true;
+    }
+
+    private void flush(String channel, Set<String> flushed) {
+        if (!flushed.add(channel)) {
+            return;
+        }
+        String url = HubProperties.getAppUrl() + "internal/s3Verifier/" + channel;
+        ClientResponse response = null;
+        try {
+            response = RestClient.internalClient().resource(url).post(ClientResponse.class);
+            logger.info("flushed {} to S3 {}", channel, response.getStatus());
+        } catch (Exception e) {
+            logger.warn("unable to flush " + channel, e);
+        } finally {
+            HubUtils.close(response);
+        }
+    }
+
+    private void report() {
+        statsd.gauge("spoke.quota.used", totalBytes.get());
+        if (quotaBytes > 0) {
+            statsd.gauge("spoke.quota.headroom", quotaBytes - totalBytes.get());
+        }
+        if (channelQuotaBytes > 0) {
+            long maxChannelBytes = channels.keySet().stream().mapToLong(this::getChannelBytes).max().orElse(0);
+            statsd.gauge("spoke.quota.channelHeadroom", channelQuotaBytes - maxChannelBytes);
+        }
+    }
+
+    private class SpokeQuotaService extends AbstractScheduledService {
+
+        @Override
+        protected void startUp() throws Exception {
+            scan();
+        }
+
+        @Override
+        protected void runOneIteration() throws Exception {
+            try {
+                enforce();
+                report();
+            } catch (Exception e) {
+                logger.warn("unable to enforce spoke quota", e);
+            }
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            int seconds = HubProperties.getProperty("spoke.quotaSeconds", 10);
+            return Scheduler.newFixedDelaySchedule(seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.cluster.CuratorLeader;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.cluster.Leader;
+import com.flightstats.hub.cluster.Leadership;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.dao.aws.S3Confirmed;
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.MinuteDigest;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.Sleeper;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.timgroup.statsd.StatsDClient;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SpokeRepair is anti-entropy between Spoke servers.
+ * <p>
+ * The leader periodically compares the per-minute digests from each Spoke server for every channel,
+ * and for minutes which differ, copies the missing items from a server which has them.
+ * The last repaired minute is kept per channel in LAST_REPAIRED.
+ * When the SpokeQuota is enabled, minutes confirmed in long term storage may have been evicted, and are not repaired.
+ */
+@Singleton
+public class SpokeRepair {
+
+    static final String LAST_REPAIRED = "/SpokeRepairLastRepaired/";
+    private final static Logger logger = LoggerFactory.getLogger(SpokeRepair.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    @Inject
+    private RemoteSpokeStore remoteSpokeStore;
+    @Inject
+    private ChannelService channelService;
+    @Inject
+    private LastContentPath lastContentPath;
+    @Inject
+    private S3Confirmed s3Confirmed;
+
+    public SpokeRepair() {
+        if (HubProperties.getProperty("spoke.repair.run", true)) {
+            HubServices.register(new SpokeRepairService(), HubServices.TYPE.AFTER_HEALTHY_START, HubServices.TYPE.PRE_STOP);
+        }
+    }
+
+    private void repairChannels() {
+        logger.info("repairing spoke");
+        for (ChannelConfig channel : channelService.getChannels()) {
+            try {
+                repairChannel(channel.getName());
+            } catch (Exception e) {
+                logger.warn("unable to repair " + channel.getName(), e);
+            }
+        }
+        logger.info("completed repairing spoke");
+    }
+
+    private void repairChannel(String channel) throws InterruptedException {
+        MinutePath endPath = new MinutePath(TimeUtil.stable().minusMinutes(1));
+        MinutePath ttlPath = new MinutePath(TimeUtil.now().minusMinutes(HubProperties.getSpokeTtl() - 2));
+        ContentPath lastRepaired = lastContentPath.get(channel, ttlPath, LAST_REPAIRED);
+        MinutePath startPath = new MinutePath(lastRepaired.getTime()).addMinute();
+        if (startPath.compareTo(ttlPath) < 0) {
+            startPath = ttlPath;
+        }
+        if (startPath.compareTo(endPath) > 0) {
+            return;
+        }
+        ActiveTraces.start("SpokeRepair", channel, startPath, endPath);
+        try {
+            int minutes = (int) new Duration(startPath.getTime(), endPath.getTime()).getStandardMinutes() + 1;
+            Map<String, Map<MinutePath, MinuteDigest>> serverDigests = remoteSpokeStore.getServerDigests(channel, startPath, minutes);
+            if (serverDigests.size() < 2) {
+                logger.debug("not enough servers to compare {} {}", channel, serverDigests.keySet());
+                return;
+            }
+            MinutePath horizon = SpokeQuota.isEnabled() ? s3Confirmed.getLastConfirmed(channel) : null;
+            for (MinutePath minutePath : findDifferences(serverDigests)) {
+                if (horizon != null && minutePath.compareTo(horizon) <= 0) {
+                    logger.debug("skipping evictable minute {} {}", channel, minutePath);
+                    statsd.increment("spoke.repair.skipped", "channel:" + channel);
+                    continue;
+                }
+                repairMinute(channel, minutePath);
+            }
+            lastContentPath.updateIncrease(endPath, channel, LAST_REPAIRED);
+        } finally {
+            ActiveTraces.end();
+        }
+    }
+
+    private void repairMinute(String channel, MinutePath minutePath) throws InterruptedException {
+        Map<String, SortedSet<ContentKey>> serverKeys = remoteSpokeStore.getServerKeys(channel, minutePath);
+        for (Map.Entry<ContentKey, Set<String>> entry : findMissing(serverKeys).entrySet()) {
+            ContentKey key = entry.getKey();
+            String path = channel + "/" + key.toUrl();
+            for (Map.Entry<String, SortedSet<ContentKey>> server : serverKeys.entrySet()) {
+                if (server.getValue().contains(key)) {
+                    byte[] payload = remoteSpokeStore.getPayload(server.getKey(), path);
+                    if (payload != null) {
+                        logger.info("repairing {} to {}", path, entry.getValue());
+                        statsd.increment("spoke.repair", "channel:" + channel);
+                        remoteSpokeStore.repair(path, payload, entry.getValue());
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the minutes where the servers' digests do not all match
+     */
+    static SortedSet<MinutePath> findDifferences(Map<String, Map<MinutePath, MinuteDigest>> serverDigests) {
+        Map<MinutePath, Set<MinuteDigest>> byMinute = new HashMap<>();
+        for (Map<MinutePath, MinuteDigest> digests : serverDigests.values()) {
+            for (Map.Entry<MinutePath, MinuteDigest> entry : digests.entrySet()) {
+                byMinute.computeIfAbsent(entry.getKey(), minute -> new HashSet<>()).add(entry.getValue());
+            }
+        }
+        SortedSet<MinutePath> differences = new TreeSet<>();
+        for (Map.Entry<MinutePath, Set<MinuteDigest>> entry : byMinute.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                differences.add(entry.getKey());
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * @return each key which is missing from at least one server, with the servers missing it
+     */
+    static SortedMap<ContentKey, Set<String>> findMissing(Map<String, SortedSet<ContentKey>> serverKeys) {
+        SortedSet<ContentKey> allKeys = new TreeSet<>();
+        serverKeys.values().forEach(allKeys::addAll);
+        SortedMap<ContentKey, Set<String>> missing = new TreeMap<>();
+        for (ContentKey key : allKeys) {
+            for (Map.Entry<String, SortedSet<ContentKey>> entry : serverKeys.entrySet()) {
+                if (!entry.getValue().contains(key)) {
+                    missing.computeIfAbsent(key, k -> new TreeSet<>()).add(entry.getKey());
+                }
+            }
+        }
+        return missing;
+    }
+
+    private class SpokeRepairService extends AbstractIdleService implements Leader {
+
+        private final int minutes = HubProperties.getProperty("spoke.repair.periodMinutes", 5);
+
+        @Override
+        protected void startUp() throws Exception {
+            CuratorLeader curatorLeader = new CuratorLeader("/SpokeRepairService", this);
+            curatorLeader.start();
+        }
+
+        @Override
+        protected void shutDown() throws Exception {
+            //do nothing
+        }
+
+        @Override
+        public void takeLeadership(Leadership leadership) {
+            logger.info("taking leadership");
+            while (leadership.hasLeadership()) {
+                long start = System.currentTimeMillis();
+                repairChannels();
+                long sleep = TimeUnit.MINUTES.toMillis(minutes) - (System.currentTimeMillis() - start);
+                Sleeper.sleep(Math.max(0, sleep));
+            }
+            logger.info("lost leadership");
+        }
+    }
+}
@@ -15,6 +15,7 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -25,6 +26,8 @@ public class SpokeTtlEnforcer {
     private final int ttlMinutes = HubProperties.getSpokeTtl() + 1;
     @Inject
     private ChannelService channelService;
+    @Inject
+    private FileSpokeStore fileSpokeStore;
 
     @Inject
     public SpokeTtlEnforcer() {
@@ -37,7 +40,13 @@ public class SpokeTtlEnforcer {
     private Consumer<ChannelConfig> handleCleanup() {
         return channel -> {
             String channelPath = storagePath + "/" + channel.getName();
-            if (channel.isLive()) {
+            if (fileSpokeStore.hasQuota()) {
+                if (channel.isLive()) {
+                    fileSpokeStore.enforceTtl(channel.getName(), TimeUtil.stable().minusMinutes(ttlMinutes + 1));
+                } else {
+                    fileSpokeStore.enforceModifiedTtl(channel.getName(), TimeUtil.now().minusMinutes(ttlMinutes).getMillis());
+                }
+            } else if (channel.isLive()) {
                 DateTime ttlDateTime = TimeUtil.stable().minusMinutes(ttlMinutes + 1);
                 for (int i = 0; i < 3; i++) {
                     Commander.run(new String[]{"rm", "-rf", channelPath + "/" + TimeUtil.minutes(ttlDateTime.minusMinutes(i))}, 1);
@@ -73,7 +82,15 @@ public class SpokeTtlEnforcer {
         @Override
         protected void startUp() throws Exception {
             logger.info("performing Spoke cleanup");
-            Commander.run(new String[]{"find", storagePath, "-mmin", "+" + ttlMinutes, "-delete"}, 10 * 60);
+            if (fileSpokeStore.hasQuota()) {
+                long modifiedBefore = TimeUtil.now().minusMinutes(ttlMinutes).getMillis();
+                String[] channels = new File(storagePath).list();
+                for (String channel : channels == null ? new String[0] : channels) {
+                    fileSpokeStore.enforceModifiedTtl(channel, modifiedBefore);
+                }
+            } else {
+                Commander.run(new String[]{"find", storagePath, "-mmin", "+" + ttlMinutes, "-delete"}, 10 * 60);
+            }
             logger.info("completed Spoke cleanup");
         }
 
@@ -0,0 +1,127 @@
+package com.flightstats.hub.util;
+
+/**
+ * AdaptiveLimiter bounds the number of concurrent calls to a resource, using additive increase and
+ * multiplicative decrease (AIMD) to find the concurrency the resource can handle.
+ * <p>
+ * The limit grows by roughly one per window of successful calls, while latency stays within
+ * latencyTolerance times the best recently observed latency.
+ * A dropped call (timeout, throttle, server error) or a latency spike cuts the limit by backoffRatio.
+ * The limit always stays between minLimit and maxLimit.
+ */
+public class AdaptiveLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+
+    private double limit;
+    private int inFlight;
+    private double baselineMillis = -1;
+    private int sinceDecrease;
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, 0.75, 2.0);
+    }
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, double latencyTolerance) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = bound(initialLimit);
+        this.sinceDecrease = (int) limit;
+    }
+
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= getLimit()) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= getLimit()) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Release a call which completed, successfully or not, in latencyMillis.
+     */
+    public synchronized void release(long latencyMillis) {
+        inFlight--;
+        sinceDecrease++;
+        if (baselineMillis < 0 || latencyMillis < baselineMillis) {
+            baselineMillis = Math.max(1, latencyMillis);
+        } else {
+            //let the baseline drift up slowly, so it can track a slower resource
+            baselineMillis += (latencyMillis - baselineMillis) * 0.01;
+        }
+        if (latencyMillis > baselineMillis * latencyTolerance) {
+            decrease();
+        } else {
+            limit = bound(limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Release a call which was dropped, timed out or throttled.
+     */
+    public synchronized void releaseDropped() {
+        inFlight--;
+        sinceDecrease++;
+        decrease();
+        notifyAll();
+    }
+
+    /**
+     * Release a call which says nothing about the resource's capacity, such as one which failed before using it.
+     */
+    public synchronized void releaseIgnored() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Signal a dropped attempt for a call which is still in flight, such as one which will be retried.
+     */
+    public synchronized void dropped() {
+        sinceDecrease++;
+        decrease();
+    }
+
+    private void decrease() {
+        //only back off once per window of calls, so a burst of slow calls does not collapse the limit
+        if (sinceDecrease >= (int) limit) {
+            limit = bound(limit * backoffRatio);
+            sinceDecrease = 0;
+        }
+    }
+
+    private double bound(double value) {
+        return Math.min(maxLimit, Math.max(minLimit, value));
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AdaptiveLimiter{" +
+                "limit=" + getLimit() +
+                ", inFlight=" + inFlight +
+                ", baselineMillis=" + (long) baselineMillis +
+                ", maxLimit=" + maxLimit +
+                '}';
+    }
+}
@@ -43,6 +43,17 @@ public class ByteRing {
         return true;
     }
 
+    /**
+     * @return the bytes in this ring, oldest first
+     */
+    public byte[] getBytes() {
+        byte[] bytes = new byte[buffer.length];
+        int oldest = buffer.length - position;
+        System.arraycopy(buffer, position, bytes, 0, oldest);
+        System.arraycopy(buffer, 0, bytes, oldest, position);
+        return bytes;
+    }
+
     byte[] getBuffer() {
         return buffer;
     }
@@ -0,0 +1,388 @@
+package com.flightstats.hub.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * RawZipOutputStream writes a zip file where each entry's deflated bytes are supplied by the caller,
+ * so bytes which are already deflated can be copied into the output without an inflate/deflate cycle.
+ * <p>
+ * Copied entries have their sizes and crc in the local header, streamed entries are followed by a data descriptor,
+ * and the central directory is written on close.  Sizes and offsets which do not fit in 32 bits are written
+ * in a zip64 extra block ahead of the caller's extra bytes, with zip64 end records.
+ * The output can be read by ZipInputStream and ZipFile.
+ */
+public class RawZipOutputStream implements Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    public static final int END_BYTES = 22;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int DESCRIPTOR_FLAG = 0x8;
+    private static final int UTF8_FLAG = 0x800;
+    private static final long MAX_INT = 0xFFFFFFFFL;
+    private static final int MAX_SHORT = 0xFFFF;
+
+    private final OutputStream output;
+    private final int dosTime = toDosTime(System.currentTimeMillis());
+    private final List<WrittenEntry> entries = new ArrayList<>();
+    private final int level;
+    private long written;
+
+    public RawZipOutputStream(OutputStream output) {
+        this(output, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public RawZipOutputStream(OutputStream output, int level) {
+        this.output = new BufferedOutputStream(output);
+        this.level = level;
+    }
+
+    /**
+     * Deflates the stream into the output as an entry, followed by a data descriptor.
+     *
+     * @return the number of uncompressed bytes
+     */
+    public long putEntry(String name, byte[] extra, InputStream stream) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        long localOffset = written;
+        writeLocalHeader(nameBytes, extra, UTF8_FLAG | DESCRIPTOR_FLAG, ZipEntry.DEFLATED, 0, 0, 0);
+        long dataStart = written;
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(level, true);
+        long size = 0;
+        try {
+            DeflaterOutputStream deflaterStream = new DeflaterOutputStream(new EntryOutputStream(), deflater);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                deflaterStream.write(buffer, 0, read);
+                size += read;
+            }
+            deflaterStream.finish();
+        } finally {
+            deflater.end();
+        }
+        RawEntry entry = new RawEntry(name, ZipEntry.DEFLATED, crc.getValue(), written - dataStart, size, 0);
+        writeInt(DATA_DESCRIPTOR);
+        writeInt((int) entry.crc);
+        if (entry.compressedSize >= MAX_INT || entry.size >= MAX_INT) {
+            writeLong(entry.compressedSize);
+            writeLong(entry.size);
+        } else {
+            writeInt((int) entry.compressedSize);
+            writeInt((int) entry.size);
+        }
+        entries.add(new WrittenEntry(nameBytes, extra, UTF8_FLAG | DESCRIPTOR_FLAG, entry, localOffset));
+        return size;
+    }
+
+    /**
+     * Writes the entry's data from source, which is a complete zip holding the entry.
+     */
+    public void putRawEntry(String name, byte[] extra, RawEntry entry, byte[] source) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        entries.add(new WrittenEntry(nameBytes, extra, UTF8_FLAG, entry, written));
+        writeLocalHeader(nameBytes, extra, UTF8_FLAG, entry.method, entry.crc, entry.compressedSize, entry.size);
+        output.write(source, (int) entry.dataOffset, (int) entry.compressedSize);
+        written += entry.compressedSize;
+    }
+
+    private void writeLocalHeader(byte[] nameBytes, byte[] extra, int flags, int method,
+                                  long crc, long compressedSize, long size) throws IOException {
+        boolean zip64 = compressedSize >= MAX_INT || size >= MAX_INT;
+        if (zip64) {
+            extra = withZip64(extra, size, compressedSize);
+            compressedSize = MAX_INT;
+            size = MAX_INT;
+        } else if (extra == null) {
+            extra = new byte[0];
+        }
+        writeInt(LOCAL_HEADER);
+        writeShort(zip64 ? 45 : 20);
+        writeShort(flags);
+        writeShort(method);
+        writeInt(dosTime);
+        writeInt((int) crc);
+        writeInt((int) compressedSize);
+        writeInt((int) size);
+        writeShort(nameBytes.length);
+        writeShort(extra.length);
+        write(nameBytes);
+        write(extra);
+    }
+
+    /**
+     * @return a zip64 extra block holding the values, followed by the existing extra bytes.
+     */
+    private static byte[] withZip64(byte[] extra, long... values) throws IOException {
+        ByteArrayOutputStream extended = new ByteArrayOutputStream();
+        extended.write(ZIP64_EXTRA);
+        extended.write(0);
+        extended.write(values.length * 8);
+        extended.write(0);
+        for (long value : values) {
+            for (int i = 0; i < 8; i++) {
+                extended.write((int) (value >>> (i * 8)));
+            }
+        }
+        if (extra != null) {
+            extended.write(extra);
+        }
+        return extended.toByteArray();
+    }
+
+    @Override
+    public void close() throws IOException {
+        long centralOffset = written;
+        boolean zip64 = entries.size() >= MAX_SHORT;
+        for (WrittenEntry written : entries) {
+            RawEntry entry = written.entry;
+            byte[] extra = written.extra;
+            long size = entry.size;
+            long compressedSize = entry.compressedSize;
+            long offset = written.localOffset;
+            List<Long> values = new ArrayList<>();
+            if (size >= MAX_INT) {
+                values.add(size);
+                size = MAX_INT;
+            }
+            if (compressedSize >= MAX_INT) {
+                values.add(compressedSize);
+                compressedSize = MAX_INT;
+            }
+            if (offset >= MAX_INT) {
+                values.add(offset);
+                offset = MAX_INT;
+            }
+            if (!values.isEmpty()) {
+                zip64 = true;
+                extra = withZip64(extra, values.stream().mapToLong(Long::longValue).toArray());
+            } else if (extra == null) {
+                extra = new byte[0];
+            }
+            int version = values.isEmpty() ? 20 : 45;
+            writeInt(CENTRAL_HEADER);
+            writeShort(version);
+            writeShort(version);
+            writeShort(written.flags);
+            writeShort(entry.method);
+            writeInt(dosTime);
+            writeInt((int) entry.crc);
+            writeInt((int) compressedSize);
+            writeInt((int) size);
+            writeShort(written.name.length);
+            writeShort(extra.length);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(0);
+            writeInt((int) offset);
+            write(written.name);
+            write(extra);
+        }
+        long centralSize = written - centralOffset;
+        zip64 |= centralOffset >= MAX_INT || centralSize >= MAX_INT;
+        if (zip64) {
+            long zip64Offset = written;
+            writeInt(ZIP64_END_HEADER);
+            writeLong(44);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(entries.size());
+            writeLong(entries.size());
+            writeLong(centralSize);
+            writeLong(centralOffset);
+            writeInt(ZIP64_LOCATOR);
+            writeInt(0);
+            writeLong(zip64Offset);
+            writeInt(1);
+        }
+        writeInt(END_HEADER);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(entries.size(), MAX_SHORT));
+        writeShort(Math.min(entries.size(), MAX_SHORT));
+        writeInt((int) Math.min(centralSize, MAX_INT));
+        writeInt((int) Math.min(centralOffset, MAX_INT));
+        writeShort(0);
+        output.flush();
+        output.close();
+    }
+
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    /**
+     * @return the entries in the central directory of a complete zip, or an empty map if it can not be read.
+     */
+    public static Map<String, RawEntry> readEntries(byte[] zip) {
+        Map<String, RawEntry> entries = new HashMap<>();
+        try {
+            int end = zip.length - END_BYTES;
+            while (end >= 0 && readInt(zip, end) != END_HEADER) {
+                end--;
+            }
+            if (end < 0) {
+                return entries;
+            }
+            int count = readShort(zip, end + 10);
+            int position = (int) readUnsignedInt(zip, end + 16);
+            for (int i = 0; i < count; i++) {
+                if (readInt(zip, position) != CENTRAL_HEADER) {
+                    return new HashMap<>();
+                }
+                int nameLength = readShort(zip, position + 28);
+                int extraLength = readShort(zip, position + 30);
+                int commentLength = readShort(zip, position + 32);
+                long localOffset = readUnsignedInt(zip, position + 42);
+                String name = new String(zip, position + 46, nameLength, StandardCharsets.UTF_8);
+                int local = (int) localOffset;
+                if (readInt(zip, local) != LOCAL_HEADER) {
+                    return new HashMap<>();
+                }
+                long dataOffset = local + 30 + readShort(zip, local + 26) + readShort(zip, local + 28);
+                long compressedSize = readUnsignedInt(zip, position + 20);
+                if (dataOffset + compressedSize > zip.length) {
+                    return new HashMap<>();
+                }
+                entries.put(name, new RawEntry(name, readShort(zip, position + 10), readUnsignedInt(zip, position + 16),
+                        compressedSize, readUnsignedInt(zip, position + 24), dataOffset));
+                position += 46 + nameLength + extraLength + commentLength;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return new HashMap<>();
+        }
+        return entries;
+    }
+
+    /**
+     * @return true if tail ends with the end of central directory record this class writes, without a comment.
+     */
+    public static boolean isEnd(byte[] tail) {
+        return tail.length >= END_BYTES
+                && readInt(tail, tail.length - END_BYTES) == END_HEADER
+                && readShort(tail, tail.length - 2) == 0;
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        output.write(bytes);
+        written += bytes.length;
+    }
+
+    private void writeShort(int value) throws IOException {
+        output.write(value & 0xFF);
+        output.write((value >>> 8) & 0xFF);
+        written += 2;
+    }
+
+    private void writeInt(int value) throws IOException {
+        writeShort(value & 0xFFFF);
+        writeShort((value >>> 16) & 0xFFFF);
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt((int) value);
+        writeInt((int) (value >>> 32));
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return readShort(bytes, offset) | (readShort(bytes, offset + 2) << 16);
+    }
+
+    private static long readUnsignedInt(byte[] bytes, int offset) {
+        return readInt(bytes, offset) & MAX_INT;
+    }
+
+    private static int toDosTime(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21 |
+                calendar.get(Calendar.DAY_OF_MONTH) << 16 | calendar.get(Calendar.HOUR_OF_DAY) << 11 |
+                calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    /**
+     * The location and description of an entry's data within a zip.
+     */
+    public static class RawEntry {
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long dataOffset;
+
+        RawEntry(String name, int method, long crc, long compressedSize, long size, long dataOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.dataOffset = dataOffset;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    private static class WrittenEntry {
+        private final byte[] name;
+        private final byte[] extra;
+        private final int flags;
+        private final RawEntry entry;
+        private final long localOffset;
+
+        private WrittenEntry(byte[] name, byte[] extra, int flags, RawEntry entry, long localOffset) {
+            this.name = name;
+            this.extra = extra;
+            this.flags = flags;
+            this.entry = entry;
+            this.localOffset = localOffset;
+        }
+    }
+
+    /**
+     * Writes an entry's deflated bytes through to the output, without closing it.
+     */
+    private class EntryOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            output.write(b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            output.write(bytes, offset, length);
+            written += length;
+        }
+    }
+}
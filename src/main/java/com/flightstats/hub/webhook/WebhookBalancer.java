@@ -0,0 +1,189 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.app.HubHost;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.metrics.DataDog;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.timgroup.statsd.StatsDClient;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebhookBalancer keeps the number of webhooks led by each hub near an even share.
+ * <p>
+ * Each hub publishes how many webhooks it leads to an ephemeral node under COUNTS_PATH.
+ * A hub which leads more than its share plus webhook.balanceTolerance hands off up to webhook.balanceStep
+ * webhooks each period, and declines new leaderships while it is at or over that limit.
+ * The limit for a new leadership is checked against fresh counts, which include the leadership being offered.
+ */
+@Singleton
+public class WebhookBalancer {
+
+    private final static Logger logger = LoggerFactory.getLogger(WebhookBalancer.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    private static final String COUNTS_PATH = "/WebhookLeaderCounts";
+
+    private final CuratorFramework curator;
+    private final Set<WebhookLeader> leaders = ConcurrentHashMap.newKeySet();
+    private final boolean enabled = HubProperties.getProperty("webhook.balance", true);
+    private final int tolerance = HubProperties.getProperty("webhook.balanceTolerance", 1);
+    private final int step = HubProperties.getProperty("webhook.balanceStep", 5);
+
+    @Inject
+    public WebhookBalancer(CuratorFramework curator) {
+        this.curator = curator;
+        if (enabled) {
+            HubServices.register(new WebhookBalancerService(), HubServices.TYPE.AFTER_HEALTHY_START, HubServices.TYPE.PRE_STOP);
+        }
+    }
+
+    void leading(WebhookLeader leader) {
+        leaders.add(leader);
+    }
+
+    void released(WebhookLeader leader) {
+        leaders.remove(leader);
+    }
+
+    /**
+     * @return true if taking another leadership would put this hub over its share.
+     */
+    boolean shouldDecline() {
+        if (!enabled) {
+            return false;
+        }
+        try {
+            int localCount = getLocalCount();
+            publish(localCount);
+            List<Integer> counts = readCounts();
+            return isOverShare(localCount, counts, tolerance);
+        } catch (Exception e) {
+            logger.warn("unable to read webhook counts", e);
+            return false;
+        }
+    }
+
+    private int getLocalCount() {
+        return (int) leaders.stream().filter(leader -> !leader.isHandingOff()).count();
+    }
+
+    void balance() throws Exception {
+        int localCount = getLocalCount();
+        statsd.gauge("webhook.leaders", localCount);
+        publish(localCount);
+        List<Integer> counts = readCounts();
+        int target = getTarget(counts);
+        int excess = getExcess(localCount, target, tolerance, step);
+        logger.debug("leading {} of {} with target {}", localCount, counts, target);
+        if (excess == 0) {
+            return;
+        }
+        logger.info("handing off {} webhooks, leading {} with target {}", excess, localCount, target);
+        List<WebhookLeader> toHandOff = new ArrayList<>(leaders);
+        for (WebhookLeader leader : toHandOff) {
+            if (excess == 0) {
+                break;
+            }
+            if (leader.handOff()) {
+                statsd.increment("webhook.handOff", "name:" + leader.getWebhook().getName());
+                excess--;
+            }
+        }
+    }
+
+    private void publish(int localCount) throws Exception {
+        String path = ZKPaths.makePath(COUNTS_PATH, HubHost.getLocalNamePort());
+        byte[] bytes = Integer.toString(localCount).getBytes(StandardCharsets.UTF_8);
+        try {
+            curator.setData().forPath(path, bytes);
+        } catch (KeeperException.NoNodeException e) {
+            curator.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(path, bytes);
+        }
+    }
+
+    private List<Integer> readCounts() throws Exception {
+        List<Integer> counts = new ArrayList<>();
+        for (String child : curator.getChildren().forPath(COUNTS_PATH)) {
+            try {
+                byte[] bytes = curator.getData().forPath(ZKPaths.makePath(COUNTS_PATH, child));
+                counts.add(Integer.parseInt(new String(bytes, StandardCharsets.UTF_8)));
+            } catch (KeeperException.NoNodeException e) {
+                logger.debug("hub is gone {}", child);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return the even share of all leaderships, rounded up.
+     */
+    static int getTarget(Collection<Integer> counts) {
+        if (counts.isEmpty()) {
+            return Integer.MAX_VALUE;
+        }
+        int total = counts.stream().mapToInt(Integer::intValue).sum();
+        return (total + counts.size() - 1) / counts.size();
+    }
+
+    /**
+     * @return true if this hub would be over its share of all leaderships plus the one being offered.
+     */
+    static boolean isOverShare(int localCount, Collection<Integer> counts, int tolerance) {
+        if (counts.isEmpty()) {
+            return false;
+        }
+        int total = counts.stream().mapToInt(Integer::intValue).sum() + 1;
+        int share = (total + counts.size() - 1) / counts.size();
+        return localCount - tolerance >= share;
+    }
+
+    static int getExcess(int localCount, int target, int tolerance, int step) {
+        if (localCount - tolerance <= target) {
+            return 0;
+        }
+        return Math.min(step, localCount - target);
+    }
+
+    private class WebhookBalancerService extends AbstractScheduledService {
+
+        @Override
+        protected void runOneIteration() throws Exception {
+            try {
+                balance();
+            } catch (Exception e) {
+                logger.warn("unable to balance webhooks", e);
+            }
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            long seconds = HubProperties.getProperty("webhook.balanceSeconds", 60);
+            return Scheduler.newFixedDelaySchedule(seconds, seconds, TimeUnit.SECONDS);
+        }
+
+        @Override
+        protected void shutDown() throws Exception {
+            try {
+                curator.delete().forPath(ZKPaths.makePath(COUNTS_PATH, HubHost.getLocalNamePort()));
+            } catch (KeeperException.NoNodeException ignore) {
+                //the node is ephemeral, and may already be gone
+            }
+        }
+    }
+}
@@ -7,11 +7,13 @@ import com.flightstats.hub.cluster.Leader;
 import com.flightstats.hub.cluster.Leadership;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.LatencyRecorder;
 import com.flightstats.hub.metrics.MetricsTimer;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.ContentPath;
 import com.flightstats.hub.model.RecurringTrace;
 import com.flightstats.hub.rest.RestClient;
+import com.flightstats.hub.util.AdaptiveLimiter;
 import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.Sleeper;
 import com.flightstats.hub.util.TimeUtil;
@@ -21,6 +23,7 @@ import com.google.common.base.Optional;
 import com.google.inject.Inject;
 import com.newrelic.api.agent.Trace;
 import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientResponse;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.curator.framework.CuratorFramework;
@@ -36,14 +39,22 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 class WebhookLeader implements Leader {
     private final static Logger logger = LoggerFactory.getLogger(WebhookLeader.class);
     static final String WEBHOOK_LAST_COMPLETED = "/GroupLastCompleted/";
+    private static final long NO_ATTEMPT = -1;
+    private static final long DROPPED = -2;
 
     private static final Client client = RestClient.createClient(60, 120, true, false);
     private final AtomicBoolean deleteOnExit = new AtomicBoolean();
+    private final AtomicBoolean handingOff = new AtomicBoolean();
+    /**
+     * A hub declines a webhook at most once in a row, so a stale share can not bounce it between hubs.
+     */
+    private volatile boolean declined;
 
     @Inject
     private CuratorFramework curator;
@@ -59,11 +70,13 @@ class WebhookLeader implements Leader {
     private WebhookContentPathSet webhookInProcess;
     @Inject
     private WebhookError webhookError;
+    @Inject
+    private WebhookBalancer webhookBalancer;
 
     private Webhook webhook;
     private CuratorLeader curatorLeader;
     private ExecutorService executorService;
-    private Semaphore semaphore;
+    private AdaptiveLimiter limiter;
     private Leadership leadership;
     private Retryer<ClientResponse> retryer;
 
@@ -97,9 +110,18 @@ class WebhookLeader implements Leader {
             return;
         }
         this.webhook = foundWebhook.get();
+        if (!declined && webhookBalancer.shouldDecline() && hasOtherCandidates()) {
+            logger.info("declining leadership, this hub leads its share {}", webhook.getName());
+            declined = true;
+            Sleeper.sleep(1000);
+            return;
+        }
+        declined = false;
         logger.info("taking leadership {} {}", webhook, leadership.hasLeadership());
+        handingOff.set(false);
+        webhookBalancer.leading(this);
         executorService = Executors.newCachedThreadPool();
-        semaphore = new Semaphore(webhook.getParallelCalls());
+        limiter = new AdaptiveLimiter(webhook.getParallelCalls(), 1, webhook.getParallelCalls());
         retryer = WebhookRetryer.buildRetryer(webhook, webhookError, leadership);
         webhookStrategy = WebhookStrategy.getStrategy(webhook, lastContentPath, channelService);
         try {
@@ -109,16 +131,21 @@ class WebhookLeader implements Leader {
             if (leadership.hasLeadership()) {
                 sendInProcess(lastCompletedPath);
                 webhookStrategy.start(webhook, lastCompletedPath);
-                while (leadership.hasLeadership()) {
+                while (leadership.hasLeadership() && !handingOff.get()) {
                     Optional<ContentPath> nextOptional = webhookStrategy.next();
                     if (nextOptional.isPresent()) {
                         send(nextOptional.get());
                     }
                 }
+                if (handingOff.get()) {
+                    logger.info("handing off {}, waiting for in flight calls", webhook.getName());
+                    stopExecutor();
+                }
             }
         } catch (RuntimeInterruptedException | InterruptedException e) {
             logger.info("saw InterruptedException for " + webhook.getName());
         } finally {
+            webhookBalancer.released(this);
             logger.info("stopping last completed at {} {}", webhookStrategy.getLastCompleted(), webhook.getName());
             leadership.setLeadership(false);
             closeStrategy();
@@ -132,6 +159,30 @@ class WebhookLeader implements Leader {
         }
     }
 
+    /**
+     * Stops taking new work, and releases leadership once the in-flight calls complete,
+     * so another hub can take over.  The CuratorLeader requeues this hub for a later election.
+     *
+     * @return false if this is not leading, or is already handing off.
+     */
+    boolean handOff() {
+        Leadership current = leadership;
+        return current != null && current.hasLeadership() && handingOff.compareAndSet(false, true);
+    }
+
+    boolean isHandingOff() {
+        return handingOff.get();
+    }
+
+    private boolean hasOtherCandidates() {
+        try {
+            return curator.getChildren().forPath(getLeaderPath()).size() > 1;
+        } catch (Exception e) {
+            logger.info("unable to get candidates " + webhook.getName(), e);
+            return false;
+        }
+    }
+
     @Override
     public String getId() {
         return id;
@@ -157,7 +208,7 @@ class WebhookLeader implements Leader {
     }
 
     private void send(ContentPath contentPath) throws InterruptedException {
-        semaphore.acquire();
+        limiter.acquire();
         logger.trace("sending {} to {}", contentPath, webhook.getName());
         String parentName = Thread.currentThread().getName();
         executorService.submit(new Callable<Object>() {
@@ -168,10 +219,11 @@ class WebhookLeader implements Leader {
                 Thread.currentThread().setName(workerName + "|" + parentName);
                 ActiveTraces.start("WebhookLeader.send", webhook, contentPath);
                 webhookInProcess.add(webhook.getName(), contentPath);
+                AtomicLong attemptMillis = new AtomicLong(NO_ATTEMPT);
                 try {
                     long delta = System.currentTimeMillis() - contentPath.getTime().getMillis();
                     metricsTimer.send("webhook." + webhook.getName() + ".delta", delta);
-                    makeTimedCall(contentPath, webhookStrategy.createResponse(contentPath));
+                    makeTimedCall(contentPath, webhookStrategy.createResponse(contentPath), attemptMillis);
                     completeCall(contentPath);
                     logger.trace("completed {} call to {} ", contentPath, webhook.getName());
                 } catch (RetryException e) {
@@ -185,7 +237,12 @@ class WebhookLeader implements Leader {
                 } catch (Exception e) {
                     logger.warn("exception sending " + contentPath + " to " + webhook.getName(), e);
                 } finally {
-                    semaphore.release();
+                    if (attemptMillis.get() >= 0) {
+                        limiter.release(attemptMillis.get());
+                    } else {
+                        //a DROPPED final attempt was already signalled by makeCall
+                        limiter.releaseIgnored();
+                    }
                     ActiveTraces.end();
                     Thread.currentThread().setName(workerName);
                 }
@@ -216,15 +273,26 @@ class WebhookLeader implements Leader {
         webhookInProcess.remove(webhook.getName(), contentPath);
     }
 
-    private void makeTimedCall(ContentPath contentPath, ObjectNode body) throws Exception {
-        metricsTimer.time("webhook", webhook.getName(),
-                () -> {
-                    makeCall(contentPath, body);
-                    return null;
-                });
+    private void makeTimedCall(ContentPath contentPath, ObjectNode body, AtomicLong attemptMillis) throws Exception {
+        long start = System.currentTimeMillis();
+        try {
+            metricsTimer.time("webhook", webhook.getName(),
+                    () -> {
+                        makeCall(contentPath, body, attemptMillis);
+                        return null;
+                    });
+        } finally {
+            LatencyRecorder.recordSince("webhook.send", start);
+        }
     }
 
-    private void makeCall(ContentPath contentPath, ObjectNode body) throws ExecutionException, RetryException {
+    /**
+     * Each attempt feeds the limiter: timeouts, throttles and server errors are signalled as dropped right away,
+     * and mark attemptMillis as DROPPED, so the call is then released without signalling the drop again.
+     * Any other response, including a client error, records its latency in attemptMillis.
+     * If no attempt is made, attemptMillis stays at NO_ATTEMPT.
+     */
+    private void makeCall(ContentPath contentPath, ObjectNode body, AtomicLong attemptMillis) throws ExecutionException, RetryException {
         Traces traces = ActiveTraces.getLocal();
         traces.add("WebhookLeader.makeCall start");
         RecurringTrace recurringTrace = new RecurringTrace("WebhookLeader.makeCall start");
@@ -243,10 +311,25 @@ class WebhookLeader implements Leader {
             }
             String entity = body.toString();
             logger.debug("calling {} {} {}", webhook.getCallbackUrl(), contentPath, entity);
-            ClientResponse clientResponse = client.resource(webhook.getCallbackUrl())
-                    .type(MediaType.APPLICATION_JSON_TYPE)
-                    .post(ClientResponse.class, entity);
+            long attemptStart = System.currentTimeMillis();
+            ClientResponse clientResponse;
+            try {
+                clientResponse = client.resource(webhook.getCallbackUrl())
+                        .type(MediaType.APPLICATION_JSON_TYPE)
+                        .post(ClientResponse.class, entity);
+            } catch (ClientHandlerException e) {
+                limiter.dropped();
+                attemptMillis.set(DROPPED);
+                throw e;
+            }
             recurringTrace.update("WebhookLeader.makeCall completed", clientResponse);
+            int status = clientResponse.getStatus();
+            if (status >= 500 || status == 429) {
+                limiter.dropped();
+                attemptMillis.set(DROPPED);
+            } else {
+                attemptMillis.set(System.currentTimeMillis() - attemptStart);
+            }
             return clientResponse;
         });
     }
@@ -1,5 +1,6 @@
 package com.flightstats.hub.webhook;
 
+import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubServices;
 import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.cluster.WatchManager;
@@ -8,94 +9,228 @@ import com.flightstats.hub.dao.Dao;
 import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.Sleeper;
 import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.name.Named;
+import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.flightstats.hub.app.HubServices.register;
 
+/**
+ * WebhookManager starts a WebhookLeader for each webhook, and restarts or stops them as webhooks change.
+ * <p>
+ * Each webhook has a node under VERSIONS_PATH, which is written on every change, so changes are applied
+ * one webhook at a time using the node's version.  Bursts of changes are coalesced into a single pass
+ * on the reconciler thread, and every webhook.reconcileMinutes all webhooks are compared as a safety net.
+ * Leaders are stopped on a shared executor, so a slow stop does not hold up other changes.
+ * <p>
+ * Until every hub writes version nodes, webhook.legacyWatcher also reloads every webhook when WATCHER_PATH changes.
+ */
 public class WebhookManager {
 
     private final static Logger logger = LoggerFactory.getLogger(WebhookManager.class);
 
     private static final String WATCHER_PATH = "/groupCallback/watcher";
+    private static final String VERSIONS_PATH = "/groupCallback/versions";
 
     private final WatchManager watchManager;
     private final Dao<Webhook> webhookDao;
     private final Provider<WebhookLeader> leaderProvider;
+    private final CuratorFramework curator;
     private LastContentPath lastContentPath;
-    private final Map<String, WebhookLeader> activeWebhooks = new HashMap<>();
+    private final Map<String, WebhookLeader> activeWebhooks = new ConcurrentHashMap<>();
+    private final Map<String, Integer> versions = new ConcurrentHashMap<>();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final Set<String> stopping = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean fullPending = new AtomicBoolean();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final ScheduledExecutorService reconciler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("WebhookReconciler-%d").build());
+    private final ExecutorService executor = Executors.newFixedThreadPool(
+            HubProperties.getProperty("webhook.managerThreads", 20),
+            new ThreadFactoryBuilder().setNameFormat("WebhookManager-%d").build());
+    private PathChildrenCache versionCache;
 
     @Inject
     public WebhookManager(WatchManager watchManager, @Named("Webhook") Dao<Webhook> webhookDao,
-                          Provider<WebhookLeader> leaderProvider, LastContentPath lastContentPath) {
+                          Provider<WebhookLeader> leaderProvider, LastContentPath lastContentPath,
+                          CuratorFramework curator) {
         this.watchManager = watchManager;
         this.webhookDao = webhookDao;
         this.leaderProvider = leaderProvider;
         this.lastContentPath = lastContentPath;
+        this.curator = curator;
         register(new WebhookIdleService(), HubServices.TYPE.AFTER_HEALTHY_START, HubServices.TYPE.PRE_STOP);
     }
 
-    private void start() {
+    private void start() throws Exception {
         logger.info("starting");
-        watchManager.register(new Watcher() {
-            @Override
-            public void callback(CuratorEvent event) {
-                manageWebhooks();
-            }
+        try {
+            curator.create().creatingParentsIfNeeded().forPath(VERSIONS_PATH);
+        } catch (KeeperException.NodeExistsException ignore) {
+            //this will typically happen, except the first time
+        }
+        versionCache = new PathChildrenCache(curator, VERSIONS_PATH, false);
+        versionCache.getListenable().addListener((client, event) -> versionEvent(event));
+        versionCache.start(PathChildrenCache.StartMode.BUILD_INITIAL_CACHE);
+        if (HubProperties.getProperty("webhook.legacyWatcher", true)) {
+            watchManager.register(new Watcher() {
+                @Override
+                public void callback(CuratorEvent event) {
+                    reconcileAll();
+                }
 
-            @Override
-            public String getPath() {
-                return WATCHER_PATH;
+                @Override
+                public String getPath() {
+                    return WATCHER_PATH;
+                }
+            });
+        }
+        reconcileAll();
+        int minutes = HubProperties.getProperty("webhook.reconcileMinutes", 10);
+        reconciler.scheduleWithFixedDelay(this::reconcileAll, minutes, minutes, TimeUnit.MINUTES);
+    }
+
+    private void reconcileAll() {
+        fullPending.set(true);
+        schedule();
+    }
+
+    void versionEvent(PathChildrenCacheEvent event) {
+        ChildData data = event.getData();
+        if (data == null) {
+            return;
+        }
+        String name = ZKPaths.getNodeFromPath(data.getPath());
+        if (event.getType().equals(PathChildrenCacheEvent.Type.CHILD_REMOVED)) {
+            versions.remove(name);
+        } else if (data.getStat() != null) {
+            int version = data.getStat().getVersion();
+            Integer seen = versions.put(name, version);
+            if (seen != null && seen >= version) {
+                logger.trace("already seen {} {}", name, version);
+                return;
             }
+        }
+        pending.add(name);
+        schedule();
+    }
 
-        });
-        manageWebhooks();
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            reconciler.submit(this::reconcile);
+        }
     }
 
-    private synchronized void manageWebhooks() {
+    private void reconcile() {
+        scheduled.set(false);
+        try {
+            if (fullPending.getAndSet(false)) {
+                manageWebhooks();
+            }
+            List<String> names = new ArrayList<>(pending);
+            pending.removeAll(names);
+            for (String name : names) {
+                if (stopping.contains(name)) {
+                    logger.debug("waiting for {} to stop", name);
+                    continue;
+                }
+                Webhook webhook = webhookDao.get(name);
+                if (webhook == null) {
+                    stop(name, true);
+                } else {
+                    manageWebhook(webhook);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("unable to reconcile webhooks", e);
+        }
+    }
+
+    private void manageWebhooks() {
         Set<String> webhooksToStop = new HashSet<>(activeWebhooks.keySet());
         Iterable<Webhook> webhooks = webhookDao.getAll(false);
         for (Webhook webhook : webhooks) {
             webhooksToStop.remove(webhook.getName());
-            WebhookLeader activeLeader = activeWebhooks.get(webhook.getName());
-            if (activeLeader == null) {
-                start(webhook);
-            } else if (activeLeader.getWebhook().isChanged(webhook)) {
-                logger.info("changed webhook {}", webhook);
-                activeWebhooks.remove(webhook.getName());
-                activeLeader.exit(false);
-                start(webhook);
-            } else {
-                logger.debug("webhook not changed {}", webhook);
+            if (!stopping.contains(webhook.getName())) {
+                manageWebhook(webhook);
+            }
+        }
+        for (String name : webhooksToStop) {
+            stop(name, true);
+        }
+        if (versionCache != null) {
+            for (ChildData data : versionCache.getCurrentData()) {
+                versions.putIfAbsent(ZKPaths.getNodeFromPath(data.getPath()), data.getStat().getVersion());
             }
         }
-        stop(webhooksToStop, true);
     }
 
-    private void stop(Set<String> webhooksToStop, final boolean delete) {
+    private void manageWebhook(Webhook webhook) {
+        WebhookLeader activeLeader = activeWebhooks.get(webhook.getName());
+        if (activeLeader == null) {
+            start(webhook);
+        } else if (activeLeader.getWebhook().isChanged(webhook)) {
+            logger.info("changed webhook {}", webhook);
+            stop(webhook.getName(), false);
+        } else {
+            logger.debug("webhook not changed {}", webhook);
+        }
+    }
+
+    /**
+     * The webhook is checked again once it has stopped, which restarts it if it has changed.
+     */
+    private void stop(String name, boolean delete) {
+        WebhookLeader webhookLeader = activeWebhooks.remove(name);
+        if (webhookLeader == null) {
+            return;
+        }
+        logger.info("stopping {} delete {}", name, delete);
+        stopping.add(name);
+        executor.submit(() -> {
+            try {
+                webhookLeader.exit(delete);
+            } catch (Exception e) {
+                logger.warn("unable to stop " + name, e);
+            } finally {
+                stopping.remove(name);
+                pending.add(name);
+                schedule();
+            }
+        });
+    }
+
+    private void stopAll() {
+        reconciler.shutdownNow();
         List<Callable<Object>> callables = new ArrayList<>();
-        logger.info("stopping webhooks {}", webhooksToStop);
-        for (String webhook : webhooksToStop) {
+        logger.info("stopping webhooks {}", activeWebhooks.keySet());
+        for (String webhook : new HashSet<>(activeWebhooks.keySet())) {
             logger.info("stopping " + webhook);
             final WebhookLeader webhookLeader = activeWebhooks.remove(webhook);
             callables.add(() -> {
-                webhookLeader.exit(delete);
+                webhookLeader.exit(false);
                 return null;
             });
         }
         try {
-            List<Future<Object>> futures = Executors.newCachedThreadPool().invokeAll(callables, 90, TimeUnit.SECONDS);
+            List<Future<Object>> futures = executor.invokeAll(callables, 90, TimeUnit.SECONDS);
             logger.info("stopped webhook " + futures);
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
         } catch (InterruptedException e) {
             logger.warn("interrupted! ", e);
             throw new RuntimeInterruptedException(e);
@@ -115,7 +250,7 @@ public class WebhookManager {
             webhookLeader = leaderProvider.get();
             webhookLeader.setWebhook(Webhook.builder().name(name).build());
         }
-        notifyWatchers();
+        removeVersion(name);
         if (webhookLeader != null) {
             logger.info("deleting...{}", webhookLeader);
             for (int i = 0; i < 30; i++) {
@@ -131,7 +266,34 @@ public class WebhookManager {
         }
     }
 
-    void notifyWatchers() {
+    /**
+     * Writes the webhook's version node, which every hub reacts to.
+     * The watcher path is also notified for hubs which still reload every webhook.
+     */
+    void notifyWatchers(String name) {
+        String path = ZKPaths.makePath(VERSIONS_PATH, name);
+        try {
+            curator.setData().forPath(path, new byte[0]);
+        } catch (KeeperException.NoNodeException e) {
+            try {
+                curator.create().creatingParentsIfNeeded().forPath(path, new byte[0]);
+            } catch (Exception ex) {
+                logger.warn("unable to create version " + name, ex);
+            }
+        } catch (Exception e) {
+            logger.warn("unable to update version " + name, e);
+        }
+        watchManager.notifyWatcher(WATCHER_PATH);
+    }
+
+    private void removeVersion(String name) {
+        try {
+            curator.delete().forPath(ZKPaths.makePath(VERSIONS_PATH, name));
+        } catch (KeeperException.NoNodeException ignore) {
+            logger.debug("no version for {}", name);
+        } catch (Exception e) {
+            logger.warn("unable to delete version " + name, e);
+        }
         watchManager.notifyWatcher(WATCHER_PATH);
     }
 
@@ -156,7 +318,10 @@ public class WebhookManager {
 
         @Override
         protected void shutDown() throws Exception {
-            stop(new HashSet<>(activeWebhooks.keySet()), false);
+            stopAll();
+            if (versionCache != null) {
+                versionCache.close();
+            }
         }
 
     }
@@ -61,7 +61,7 @@ public class WebhookService {
             lastContentPath.initialize(webhook.getName(), webhook.getStartingKey(), WEBHOOK_LAST_COMPLETED);
         }
         webhookDao.upsert(webhook);
-        webhookManager.notifyWatchers();
+        webhookManager.notifyWatchers(webhook.getName());
         return preExisting;
     }
 
@@ -73,6 +73,13 @@ public class WebhookService {
         return Optional.fromNullable(webhookDao.getCached(name));
     }
 
+    /**
+     * @return the last path the webhook completed, or null
+     */
+    public ContentPath getLastCompleted(String name) {
+        return lastContentPath.getOrNull(name, WEBHOOK_LAST_COMPLETED);
+    }
+
     public Collection<Webhook> getAll() {
         return webhookDao.getAll(false);
     }
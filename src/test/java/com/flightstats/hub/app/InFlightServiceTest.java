@@ -0,0 +1,126 @@
+package com.flightstats.hub.app;
+
+import com.flightstats.hub.app.InFlightService.Admission;
+import com.flightstats.hub.app.InFlightService.Operation;
+import com.flightstats.hub.exception.OverloadedException;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class InFlightServiceTest {
+
+    @Test
+    public void testFairShareRejected() {
+        Admission admission = new Admission(Operation.QUERY, 2, 100, 1);
+        admission.acquire("one");
+        admission.acquire("one");
+        try {
+            admission.acquire("one");
+            fail("expected 429");
+        } catch (OverloadedException e) {
+            assertEquals(429, e.getStatus());
+            assertEquals(1, e.getRetryAfterSeconds());
+        }
+    }
+
+    @Test
+    public void testQueueTimeout() {
+        Admission admission = new Admission(Operation.QUERY, 2, 50, 1);
+        admission.acquire("one");
+        admission.acquire("two");
+        long start = System.currentTimeMillis();
+        try {
+            admission.acquire("three");
+            fail("expected 503");
+        } catch (OverloadedException e) {
+            assertEquals(503, e.getStatus());
+            assertTrue(System.currentTimeMillis() - start >= 50);
+        }
+        admission.release("one");
+        admission.acquire("three");
+        assertEquals(2, admission.getInUse());
+    }
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        Admission admission = new Admission(Operation.QUERY, 4, 5000, 1);
+        for (int i = 0; i < 4; i++) {
+            admission.acquire("busy" + i);
+        }
+        ExecutorService executor = Executors.newCachedThreadPool();
+        List<String> admitted = new CopyOnWriteArrayList<>();
+        for (String channel : new String[]{"a", "a", "b"}) {
+            executor.submit(() -> {
+                admission.acquire(channel);
+                admitted.add(channel);
+                return null;
+            });
+            Thread.sleep(50);
+        }
+        admission.release("busy0");
+        waitFor(admitted, 1);
+        admission.release("busy1");
+        waitFor(admitted, 2);
+        assertEquals("a", admitted.get(0));
+        assertEquals("b", admitted.get(1));
+        admission.release("busy2");
+        waitFor(admitted, 3);
+        assertEquals("a", admitted.get(2));
+        executor.shutdownNow();
+    }
+
+    private static void waitFor(List<String> admitted, int size) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (admitted.size() < size && System.currentTimeMillis() < end) {
+            Thread.sleep(1);
+        }
+        assertEquals(size, admitted.size());
+    }
+
+    @Test
+    public void testRequestsOnly() {
+        InFlightService inFlightService = new InFlightService();
+        InFlightService.Permit internal = inFlightService.acquire(Operation.QUERY, "one");
+        assertEquals(0, inFlightService.getInUse(Operation.QUERY));
+        internal.close();
+
+        inFlightService.requestStarted();
+        try {
+            InFlightService.Permit outer = inFlightService.acquire(Operation.QUERY, "one");
+            InFlightService.Permit nested = inFlightService.acquire(Operation.QUERY, "one");
+            assertEquals(1, inFlightService.getInUse(Operation.QUERY));
+            nested.close();
+            assertEquals(1, inFlightService.getInUse(Operation.QUERY));
+            outer.close();
+            assertEquals(0, inFlightService.getInUse(Operation.QUERY));
+        } finally {
+            inFlightService.requestCompleted();
+        }
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        InFlightService inFlightService = new InFlightService();
+        inFlightService.requestStarted();
+        try {
+            InFlightService.Permit permit = inFlightService.acquire(Operation.BULK_READ, "one");
+            assertEquals(1, inFlightService.getInUse(Operation.BULK_READ));
+            permit.expireAfter(10, TimeUnit.MILLISECONDS);
+            long start = System.currentTimeMillis();
+            while (inFlightService.getInUse(Operation.BULK_READ) > 0 && System.currentTimeMillis() - start < 5000) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, inFlightService.getInUse(Operation.BULK_READ));
+            permit.close();
+            assertEquals(0, inFlightService.getInUse(Operation.BULK_READ));
+        } finally {
+            inFlightService.requestCompleted();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.flightstats.hub.channel;
+
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.dao.ContentDaoUtil;
+import com.flightstats.hub.model.ChannelContentKey;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class TagBulkFetcherTest {
+
+    @Test
+    public void testOrderAndGrouping() {
+        DateTime start = TimeUtil.Unit.MINUTES.round(TimeUtil.now().minusHours(1));
+        SortedSet<ChannelContentKey> keys = new TreeSet<>();
+        for (int minute = 0; minute < 25; minute++) {
+            for (int item = 0; item < 3; item++) {
+                DateTime time = start.plusMinutes(minute).plusSeconds(item);
+                keys.add(new ChannelContentKey("one", new ContentKey(time, "A" + item)));
+                keys.add(new ChannelContentKey("two", new ContentKey(time, "B" + item)));
+            }
+        }
+        ContentKey missing = new ContentKey(start.plusMinutes(3), "missing");
+        keys.add(new ChannelContentKey("one", missing));
+
+        ChannelService channelService = mock(ChannelService.class);
+        doAnswer(invocation -> {
+            SortedSet<ContentKey> requested = (SortedSet<ContentKey>) invocation.getArguments()[1];
+            Consumer<Content> callback = (Consumer<Content>) invocation.getArguments()[2];
+            for (ContentKey key : requested) {
+                if (!key.equals(missing)) {
+                    callback.accept(ContentDaoUtil.createContent(key));
+                }
+            }
+            return null;
+        }).when(channelService).get(anyString(), any(SortedSet.class), any(Consumer.class));
+
+        List<ChannelContentKey> found = Collections.synchronizedList(new ArrayList<>());
+        TagBulkFetcher.fetch(keys, channelService,
+                (channel, content) -> found.add(new ChannelContentKey(channel, content.getContentKey().get())));
+
+        keys.remove(new ChannelContentKey("one", missing));
+        assertEquals(new ArrayList<>(keys), found);
+        verify(channelService, times(50)).get(anyString(), any(SortedSet.class), any(Consumer.class));
+    }
+
+    @Test
+    public void testItemsBoundWindow() {
+        DateTime start = TimeUtil.Unit.MINUTES.round(TimeUtil.now().minusHours(1));
+        SortedSet<ChannelContentKey> keys = new TreeSet<>();
+        for (int minute = 0; minute < 5; minute++) {
+            for (int item = 0; item < 3; item++) {
+                keys.add(new ChannelContentKey("one", new ContentKey(start.plusMinutes(minute).plusSeconds(item), "A" + item)));
+            }
+        }
+        ChannelService channelService = mock(ChannelService.class);
+        AtomicInteger fetched = new AtomicInteger();
+        doAnswer(invocation -> {
+            fetched.incrementAndGet();
+            SortedSet<ContentKey> requested = (SortedSet<ContentKey>) invocation.getArguments()[1];
+            Consumer<Content> callback = (Consumer<Content>) invocation.getArguments()[2];
+            requested.forEach(key -> callback.accept(ContentDaoUtil.createContent(key)));
+            return null;
+        }).when(channelService).get(anyString(), any(SortedSet.class), any(Consumer.class));
+
+        List<Integer> ahead = new ArrayList<>();
+        TagBulkFetcher.fetch(keys, channelService, (channel, content) -> {
+            int minute = (int) new Duration(start, content.getContentKey().get().getTime()).getStandardMinutes();
+            ahead.add(fetched.get() - (minute + 1));
+        }, 10, 5, Long.MAX_VALUE);
+        assertEquals(15, ahead.size());
+        assertEquals(0, (int) Collections.max(ahead));
+    }
+
+    @Test
+    public void testGroupByMinute() {
+        DateTime start = TimeUtil.Unit.MINUTES.round(TimeUtil.now());
+        SortedSet<ChannelContentKey> keys = new TreeSet<>();
+        keys.add(new ChannelContentKey("one", new ContentKey(start, "A")));
+        keys.add(new ChannelContentKey("two", new ContentKey(start.plusSeconds(59), "B")));
+        keys.add(new ChannelContentKey("one", new ContentKey(start.plusMinutes(1), "C")));
+        List<List<ChannelContentKey>> minutes = TagBulkFetcher.groupByMinute(keys);
+        assertEquals(2, minutes.size());
+        assertEquals(2, minutes.get(0).size());
+        assertEquals(1, minutes.get(1).size());
+    }
+}
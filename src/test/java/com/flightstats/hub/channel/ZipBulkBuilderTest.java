@@ -1,8 +1,10 @@
 package com.flightstats.hub.channel;
 
 import com.flightstats.hub.dao.ContentDaoUtil;
+import com.flightstats.hub.dao.ContentMarshaller;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.RawZipOutputStream;
 import com.google.common.io.ByteStreams;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -10,12 +12,16 @@ import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Enumeration;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public class ZipBulkBuilderTest {
 
@@ -24,7 +30,7 @@ public class ZipBulkBuilderTest {
     @Test
     public void testCycle() throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ZipOutputStream output = new ZipOutputStream(baos);
+        RawZipOutputStream output = new RawZipOutputStream(baos);
         ContentKey key = new ContentKey();
         Content content = ContentDaoUtil.createContent(key);
         ZipBulkBuilder.createZipEntry(output, content);
@@ -44,4 +50,64 @@ public class ZipBulkBuilderTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testMarshalledPassthrough() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        RawZipOutputStream output = new RawZipOutputStream(baos);
+        ContentKey first = new ContentKey();
+        byte[] marshalled = ContentMarshaller.toBytes(ContentDaoUtil.createContent(first));
+        Content stored = ContentMarshaller.toContent(marshalled, first);
+        assertTrue(stored.getStream() instanceof ContentMarshaller.MarshalledStream);
+        assertNotNull(ContentMarshaller.getPayloadEntry(marshalled));
+        ZipBulkBuilder.createZipEntry(output, stored);
+        ContentKey second = new ContentKey();
+        ZipBulkBuilder.createZipEntry(output, ContentDaoUtil.createContent(second));
+        output.close();
+        byte[] bytes = baos.toByteArray();
+
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(bytes));
+        for (ContentKey key : new ContentKey[]{first, second}) {
+            ZipEntry entry = zipInputStream.getNextEntry();
+            assertEquals(key.toUrl(), entry.getName());
+            assertEquals("{\"contentType\":\"stuff\"}", new String(entry.getExtra()));
+            assertEquals(key.toUrl(), new String(ByteStreams.toByteArray(zipInputStream)));
+        }
+        assertNull(zipInputStream.getNextEntry());
+
+        File file = File.createTempFile("ZipBulkBuilderTest", ".zip");
+        try {
+            Files.write(file.toPath(), bytes);
+            try (ZipFile zipFile = new ZipFile(file)) {
+                assertEquals(2, zipFile.size());
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    assertEquals(entry.getName(), new String(ByteStreams.toByteArray(zipFile.getInputStream(entry))));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTruncatedAtEntry() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        RawZipOutputStream output = new RawZipOutputStream(baos);
+        ContentKey first = new ContentKey();
+        ZipBulkBuilder.createZipEntry(output, ContentDaoUtil.createContent(first));
+        output.flush();
+        int boundary = baos.size();
+        ZipBulkBuilder.createZipEntry(output, ContentDaoUtil.createContent(new ContentKey()));
+        output.close();
+        byte[] bytes = baos.toByteArray();
+        assertTrue(RawZipOutputStream.isEnd(bytes));
+
+        byte[] truncated = Arrays.copyOf(bytes, boundary);
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(truncated));
+        assertEquals(first.toUrl(), zipInputStream.getNextEntry().getName());
+        assertNull(zipInputStream.getNextEntry());
+        assertFalse(RawZipOutputStream.isEnd(truncated));
+        assertFalse(RawZipOutputStream.isEnd(Arrays.copyOf(bytes, bytes.length - 1)));
+    }
+}
@@ -0,0 +1,65 @@
+package com.flightstats.hub.cluster;
+
+import com.flightstats.hub.test.Integration;
+import com.google.common.collect.Sets;
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LongBlobSetTest {
+
+    @Test
+    public void testCycle() {
+        SortedSet<Long> values = new TreeSet<>(Sets.newHashSet(-5L, 0L, 1L, 127L, 128L, 1500000000000L,
+                1500000000001L, Long.MAX_VALUE, Long.MIN_VALUE));
+        assertEquals(values, LongBlobSet.decode(LongBlobSet.encode(values)));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(LongBlobSet.decode(LongBlobSet.encode(new TreeSet<>())).isEmpty());
+    }
+
+    @Test
+    public void testLegacyData() {
+        assertNull(LongBlobSet.decode(null));
+        assertNull(LongBlobSet.decode(new byte[0]));
+        assertNull(LongBlobSet.decode("10.1.2.3".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testConvertsLongSet() throws Exception {
+        CuratorFramework curator = Integration.startZooKeeper();
+        String path = "/test/longs/convert";
+        LongSet.delete(path, curator);
+        LongSet longSet = new LongSet(path, curator);
+        longSet.add(100L);
+        longSet.add(101L);
+        LongBlobSet blobSet = new LongBlobSet(path, curator);
+        assertEquals(Sets.newHashSet(100L, 101L), blobSet.getSet());
+
+        blobSet.add(102L);
+        assertEquals(Sets.newHashSet(100L, 101L, 102L), blobSet.getSet());
+        assertTrue(curator.getChildren().forPath(path).isEmpty());
+        LongBlobSet.delete(path, curator);
+    }
+
+    @Test
+    public void testCompact() {
+        SortedSet<Long> values = new TreeSet<>();
+        long start = 1500000000000L;
+        for (int i = 0; i < 1000; i++) {
+            values.add(start + i * 10);
+        }
+        byte[] bytes = LongBlobSet.encode(values);
+        assertTrue(bytes.length < 1100);
+        assertEquals(values, LongBlobSet.decode(bytes));
+    }
+}
@@ -0,0 +1,109 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.DirectionQuery;
+import com.flightstats.hub.model.Location;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ChannelEarliestTest {
+
+    private static final String ALL_PATH = "/ChannelEarliest/ALL/";
+
+    private LastContentPath lastContentPath;
+    private ChannelEarliest channelEarliest;
+    private DateTime ttlTime;
+
+    @Before
+    public void setUp() {
+        lastContentPath = mock(LastContentPath.class);
+        channelEarliest = new ChannelEarliest(lastContentPath);
+        ttlTime = TimeUtil.now().minusDays(10);
+    }
+
+    private DirectionQuery query(ContentKey startKey) {
+        return DirectionQuery.builder()
+                .channelName("earliest")
+                .channelConfig(ChannelConfig.builder().name("earliest").ttlDays(10).build())
+                .startKey(startKey)
+                .earliestTime(ttlTime)
+                .next(true)
+                .count(10)
+                .build();
+    }
+
+    @Test
+    public void testStartWithoutMarker() {
+        DirectionQuery query = query(new ContentKey(ttlTime, "0"));
+        assertEquals(new ContentKey(ttlTime, "0"), channelEarliest.getStart(query));
+    }
+
+    @Test
+    public void testStartFromCachedMarker() {
+        DateTime marker = TimeUtil.now().minusDays(2);
+        when(lastContentPath.get(eq("earliest"), any(), eq(ALL_PATH))).thenReturn(new ContentKey(marker, "abc"));
+        DirectionQuery query = query(new ContentKey(ttlTime, "0"));
+        assertEquals(new ContentKey(marker, "0"), channelEarliest.getStart(query));
+        assertEquals(new ContentKey(marker, "0"), channelEarliest.getStart(query));
+        verify(lastContentPath, times(1)).get(anyString(), any(), anyString());
+    }
+
+    @Test
+    public void testUpdateFromEarliestStart() {
+        ContentKey first = new ContentKey(TimeUtil.now().minusDays(5), "a");
+        channelEarliest.update(query(new ContentKey(ttlTime, "0")), keys(first));
+        verify(lastContentPath).updateIncrease(first, "earliest", ALL_PATH);
+    }
+
+    @Test
+    public void testUpdateSkipsRecentKeys() {
+        ContentKey first = new ContentKey(TimeUtil.now().minusSeconds(5), "a");
+        channelEarliest.update(query(new ContentKey(ttlTime, "0")), keys(first));
+        verify(lastContentPath, never()).updateIncrease(any(ContentPath.class), anyString(), anyString());
+    }
+
+    @Test
+    public void testUpdateSkipsOtherStarts() {
+        ContentKey first = new ContentKey(TimeUtil.now().minusDays(5), "a");
+        channelEarliest.update(query(new ContentKey(ttlTime.plusDays(1), "0")), keys(first));
+        channelEarliest.update(query(new ContentKey(ttlTime, "0")).withLocation(Location.CACHE), keys(first));
+        channelEarliest.update(query(new ContentKey(ttlTime, "0")).withNext(false), keys(first));
+        verify(lastContentPath, never()).updateIncrease(any(ContentPath.class), anyString(), anyString());
+    }
+
+    @Test
+    public void testAdvanceExistingMarkers() {
+        DateTime marker = TimeUtil.now().minusDays(9);
+        when(lastContentPath.get(eq("earliest"), any(), eq(ALL_PATH))).thenReturn(new ContentKey(marker, "abc"));
+        DirectionQuery query = query(new ContentKey(ttlTime, "0"));
+        assertEquals(new ContentKey(marker, "0"), channelEarliest.getStart(query));
+
+        DateTime limit = TimeUtil.now().minusDays(8);
+        ContentKey limitKey = new ContentKey(limit, "0");
+        channelEarliest.advance("earliest", limitKey);
+        verify(lastContentPath).updateIncrease(limitKey, "earliest", ALL_PATH);
+        verify(lastContentPath, times(1)).updateIncrease(any(ContentPath.class), anyString(), anyString());
+
+        when(lastContentPath.get(eq("earliest"), any(), eq(ALL_PATH))).thenReturn(limitKey);
+        assertEquals(limitKey, channelEarliest.getStart(query));
+    }
+
+    private SortedSet<ContentKey> keys(ContentKey... keys) {
+        return new TreeSet<>(Arrays.asList(keys));
+    }
+}
@@ -0,0 +1,74 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.cluster.CuratorCluster;
+import com.flightstats.hub.dao.ChannelRateLimiter.TokenBucket;
+import com.flightstats.hub.exception.OverloadedException;
+import com.flightstats.hub.model.ChannelConfig;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class ChannelRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurst() {
+        TokenBucket bucket = new TokenBucket();
+        long now = 0;
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, bucket.tryAcquire(1, 10, SECOND, now));
+        }
+        long wait = bucket.tryAcquire(1, 10, SECOND, now);
+        assertTrue(wait > 0);
+        assertTrue(wait <= SECOND / 5);
+        assertEquals(0, bucket.tryAcquire(1, 10, SECOND, now + wait));
+    }
+
+    @Test
+    public void testRefill() {
+        TokenBucket bucket = new TokenBucket();
+        long now = 0;
+        for (int i = 0; i < 10; i++) {
+            bucket.tryAcquire(1, 10, SECOND, now);
+        }
+        now += 2 * SECOND;
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, bucket.tryAcquire(1, 10, SECOND, now));
+        }
+    }
+
+    @Test
+    public void testLargeCostWhenFull() {
+        TokenBucket bucket = new TokenBucket();
+        assertEquals(0, bucket.tryAcquire(1000, 10, SECOND, 0));
+        assertTrue(bucket.tryAcquire(1, 10, SECOND, SECOND) > 0);
+        assertEquals(0, bucket.tryAcquire(1, 10, SECOND, 100 * SECOND));
+    }
+
+    @Test
+    public void testRejectedBytesKeepItems() {
+        ChannelRateLimiter limiter = new ChannelRateLimiter(mock(CuratorCluster.class));
+        ChannelConfig channel = ChannelConfig.builder().name("both")
+                .maxItemsPerSecond(2).maxBytesPerSecond(100).build();
+        limiter.check(channel, 0, 100);
+        assertRejected(limiter, channel, 1, 100);
+        limiter.check(channel, 1, 0);
+        limiter.check(channel, 1, 0);
+        assertRejected(limiter, channel, 1, 0);
+    }
+
+    private void assertRejected(ChannelRateLimiter limiter, ChannelConfig channel, long items, long bytes) {
+        try {
+            limiter.check(channel, items, bytes);
+            fail("expected 429");
+        } catch (OverloadedException e) {
+            assertEquals(429, e.getStatus());
+        }
+    }
+}
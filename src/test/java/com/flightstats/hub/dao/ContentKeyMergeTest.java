@@ -0,0 +1,50 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ContentKeyMergeTest {
+
+    @Test
+    public void testMergeDistinct() {
+        DateTime start = TimeUtil.now();
+        List<ContentKey> all = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            all.add(new ContentKey(start.plusMinutes(i), "A" + i));
+        }
+        SortedSet<ContentKey> first = new TreeSet<>(all.subList(0, 6));
+        SortedSet<ContentKey> second = Collections.synchronizedSortedSet(new TreeSet<>(all.subList(4, 10)));
+        ContentKeyMerge merge = new ContentKeyMerge(Arrays.asList(first, second, new TreeSet<>()));
+
+        assertEquals(all, merge.stream(true).collect(Collectors.toList()));
+        List<ContentKey> reversed = new ArrayList<>(all);
+        Collections.reverse(reversed);
+        assertEquals(reversed, merge.stream(false).collect(Collectors.toList()));
+        assertEquals(10, merge.size());
+        assertEquals(all.get(0), merge.iterator().next());
+        assertTrue(new ContentKeyMerge(Collections.singletonList(new TreeSet<>())).isEmpty());
+    }
+
+    @Test
+    public void testQueryResult() {
+        DateTime start = TimeUtil.now();
+        ContentKey one = new ContentKey(start, "1");
+        ContentKey two = new ContentKey(start.plusSeconds(1), "2");
+        QueryResult queryResult = new QueryResult(2);
+        queryResult.addKeys(new TreeSet<>(Arrays.asList(one, two)));
+        queryResult.addKeys(Collections.singletonList(two));
+        queryResult.close();
+        queryResult.addKeys(Collections.singletonList(new ContentKey(start.plusSeconds(2), "3")));
+        assertTrue(queryResult.isComplete());
+        assertEquals(Arrays.asList(one, two), new ArrayList<>(queryResult.getMergedKeys()));
+        assertEquals(2, queryResult.getContentKeys().size());
+    }
+}
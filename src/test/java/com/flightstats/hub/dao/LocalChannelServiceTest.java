@@ -0,0 +1,97 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.app.InFlightService;
+import com.flightstats.hub.channel.ChannelValidator;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.metrics.MetricsSender;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.DirectionQuery;
+import com.flightstats.hub.replication.ReplicationGlobalManager;
+import com.flightstats.hub.time.TimeService;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Names;
+import com.google.inject.util.Providers;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LocalChannelServiceTest {
+
+    private LastContentPath lastContentPath;
+    private LocalChannelService channelService;
+    private DateTime ttlTime;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        lastContentPath = mock(LastContentPath.class);
+        Dao<ChannelConfig> channelConfigDao = mock(Dao.class);
+        ChannelConfig channelConfig = ChannelConfig.builder().name("configure").ttlDays(10).build();
+        ttlTime = channelConfig.getTtlTime();
+        when(channelConfigDao.getCached("configure")).thenReturn(channelConfig);
+        channelService = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ContentService.class).toInstance(mock(ContentService.class));
+                bind(new TypeLiteral<Dao<ChannelConfig>>() {
+                }).annotatedWith(Names.named("ChannelConfig")).toInstance(channelConfigDao);
+                bind(ChannelValidator.class).toInstance(mock(ChannelValidator.class));
+                bind(ReplicationGlobalManager.class).toInstance(mock(ReplicationGlobalManager.class));
+                bind(MetricsSender.class).toInstance(mock(MetricsSender.class));
+                bind(LastContentPath.class).toInstance(lastContentPath);
+                bind(InFlightService.class).toInstance(mock(InFlightService.class));
+                bind(TimeService.class).toProvider(Providers.of(mock(TimeService.class)));
+                bind(ChannelRateLimiter.class).toInstance(mock(ChannelRateLimiter.class));
+            }
+        }).getInstance(LocalChannelService.class);
+    }
+
+    private DirectionQuery query(ContentKey startKey, boolean next) {
+        return DirectionQuery.builder()
+                .channelName("configure")
+                .startKey(startKey)
+                .next(next)
+                .count(10)
+                .build();
+    }
+
+    @Test
+    public void testNextFromTtl() {
+        DirectionQuery query = channelService.configureQuery(query(new ContentKey(TimeUtil.BIG_BANG, "0"), true));
+        assertEquals(new ContentKey(query.getEarliestTime(), "0"), query.getStartKey());
+        assertFalse(query.getEarliestTime().isBefore(ttlTime));
+    }
+
+    @Test
+    public void testNextFromEarliest() {
+        DateTime marker = TimeUtil.now().minusDays(3);
+        when(lastContentPath.get(eq("configure"), any(), eq("/ChannelEarliest/ALL/"))).thenReturn(new ContentKey(marker, "abc"));
+        DirectionQuery query = channelService.configureQuery(query(new ContentKey(TimeUtil.BIG_BANG, "0"), true));
+        assertEquals(new ContentKey(marker, "0"), query.getStartKey());
+
+        ContentKey later = new ContentKey(marker.plusDays(1), "abc");
+        assertEquals(later, channelService.configureQuery(query(later, true)).getStartKey());
+    }
+
+    @Test
+    public void testPreviousIgnoresEarliest() {
+        DateTime marker = TimeUtil.now().minusDays(3);
+        when(lastContentPath.get(eq("configure"), any(), eq("/ChannelEarliest/ALL/"))).thenReturn(new ContentKey(marker, "abc"));
+        ContentKey start = new ContentKey(marker.minusDays(1), "abc");
+        assertEquals(start, channelService.configureQuery(query(start, false)).getStartKey());
+
+        DirectionQuery query = channelService.configureQuery(query(new ContentKey(TimeUtil.BIG_BANG, "0"), false));
+        assertEquals(new ContentKey(query.getEarliestTime(), "0"), query.getStartKey());
+    }
+}
@@ -0,0 +1,77 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.cluster.CuratorCluster;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.dao.ContentDao;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.DirectionQuery;
+import com.flightstats.hub.time.TimeService;
+import com.flightstats.hub.util.HubUtils;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.name.Names;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ClusterContentServiceTest {
+
+    private ContentDao spokeContentDao;
+    private ClusterContentService contentService;
+
+    @Before
+    public void setUp() {
+        spokeContentDao = mock(ContentDao.class);
+        ChannelService channelService = mock(ChannelService.class);
+        when(channelService.getCachedChannelConfig(anyString()))
+                .thenReturn(ChannelConfig.builder().name("indexed").build());
+        when(channelService.getLastUpdated(anyString(), any(ContentKey.class))).thenReturn(new ContentKey());
+        CuratorCluster cluster = mock(CuratorCluster.class);
+        when(cluster.getRandomRemoteServers()).thenReturn(new ArrayList<>());
+        LatestKeyIndex latestKeyIndex = new LatestKeyIndex(cluster, mock(TimeService.class));
+        contentService = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ContentDao.class).annotatedWith(Names.named(ContentDao.CACHE)).toInstance(spokeContentDao);
+                bind(ContentDao.class).annotatedWith(Names.named(ContentDao.SINGLE_LONG_TERM)).toInstance(mock(ContentDao.class));
+                bind(ContentDao.class).annotatedWith(Names.named(ContentDao.BATCH_LONG_TERM)).toInstance(mock(ContentDao.class));
+                bind(ChannelService.class).toInstance(channelService);
+                bind(LastContentPath.class).toInstance(mock(LastContentPath.class));
+                bind(S3WriteQueue.class).toInstance(mock(S3WriteQueue.class));
+                bind(HubUtils.class).toInstance(mock(HubUtils.class));
+                bind(S3Digests.class).toInstance(mock(S3Digests.class));
+                bind(ItemCounts.class).toInstance(mock(ItemCounts.class));
+                bind(LatestKeyIndex.class).toInstance(latestKeyIndex);
+            }
+        }).getInstance(ClusterContentService.class);
+    }
+
+    @Test
+    public void testInsertThenLatest() throws Exception {
+        Content content = Content.builder().withContentType("text/plain").withData("data".getBytes()).build();
+        when(spokeContentDao.insert(anyString(), any(Content.class))).thenAnswer(invocation -> content.getContentKey().get());
+        ContentKey key = contentService.insertNew(() -> TimeUtil.now().minusSeconds(5), now -> {
+            content.keyAndStart(now);
+            return contentService.insert("indexed", content);
+        });
+
+        DirectionQuery query = DirectionQuery.builder()
+                .channelName("indexed")
+                .startKey(ContentKey.lastKey(TimeUtil.now().minusSeconds(1)))
+                .next(false)
+                .count(1)
+                .build();
+        assertEquals(key, contentService.getLatest(query).get());
+        verify(spokeContentDao, never()).getLatest(anyString(), any(ContentKey.class), any());
+    }
+}
@@ -0,0 +1,92 @@
+package com.flightstats.hub.dao.aws;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flightstats.hub.cluster.CuratorCluster;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.time.TimeService;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LatestKeyIndexTest {
+
+    private CuratorCluster cluster;
+    private LatestKeyIndex index;
+    private DateTime now;
+
+    @Before
+    public void setUp() {
+        cluster = mock(CuratorCluster.class);
+        when(cluster.getRandomRemoteServers()).thenReturn(new ArrayList<>());
+        index = new LatestKeyIndex(cluster, mock(TimeService.class));
+        now = TimeUtil.now();
+    }
+
+    @Test
+    public void testLocal() {
+        ContentKey key = new ContentKey(now.minusSeconds(10), "A");
+        Object token = index.started();
+        index.inserted("local", key);
+        index.completed(token);
+        ContentKey limit = ContentKey.lastKey(now.minusSeconds(1));
+        assertEquals(key, index.getLatest("local", limit).get());
+        assertFalse(index.getLatest("local", ContentKey.lastKey(now.minusSeconds(20))).isPresent());
+        assertFalse(index.getLatest("local", ContentKey.lastKey(now.plusMinutes(1))).isPresent());
+        assertFalse(index.getLatest("other", limit).isPresent());
+    }
+
+    @Test
+    public void testInFlight() {
+        ContentKey key = new ContentKey(now.minusSeconds(10), "A");
+        index.inserted("inFlight", key);
+        Object token = index.started();
+        assertFalse(index.getLatest("inFlight", ContentKey.lastKey(now.minusSeconds(1))).isPresent());
+        DateTime time = index.getTime(token, () -> now.minusSeconds(5));
+        assertEquals(now.minusSeconds(5), time);
+        assertEquals(key, index.getLatest("inFlight", ContentKey.lastKey(now.minusSeconds(6))).get());
+        assertFalse(index.getLatest("inFlight", ContentKey.lastKey(now.minusSeconds(1))).isPresent());
+        index.completed(token);
+        assertEquals(key, index.getLatest("inFlight", ContentKey.lastKey(now.minusSeconds(1))).get());
+    }
+
+    @Test
+    public void testRemoteTime() {
+        TimeService timeService = mock(TimeService.class);
+        when(timeService.isRemote()).thenReturn(true);
+        index = new LatestKeyIndex(cluster, timeService);
+        index.inserted("remoteTime", new ContentKey(now.minusSeconds(10), "A"));
+        assertFalse(index.getLatest("remoteTime", ContentKey.lastKey(now.minusSeconds(1))).isPresent());
+    }
+
+    @Test
+    public void testRemote() throws Exception {
+        when(cluster.getRandomRemoteServers()).thenReturn(new ArrayList<>(Collections.singletonList("remote:8080")));
+        ContentKey key = new ContentKey(now.minusSeconds(10), "B");
+        index.inserted("remote", new ContentKey(now.minusSeconds(20), "A"));
+        ContentKey limit = ContentKey.lastKey(now.minusSeconds(5));
+        assertFalse(index.getLatest("remote", limit).isPresent());
+
+        ObjectMapper mapper = new ObjectMapper();
+        String gossip = "{\"server\":\"remote:8080\",\"watermark\":" + now.minusSeconds(6).getMillis()
+                + ",\"latest\":{\"remote\":\"" + key.toUrl() + "\"},\"deleted\":[]}";
+        index.receive(mapper.readTree(gossip));
+        assertFalse(index.getLatest("remote", limit).isPresent());
+
+        gossip = "{\"server\":\"remote:8080\",\"watermark\":" + now.getMillis() + ",\"latest\":{},\"deleted\":[]}";
+        index.receive(mapper.readTree(gossip));
+        assertEquals(key, index.getLatest("remote", limit).get());
+
+        gossip = "{\"server\":\"remote:8080\",\"watermark\":" + now.getMillis() + ",\"latest\":{},\"deleted\":[\"remote\"]}";
+        index.receive(mapper.readTree(gossip));
+        assertFalse(index.getLatest("remote", limit).isPresent());
+    }
+}
@@ -0,0 +1,90 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.model.TimeQuery;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class MaxItemsEnforcerTest {
+
+    @Test
+    public void testFindCutoff() {
+        DateTime start = TimeUtil.now().minusHours(1);
+        SortedMap<MinutePath, Long> counts = new TreeMap<>();
+        for (int i = 0; i < 10; i++) {
+            counts.put(new MinutePath(start.plusMinutes(i)), 10L);
+        }
+        assertNull(MaxItemsEnforcer.findCutoff(counts, 101));
+
+        Map.Entry<MinutePath, Long> all = MaxItemsEnforcer.findCutoff(counts, 100);
+        assertEquals(new MinutePath(start), all.getKey());
+        assertEquals(10L, (long) all.getValue());
+
+        Map.Entry<MinutePath, Long> partial = MaxItemsEnforcer.findCutoff(counts, 25);
+        assertEquals(new MinutePath(start.plusMinutes(7)), partial.getKey());
+        assertEquals(5L, (long) partial.getValue());
+
+        Map.Entry<MinutePath, Long> exact = MaxItemsEnforcer.findCutoff(counts, 20);
+        assertEquals(new MinutePath(start.plusMinutes(8)), exact.getKey());
+        assertEquals(10L, (long) exact.getValue());
+    }
+
+    @Test
+    public void testOverstatedCounts() {
+        ItemCounts itemCounts = mock(ItemCounts.class);
+        ChannelService channelService = mock(ChannelService.class);
+        MaxItemsEnforcer enforcer = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ItemCounts.class).toInstance(itemCounts);
+                bind(ChannelService.class).toInstance(channelService);
+                bind(LastContentPath.class).toInstance(mock(LastContentPath.class));
+            }
+        }).getInstance(MaxItemsEnforcer.class);
+        ChannelConfig channel = ChannelConfig.builder().name("overstated").maxItems(15).build();
+        DateTime start = TimeUtil.now().minusHours(1);
+        SortedMap<MinutePath, Long> counts = new TreeMap<>();
+        counts.put(new MinutePath(start), 10L);
+        counts.put(new MinutePath(start.plusMinutes(1)), 10L);
+        when(itemCounts.get("overstated")).thenReturn(counts);
+        SortedSet<ContentKey> keys = new TreeSet<>();
+        keys.add(new ContentKey(start, "A"));
+        keys.add(new ContentKey(start, "B"));
+        when(channelService.queryByTime(any(TimeQuery.class))).thenReturn(keys);
+
+        assertFalse(enforcer.enforce(channel));
+        verify(itemCounts).set("overstated", new MinutePath(start), 2);
+        verify(channelService, never()).deleteBefore(anyString(), any(ContentKey.class));
+    }
+
+    @Test
+    public void testCountsFormat() {
+        SortedMap<Integer, Long> counts = new TreeMap<>();
+        counts.put(0, 5L);
+        counts.put(59, 12345L);
+        String value = ItemCounts.toString(counts);
+        assertEquals("0:5,59:12345", value);
+        assertEquals(counts, ItemCounts.fromString(value));
+        assertEquals(0, ItemCounts.fromString("").size());
+    }
+}
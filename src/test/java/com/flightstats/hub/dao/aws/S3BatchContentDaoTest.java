@@ -7,6 +7,7 @@ import com.flightstats.hub.dao.ContentDaoUtil;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.NoOpMetricsSender;
 import com.flightstats.hub.model.*;
+import com.flightstats.hub.util.RawZipOutputStream;
 import com.flightstats.hub.util.TimeUtil;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.joda.time.DateTime;
@@ -15,13 +16,13 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.zip.ZipOutputStream;
 
 import static org.junit.Assert.*;
 
@@ -60,6 +61,21 @@ public class S3BatchContentDaoTest {
         assertCount(channel, pathAndKeys, 4);
     }
 
+    @Test
+    public void testBatchStreamWriteRead() throws Exception {
+        String channel = "testBatchStreamWriteRead";
+        MinutePath minutePath = new MinutePath();
+        List<ContentKey> keys = createKeys(minutePath, 5);
+        contentDao.writeBatch(channel, minutePath, keys, new ByteArrayInputStream(createZip(keys)));
+
+        for (ContentKey key : keys) {
+            Content read = contentDao.get(channel, key);
+            assertEquals(key, read.getContentKey().get());
+            assertArrayEquals(ContentDaoUtil.createContent(key).getData(), read.getData());
+        }
+        assertCount(channel, new MinutePath(minutePath.getTime(), keys), 5);
+    }
+
     private void assertCount(String channel, MinutePath pathAndKeys, int expected) {
         AtomicInteger count = new AtomicInteger();
         contentDao.streamMinute(channel, pathAndKeys, content -> {
@@ -73,23 +89,31 @@ public class S3BatchContentDaoTest {
     }
 
     private List<ContentKey> writeBatchMinute(String channel, MinutePath minutePath, int count) throws IOException {
+        List<ContentKey> keys = createKeys(minutePath, count);
+        byte[] bytes = createZip(keys);
+        contentDao.writeBatch(channel, minutePath, keys, bytes);
+        return keys;
+    }
+
+    private List<ContentKey> createKeys(MinutePath minutePath, int count) {
         List<ContentKey> keys = new ArrayList<>();
         for (int i = 0; i < count; i++) {
             ContentKey contentKey = new ContentKey(minutePath.getTime().plusSeconds(i), "" + i);
             keys.add(contentKey);
             logger.info("adding {}", contentKey);
         }
+        return keys;
+    }
+
+    private byte[] createZip(List<ContentKey> keys) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ZipOutputStream output = new ZipOutputStream(baos);
+        RawZipOutputStream output = new RawZipOutputStream(baos);
         for (ContentKey key : keys) {
             Content content = ContentDaoUtil.createContent(key);
             ZipBulkBuilder.createZipEntry(output, content);
         }
         output.close();
-
-        byte[] bytes = baos.toByteArray();
-        contentDao.writeBatch(channel, minutePath, keys, bytes);
-        return keys;
+        return baos.toByteArray();
     }
 
     @Test
@@ -34,6 +34,33 @@ public class S3ConfigStrategyTest {
         verify(100, 1);
     }
 
+    @Test
+    public void testCompacted() {
+        List<ChannelConfig> configs = new ArrayList<>();
+        configs.add(ChannelConfig.builder().name("single").build());
+        configs.add(ChannelConfig.builder().name("batch").storage(ChannelConfig.BATCH).build());
+        List<String> ids = S3ConfigStrategy.apportion(configs, new DateTime(), 100, true).stream()
+                .map(BucketLifecycleConfiguration.Rule::getId).collect(Collectors.toList());
+        assertEquals(3, ids.size());
+        assertTrue(ids.contains("single"));
+        assertTrue(ids.contains("singleBatch"));
+        assertTrue(ids.contains("batchBatch"));
+        assertEquals(2, S3ConfigStrategy.apportion(configs, new DateTime(), 100, false).size());
+    }
+
+    @Test
+    public void testCompactedMax() {
+        for (int i = 0; i < 100; i++) {
+            channelConfigs.add(ChannelConfig.builder().name(RandomStringUtils.randomAlphanumeric(10)).build());
+        }
+        for (int i = 0; i < 3; i++) {
+            List<BucketLifecycleConfiguration.Rule> rules = S3ConfigStrategy.apportion(channelConfigs, new DateTime(2016, 1, 2 * i + 1, 1, 1), 100, true);
+            assertEquals(100, rules.size());
+            allRules.addAll(rules.stream().map(BucketLifecycleConfiguration.Rule::getId).collect(Collectors.toList()));
+        }
+        assertEquals(200, allRules.size());
+    }
+
     private void verify(int channels, int iterations) {
         List<String> names = new ArrayList<>();
         for (int i = 0; i < channels; i++) {
@@ -50,7 +77,7 @@ public class S3ConfigStrategyTest {
 
     private void addRuleNames(DateTime timeForSharding) {
         int max = 100;
-        List<BucketLifecycleConfiguration.Rule> rules = S3ConfigStrategy.apportion(channelConfigs, timeForSharding, max);
+        List<BucketLifecycleConfiguration.Rule> rules = S3ConfigStrategy.apportion(channelConfigs, timeForSharding, max, false);
         assertEquals(max, rules.size());
         allRules.addAll(rules.stream().map(BucketLifecycleConfiguration.Rule::getId).collect(Collectors.toList()));
     }
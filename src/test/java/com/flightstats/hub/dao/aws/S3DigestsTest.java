@@ -0,0 +1,38 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.model.MinuteDigest;
+import com.flightstats.hub.model.MinutePath;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class S3DigestsTest {
+
+    private final DateTime hour = new DateTime(2017, 1, 2, 3, 0, DateTimeZone.UTC);
+
+    @Test
+    public void testCycle() {
+        SortedMap<MinutePath, MinuteDigest> digests = new TreeMap<>();
+        digests.put(new MinutePath(hour), new MinuteDigest(2, -12345));
+        digests.put(new MinutePath(hour.plusMinutes(59)), new MinuteDigest(1, 678));
+        assertEquals(digests, S3Digests.decode(S3Digests.encode(digests)));
+    }
+
+    @Test
+    public void testIgnoresMinuteFormat() {
+        assertTrue(S3Digests.decode("2:12345").isEmpty());
+        assertTrue(S3Digests.decode("").isEmpty());
+    }
+
+    @Test
+    public void testHour() {
+        assertEquals(new MinutePath(hour), S3Digests.getHour(new MinutePath(hour.plusMinutes(37))));
+        assertEquals(new MinutePath(hour), S3Digests.getHour(new MinutePath(hour)));
+    }
+}
@@ -0,0 +1,96 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class S3MultipartOutputStreamTest {
+
+    @Test
+    public void testSmallObject() throws Exception {
+        AmazonS3 s3Client = mock(AmazonS3.class);
+        S3MultipartOutputStream output = new S3MultipartOutputStream(s3Client, "bucket", "key", 10, false);
+        output.write("12345".getBytes());
+        output.close();
+        ArgumentCaptor<PutObjectRequest> captor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(s3Client).putObject(captor.capture());
+        assertEquals(5, captor.getValue().getMetadata().getContentLength());
+        assertArrayEquals("12345".getBytes(), ByteStreams.toByteArray(captor.getValue().getInputStream()));
+        verify(s3Client, never()).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void testParts() throws Exception {
+        AmazonS3 s3Client = mock(AmazonS3.class);
+        InitiateMultipartUploadResult initiated = new InitiateMultipartUploadResult();
+        initiated.setUploadId("upload");
+        when(s3Client.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(initiated);
+        ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+        when(s3Client.uploadPart(any(UploadPartRequest.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = (UploadPartRequest) invocation.getArguments()[0];
+            uploaded.write(ByteStreams.toByteArray(request.getInputStream()));
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag("etag" + request.getPartNumber());
+            return result;
+        });
+
+        S3MultipartOutputStream output = new S3MultipartOutputStream(s3Client, "bucket", "key", 10, true);
+        byte[] bytes = "0123456789abcdefghijklmnopqrstuvw".getBytes();
+        output.write(bytes, 0, 12);
+        output.write(bytes[12]);
+        output.write(bytes, 13, bytes.length - 13);
+        output.close();
+
+        assertArrayEquals(bytes, uploaded.toByteArray());
+        assertEquals(bytes.length, output.getBytesWritten());
+        ArgumentCaptor<CompleteMultipartUploadRequest> captor = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(s3Client).completeMultipartUpload(captor.capture());
+        List<PartETag> partETags = captor.getValue().getPartETags();
+        assertEquals(4, partETags.size());
+        assertEquals(4, partETags.get(3).getPartNumber());
+        verify(s3Client, never()).putObject(any(PutObjectRequest.class));
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        AmazonS3 s3Client = mock(AmazonS3.class);
+        InitiateMultipartUploadResult initiated = new InitiateMultipartUploadResult();
+        initiated.setUploadId("upload");
+        when(s3Client.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(initiated);
+        when(s3Client.uploadPart(any(UploadPartRequest.class))).thenReturn(new UploadPartResult());
+        S3MultipartOutputStream output = new S3MultipartOutputStream(s3Client, "bucket", "key", 4, false);
+        output.write("123456".getBytes());
+        output.abort();
+        output.close();
+        verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void testGrowsToPart() throws Exception {
+        AmazonS3 s3Client = mock(AmazonS3.class);
+        S3MultipartOutputStream output = new S3MultipartOutputStream(s3Client, "bucket", "key", 1024 * 1024, false);
+        byte[] bytes = new byte[200 * 1024];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        output.write(bytes, 0, 100);
+        output.write(bytes, 100, bytes.length - 100);
+        output.close();
+        ArgumentCaptor<PutObjectRequest> captor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(s3Client).putObject(captor.capture());
+        assertEquals(bytes.length, captor.getValue().getMetadata().getContentLength());
+        assertArrayEquals(bytes, ByteStreams.toByteArray(captor.getValue().getInputStream()));
+    }
+}
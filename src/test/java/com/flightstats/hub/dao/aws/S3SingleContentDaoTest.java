@@ -6,11 +6,18 @@ import com.flightstats.hub.dao.ContentDaoUtil;
 import com.flightstats.hub.metrics.NoOpMetricsSender;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
 import static org.junit.Assert.assertEquals;
 
 public class S3SingleContentDaoTest {
@@ -55,6 +62,33 @@ public class S3SingleContentDaoTest {
         util.testQuery15Minutes();
     }
 
+    @Test
+    public void testSubPaths() {
+        DateTime startTime = new DateTime(2016, 3, 4, 5, 6, 7, DateTimeZone.UTC);
+        List<String> hours = S3SingleContentDao.getSubPaths(startTime, TimeUtil.Unit.DAYS, TimeUtil.Unit.HOURS);
+        assertEquals(24, hours.size());
+        assertEquals("2016/03/04/00", hours.get(0));
+        assertEquals("2016/03/04/23", hours.get(23));
+        List<String> minutes = S3SingleContentDao.getSubPaths(startTime, TimeUtil.Unit.HOURS, TimeUtil.Unit.MINUTES);
+        assertEquals(60, minutes.size());
+        assertEquals("2016/03/04/05/00", minutes.get(0));
+        assertEquals("2016/03/04/05/59", minutes.get(59));
+    }
+
+    @Test
+    public void testTrim() {
+        SortedSet<ContentKey> keys = new TreeSet<>();
+        DateTime start = TimeUtil.now();
+        for (int i = 0; i < 10; i++) {
+            keys.add(new ContentKey(start.plusMillis(i), "" + i));
+        }
+        assertEquals(10, S3SingleContentDao.trim(keys, 20).size());
+        SortedSet<ContentKey> trimmed = S3SingleContentDao.trim(keys, 4);
+        assertEquals(4, trimmed.size());
+        assertEquals(keys.first(), trimmed.first());
+        assertEquals(new ContentKey(start.plusMillis(3), "3"), trimmed.last());
+    }
+
     @Test
     public void testDirectionQuery() throws Exception {
         util.testDirectionQuery();
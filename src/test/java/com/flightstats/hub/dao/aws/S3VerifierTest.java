@@ -19,6 +19,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static com.flightstats.hub.dao.LocalChannelService.REPLICATED_LAST_UPDATED;
+import static com.flightstats.hub.dao.aws.S3Verifier.LAST_SINGLE_CONFIRMED;
 import static com.flightstats.hub.dao.aws.S3Verifier.LAST_SINGLE_VERIFIED;
 import static org.junit.Assert.assertEquals;
 
@@ -73,6 +74,19 @@ public class S3VerifierTest {
         assertEquals(lastVerified, range.startPath);
     }
 
+    @Test
+    public void testSingleUnconfirmed() {
+        MinutePath lastVerified = new MinutePath(offsetTime);
+        lastContentPath.initialize(channelName, lastVerified, LAST_SINGLE_VERIFIED);
+        MinutePath lastConfirmed = new MinutePath(offsetTime.minusMinutes(10));
+        lastContentPath.initialize(channelName, lastConfirmed, LAST_SINGLE_CONFIRMED);
+        ChannelConfig channel = ChannelConfig.builder().name(channelName).build();
+        S3Verifier.VerifierRange range = s3Verifier.getSingleVerifierRange(now, channel);
+        logger.info("{} {}", channelName, range);
+        assertEquals(new MinutePath(now.minusMinutes(1)), range.endPath);
+        assertEquals(lastConfirmed, range.startPath);
+    }
+
     @Test
     public void testSingleReplicatedDefault() {
         ChannelConfig channel = getReplicatedChannel(channelName);
@@ -0,0 +1,32 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.model.ChannelContentKey;
+import com.flightstats.hub.model.ContentKey;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class S3WriteQueueTest {
+
+    @Test
+    public void testInterleaveByChannel() {
+        List<ChannelContentKey> keys = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            keys.add(new ChannelContentKey("bursty", new ContentKey()));
+        }
+        keys.add(new ChannelContentKey("quiet", new ContentKey()));
+        keys.add(new ChannelContentKey("other", new ContentKey()));
+
+        List<ChannelContentKey> interleaved = S3WriteQueue.interleaveByChannel(keys);
+        assertEquals(keys.size(), interleaved.size());
+        assertEquals(keys.get(0), interleaved.get(0));
+        assertEquals("quiet", interleaved.get(1).getChannel());
+        assertEquals("other", interleaved.get(2).getChannel());
+        assertEquals(keys.get(1), interleaved.get(3));
+        assertEquals(keys.get(2), interleaved.get(4));
+        assertEquals(keys.get(3), interleaved.get(5));
+    }
+}
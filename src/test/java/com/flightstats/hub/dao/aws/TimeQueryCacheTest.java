@@ -0,0 +1,98 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.Location;
+import com.flightstats.hub.model.TimeQuery;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TimeQueryCacheTest {
+
+    private final DateTime stable = TimeUtil.stable();
+
+    private final ChannelConfig channelConfig = ChannelConfig.builder().name("testCache").build();
+
+    private TimeQuery query(DateTime start, TimeUtil.Unit unit) {
+        return TimeQuery.builder().channelName("testCache").channelConfig(channelConfig).startTime(start).unit(unit).build();
+    }
+
+    @Test
+    public void testClosed() {
+        assertTrue(TimeQueryCache.isClosed(query(stable.minusHours(2), TimeUtil.Unit.HOURS), stable));
+        assertTrue(TimeQueryCache.isClosed(query(stable.minusMinutes(1), TimeUtil.Unit.MINUTES), stable));
+        assertFalse(TimeQueryCache.isClosed(query(stable, TimeUtil.Unit.MINUTES), stable));
+        assertFalse(TimeQueryCache.isClosed(query(stable.minusMinutes(1), TimeUtil.Unit.MILLIS), stable));
+        TimeQuery lagging = query(stable.minusMinutes(5), TimeUtil.Unit.MINUTES).withChannelStable(stable.minusMinutes(10));
+        assertFalse(TimeQueryCache.isClosed(lagging, stable));
+        TimeQuery bounded = query(stable.minusHours(2), TimeUtil.Unit.MINUTES).withEndTime(stable.minusHours(1));
+        assertFalse(TimeQueryCache.isClosed(bounded, stable));
+        TimeQuery cacheOnly = query(stable.minusHours(2), TimeUtil.Unit.HOURS).withLocation(Location.CACHE);
+        assertFalse(TimeQueryCache.isClosed(cacheOnly, stable));
+    }
+
+    @Test
+    public void testHistoricalNotClosed() {
+        TimeQuery query = query(stable.minusHours(2), TimeUtil.Unit.HOURS);
+        assertFalse(TimeQueryCache.isClosed(query.withChannelConfig(null), stable));
+        ChannelConfig historical = ChannelConfig.builder().name("testCache").mutableTime(TimeUtil.now().minusDays(1)).build();
+        assertFalse(TimeQueryCache.isClosed(query.withChannelConfig(historical), stable));
+    }
+
+    @Test
+    public void testCachesCopy() {
+        TimeQueryCache cache = new TimeQueryCache();
+        DateTime start = TimeUtil.Unit.HOURS.round(stable.minusHours(3));
+        TimeQuery query = query(start, TimeUtil.Unit.HOURS);
+        SortedSet<ContentKey> keys = new TreeSet<>();
+        keys.add(new ContentKey(start.plusMinutes(5), "A"));
+        SortedSet<ContentKey> loaded = cache.get(query, () -> keys);
+        loaded.add(new ContentKey(start.plusMinutes(6), "B"));
+        assertEquals(1, cache.get(query, () -> keys).size());
+    }
+
+    @Test
+    public void testGetAndInvalidate() {
+        TimeQueryCache cache = new TimeQueryCache();
+        DateTime start = TimeUtil.Unit.HOURS.round(stable.minusHours(3));
+        TimeQuery query = query(start, TimeUtil.Unit.HOURS);
+        AtomicInteger calls = new AtomicInteger();
+        SortedSet<ContentKey> keys = new TreeSet<>();
+        keys.add(new ContentKey(start.plusMinutes(5), "A"));
+        cache.get(query, () -> {
+            calls.incrementAndGet();
+            return keys;
+        });
+        assertEquals(keys, cache.get(query, () -> {
+            calls.incrementAndGet();
+            return keys;
+        }));
+        assertEquals(1, calls.get());
+
+        cache.invalidate("testCache", start.plusHours(1));
+        cache.get(query, () -> {
+            calls.incrementAndGet();
+            return keys;
+        });
+        assertEquals(1, calls.get());
+
+        cache.invalidate("testCache", start.plusMinutes(30));
+        cache.get(query, () -> {
+            calls.incrementAndGet();
+            return null;
+        });
+        assertEquals(2, calls.get());
+        cache.get(query, () -> {
+            calls.incrementAndGet();
+            return keys;
+        });
+        assertEquals(3, calls.get());
+    }
+}
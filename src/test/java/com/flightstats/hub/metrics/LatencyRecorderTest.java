@@ -0,0 +1,48 @@
+package com.flightstats.hub.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class LatencyRecorderTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Before
+    public void setUp() {
+        LatencyRecorder.clear();
+    }
+
+    @Test
+    public void testIntervals() {
+        for (int i = 1; i <= 100; i++) {
+            LatencyRecorder.record("test", i);
+        }
+        ObjectNode first = mapper.createObjectNode();
+        LatencyRecorder.log(first);
+        assertEquals(100, first.get("interval").get("test").get("count").asLong());
+        assertEquals(100, first.get("interval").get("test").get("max").asLong());
+        assertEquals(99, first.get("interval").get("test").get("p99").asLong());
+
+        LatencyRecorder.record("test", 5);
+        ObjectNode second = mapper.createObjectNode();
+        LatencyRecorder.log(second);
+        assertEquals(1, second.get("interval").get("test").get("count").asLong());
+        assertEquals(5, second.get("interval").get("test").get("max").asLong());
+        assertEquals(101, second.get("total").get("test").get("count").asLong());
+    }
+
+    @Test
+    public void testOutOfRange() {
+        LatencyRecorder.record("range", -10);
+        LatencyRecorder.record("range", Long.MAX_VALUE);
+        ObjectNode root = mapper.createObjectNode();
+        LatencyRecorder.log(root);
+        assertEquals(2, root.get("interval").get("range").get("count").asLong());
+        assertFalse(root.get("interval").has("test"));
+    }
+}
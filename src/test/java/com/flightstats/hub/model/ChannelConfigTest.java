@@ -163,4 +163,18 @@ public class ChannelConfigTest {
 
     }
 
+    @Test
+    public void testRateLimits() throws Exception {
+        ChannelConfig defaults = ChannelConfig.builder().name("defaults").build();
+        assertEquals(0, defaults.getMaxItemsPerSecond());
+        assertEquals(0, defaults.getMaxBytesPerSecond());
+
+        ChannelConfig updated = ChannelConfig.updateFromJson(defaults, "{\"maxItemsPerSecond\": 100, \"maxBytesPerSecond\": 1000000}");
+        assertEquals(100, updated.getMaxItemsPerSecond());
+        assertEquals(1000000, updated.getMaxBytesPerSecond());
+
+        ChannelConfig createdFromJson = ChannelConfig.createFromJson(updated.toJson());
+        assertEquals(updated, createdFromJson);
+    }
+
 }
@@ -0,0 +1,51 @@
+package com.flightstats.hub.model;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MinuteDigestTest {
+
+    private final DateTime start = new DateTime(123456789);
+
+    @Test
+    public void testOrderIndependent() {
+        List<ContentKey> keys = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            keys.add(new ContentKey(start.plusMillis(i), "key" + i));
+        }
+        MinuteDigest digest = MinuteDigest.of(keys);
+        Collections.reverse(keys);
+        assertEquals(digest, MinuteDigest.of(keys));
+        assertEquals(10, digest.getCount());
+    }
+
+    @Test
+    public void testMerge() {
+        ContentKey first = new ContentKey(start, "first");
+        ContentKey second = new ContentKey(start.plusMillis(1), "second");
+        MinuteDigest merged = MinuteDigest.of(Collections.singletonList(first))
+                .merge(MinuteDigest.of(Collections.singletonList(second)));
+        assertEquals(MinuteDigest.of(Arrays.asList(first, second)), merged);
+    }
+
+    @Test
+    public void testDifferentKeys() {
+        MinuteDigest digest = MinuteDigest.of(Collections.singletonList(new ContentKey(start, "A")));
+        assertNotEquals(digest, MinuteDigest.of(Collections.singletonList(new ContentKey(start, "B"))));
+        assertNotEquals(digest, new MinuteDigest());
+    }
+
+    @Test
+    public void testCycleString() {
+        MinuteDigest digest = MinuteDigest.of(Collections.singletonList(new ContentKey(start, "A")));
+        assertEquals(digest, MinuteDigest.fromString(digest.toString()));
+        assertTrue(MinuteDigest.fromString(new MinuteDigest().toString()).isEmpty());
+    }
+}
@@ -0,0 +1,71 @@
+package com.flightstats.hub.rest;
+
+import com.flightstats.hub.app.HubProperties;
+import com.google.common.io.ByteStreams;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PeerLimitFilterTest {
+
+    @Test
+    public void testLimitPerPeer() {
+        PeerLimitFilter.Peers peers = new PeerLimitFilter.Peers(2, 50);
+        Semaphore first = peers.acquire("one:80");
+        peers.acquire("one:80");
+        peers.acquire("two:80");
+        assertEquals(2, peers.getInUse("one:80"));
+        assertEquals(1, peers.getInUse("two:80"));
+        long start = System.currentTimeMillis();
+        try {
+            peers.acquire("one:80");
+            fail("expected rejection");
+        } catch (ClientHandlerException e) {
+            assertTrue(System.currentTimeMillis() - start >= 50);
+        }
+        first.release();
+        peers.acquire("one:80");
+        assertEquals(2, peers.getInUse("one:80"));
+    }
+
+    @Test
+    public void testHeldUntilClosed() throws Exception {
+        PeerLimitFilter.Peers peers = new PeerLimitFilter.Peers(2, 50);
+        Client client = new Client(request -> new ClientResponse(200, new InBoundHeaders(),
+                new ByteArrayInputStream("body".getBytes()), null));
+        client.addFilter(new PeerLimitFilter(peers));
+
+        ClientResponse closed = client.resource("http://one:80/closed").get(ClientResponse.class);
+        assertEquals(1, peers.getInUse("one:80"));
+        closed.close();
+        assertEquals(0, peers.getInUse("one:80"));
+
+        ClientResponse read = client.resource("http://one:80/read").get(ClientResponse.class);
+        assertEquals(1, peers.getInUse("one:80"));
+        assertEquals("body", new String(ByteStreams.toByteArray(read.getEntityInputStream())));
+        assertEquals(0, peers.getInUse("one:80"));
+        read.close();
+        assertEquals(0, peers.getInUse("one:80"));
+    }
+
+    @Test
+    public void testAppUrlNotLimited() {
+        PeerLimitFilter.Peers peers = new PeerLimitFilter.Peers(2, 50);
+        Client client = new Client(request -> new ClientResponse(200, new InBoundHeaders(),
+                new ByteArrayInputStream("body".getBytes()), null));
+        client.addFilter(new PeerLimitFilter(peers));
+        URI appUri = URI.create(HubProperties.getAppUrl());
+        client.resource(appUri.resolve("internal/s3Verifier/channel")).get(ClientResponse.class);
+        assertEquals(0, peers.getInUse(appUri.getHost() + ":" + appUri.getPort()));
+    }
+}
@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -44,6 +45,32 @@ public class FileSpokeStoreTest {
         assertArrayEquals(BYTES, read);
     }
 
+    @Test
+    public void testDurableWriteRead() throws Exception {
+        FileSpokeStore durableStore = new FileSpokeStore(tempDir, true);
+        List<String> paths = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        AtomicInteger inserted = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            String path = "channelDurable/" + new ContentKey().toUrl();
+            paths.add(path);
+            Thread thread = new Thread(() -> {
+                if (durableStore.insert(path, BYTES)) {
+                    inserted.incrementAndGet();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(10, inserted.get());
+        for (String path : paths) {
+            assertArrayEquals(BYTES, durableStore.read(path));
+        }
+    }
+
     @Test
     public void testPathTranslation() throws Exception {
         String incoming = "/test_0_4274725520517677/2014/11/18/00/57/24/015/NV2cl5";
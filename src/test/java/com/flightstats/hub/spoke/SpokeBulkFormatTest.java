@@ -0,0 +1,96 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SpokeBulkFormatTest {
+
+    private List<Content> createItems(int count) throws Exception {
+        List<Content> items = createUnpackaged(count);
+        for (Content content : items) {
+            content.packageStream();
+        }
+        return items;
+    }
+
+    private List<Content> createUnpackaged(int count) {
+        List<Content> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Content content = Content.builder()
+                    .withContentKey(new ContentKey())
+                    .withContentType("text/plain")
+                    .withData(("data " + i).getBytes())
+                    .build();
+            items.add(content);
+        }
+        return items;
+    }
+
+    @Test
+    public void testCycle() throws Exception {
+        List<Content> items = createItems(5);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SpokeBulkFormat.write(items, output);
+
+        Map<String, byte[]> read = new LinkedHashMap<>();
+        int count = SpokeBulkFormat.read(new ByteArrayInputStream(output.toByteArray()), (key, data) -> {
+            read.put(key, ByteStreams.toByteArray(data));
+            return true;
+        });
+        assertEquals(5, count);
+        Iterator<Map.Entry<String, byte[]>> iterator = read.entrySet().iterator();
+        for (Content content : items) {
+            Map.Entry<String, byte[]> entry = iterator.next();
+            assertEquals(content.getContentKey().get().toUrl(), entry.getKey());
+            assertArrayEquals(content.getData(), entry.getValue());
+        }
+    }
+
+    @Test
+    public void testPackagesOnce() throws Exception {
+        List<Content> items = createUnpackaged(3);
+        Set<Content> packaged = SpokeBulkFormat.newPackaged();
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        SpokeBulkFormat.write(items, packaged, first);
+        assertEquals(3, packaged.size());
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        SpokeBulkFormat.write(items, packaged, second);
+        assertArrayEquals(first.toByteArray(), second.toByteArray());
+    }
+
+    @Test
+    public void testUnreadData() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SpokeBulkFormat.write(createItems(3), output);
+        int count = SpokeBulkFormat.read(new ByteArrayInputStream(output.toByteArray()), (key, data) -> true);
+        assertEquals(3, count);
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SpokeBulkFormat.write(createItems(3), output);
+        int count = SpokeBulkFormat.read(new ByteArrayInputStream(output.toByteArray()), (key, data) -> false);
+        assertEquals(-1, count);
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncated() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SpokeBulkFormat.write(createItems(2), output);
+        byte[] bytes = Arrays.copyOf(output.toByteArray(), output.size() - 8);
+        SpokeBulkFormat.read(new ByteArrayInputStream(bytes), (key, data) -> {
+            ByteStreams.toByteArray(data);
+            return true;
+        });
+    }
+}
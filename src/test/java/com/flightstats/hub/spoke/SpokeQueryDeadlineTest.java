@@ -0,0 +1,31 @@
+package com.flightstats.hub.spoke;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SpokeQueryDeadlineTest {
+
+    @Test
+    public void testReadQuorum() {
+        assertEquals(1, SpokeQueryDeadline.getReadQuorum(1));
+        assertEquals(2, SpokeQueryDeadline.getReadQuorum(2));
+        assertEquals(2, SpokeQueryDeadline.getReadQuorum(3));
+        assertEquals(3, SpokeQueryDeadline.getReadQuorum(4));
+        assertEquals(3, SpokeQueryDeadline.getReadQuorum(5));
+    }
+
+    @Test
+    public void testDeadline() {
+        SpokeQueryDeadline deadline = new SpokeQueryDeadline();
+        assertEquals(20000, deadline.getDeadlineMillis(20000));
+        for (int i = 0; i < 100; i++) {
+            deadline.record(10);
+        }
+        assertEquals(250, deadline.getDeadlineMillis(20000));
+        deadline.record(1000);
+        deadline.record(1000);
+        assertEquals(3000, deadline.getDeadlineMillis(20000));
+        assertEquals(2000, deadline.getDeadlineMillis(2000));
+    }
+}
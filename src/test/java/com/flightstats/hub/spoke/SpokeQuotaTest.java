@@ -0,0 +1,115 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.io.Files;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SpokeQuotaTest {
+
+    private static final long MB = 1024 * 1024;
+    private String tempDir;
+    private FileSpokeStore spokeStore;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDir().getPath() + "/";
+        spokeStore = new FileSpokeStore(tempDir);
+    }
+
+    @Test
+    public void testAddAndRemove() throws Exception {
+        SpokeQuota quota = new SpokeQuota(tempDir, channel -> null);
+        String key = new ContentKey().toUrl();
+        quota.add("channelA/" + key, 100);
+        quota.add("channelA/" + key, 50);
+        quota.add("channelB/" + key, 25);
+        assertEquals(175, quota.getTotalBytes());
+        assertEquals(150, quota.getChannelBytes("channelA"));
+        quota.removeChannel("channelA");
+        assertEquals(25, quota.getTotalBytes());
+        assertEquals(0, quota.getChannelBytes("channelA"));
+    }
+
+    @Test
+    public void testEvictsConfirmedOnly() throws Exception {
+        HubProperties.setProperty("spoke.channelQuotaMB", "1");
+        try {
+            DateTime old = TimeUtil.now().minusHours(1);
+            Map<String, MinutePath> confirmed = new HashMap<>();
+            SpokeQuota quota = new SpokeQuota(tempDir, confirmed::get);
+            quota.add("channelEvict/" + new ContentKey(old).toUrl(), MB);
+            quota.add("channelEvict/" + new ContentKey(old.plusMinutes(1)).toUrl(), MB);
+            quota.add("channelEvict/" + new ContentKey(TimeUtil.now()).toUrl(), MB);
+
+            quota.enforce();
+            assertEquals(3 * MB, quota.getChannelBytes("channelEvict"));
+
+            confirmed.put("channelEvict", new MinutePath(old));
+            quota.enforce();
+            assertEquals(2 * MB, quota.getChannelBytes("channelEvict"));
+
+            confirmed.put("channelEvict", new MinutePath(TimeUtil.now().plusMinutes(1)));
+            quota.enforce();
+            assertEquals(MB, quota.getChannelBytes("channelEvict"));
+        } finally {
+            HubProperties.setProperty("spoke.channelQuotaMB", "0");
+        }
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        spokeStore.insert("channelScan/" + new ContentKey().toUrl(), new byte[10]);
+        spokeStore.insert("channelScan/" + new ContentKey().toUrl(), new byte[5]);
+        SpokeQuota quota = new SpokeQuota(tempDir, channel -> null);
+        quota.scan();
+        assertEquals(15, quota.getChannelBytes("channelScan"));
+    }
+
+    @Test
+    public void testEnforceTtl() throws Exception {
+        SpokeQuota quota = new SpokeQuota(tempDir, channel -> null);
+        FileSpokeStore quotaStore = new FileSpokeStore(tempDir, quota);
+        DateTime start = TimeUtil.now().minusHours(2);
+        for (int i = 0; i < 5; i++) {
+            quotaStore.insert("channelTtl/" + new ContentKey(start.plusMinutes(i)).toUrl(), new byte[10]);
+        }
+        assertEquals(50, quota.getChannelBytes("channelTtl"));
+
+        quotaStore.enforceTtl("channelTtl", start.plusMinutes(2));
+        assertEquals(20, quota.getChannelBytes("channelTtl"));
+        assertEquals(20, quota.getTotalBytes());
+    }
+
+    @Test
+    public void testEnforceModifiedTtl() throws Exception {
+        SpokeQuota quota = new SpokeQuota(tempDir, channel -> null);
+        FileSpokeStore quotaStore = new FileSpokeStore(tempDir, quota);
+        String oldKey = new ContentKey(TimeUtil.now().minusDays(10)).toUrl();
+        quotaStore.insert("channelModified/" + oldKey, new byte[10]);
+        quotaStore.insert("channelModified/" + new ContentKey(TimeUtil.now().minusDays(5)).toUrl(), new byte[5]);
+        File oldFile = quotaStore.spokeFilePathPart("channelModified/" + oldKey);
+        long modified = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2);
+        for (File file = oldFile; !file.getName().equals("channelModified"); file = file.getParentFile()) {
+            file.setLastModified(modified);
+        }
+
+        quotaStore.enforceModifiedTtl("channelModified", System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+        assertFalse(oldFile.exists());
+        assertFalse(oldFile.getParentFile().exists());
+        assertEquals(5, quota.getChannelBytes("channelModified"));
+        assertEquals(5, quota.getTotalBytes());
+    }
+}
@@ -0,0 +1,52 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinuteDigest;
+import com.flightstats.hub.model.MinutePath;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpokeRepairTest {
+
+    private final DateTime start = new DateTime(123456789);
+
+    @Test
+    public void testFindDifferences() {
+        MinutePath first = new MinutePath(start);
+        MinutePath second = first.addMinute();
+        MinuteDigest digest = MinuteDigest.of(Collections.singletonList(new ContentKey(start, "A")));
+        Map<String, Map<MinutePath, MinuteDigest>> serverDigests = new HashMap<>();
+        serverDigests.put("server1", digests(first, digest, second, new MinuteDigest()));
+        serverDigests.put("server2", digests(first, digest, second, digest));
+        assertEquals(new TreeSet<>(Collections.singletonList(second)), SpokeRepair.findDifferences(serverDigests));
+    }
+
+    @Test
+    public void testFindMissing() {
+        ContentKey keyA = new ContentKey(start, "A");
+        ContentKey keyB = new ContentKey(start, "B");
+        ContentKey keyC = new ContentKey(start, "C");
+        Map<String, SortedSet<ContentKey>> serverKeys = new HashMap<>();
+        serverKeys.put("server1", new TreeSet<>(Arrays.asList(keyA, keyB, keyC)));
+        serverKeys.put("server2", new TreeSet<>(Arrays.asList(keyA, keyC)));
+        serverKeys.put("server3", new TreeSet<>(Collections.singletonList(keyA)));
+        SortedMap<ContentKey, Set<String>> missing = SpokeRepair.findMissing(serverKeys);
+        assertEquals(2, missing.size());
+        assertEquals(new HashSet<>(Arrays.asList("server2", "server3")), missing.get(keyB));
+        assertEquals(new HashSet<>(Collections.singletonList("server3")), missing.get(keyC));
+        assertTrue(!missing.containsKey(keyA));
+    }
+
+    private Map<MinutePath, MinuteDigest> digests(MinutePath first, MinuteDigest firstDigest,
+                                                  MinutePath second, MinuteDigest secondDigest) {
+        Map<MinutePath, MinuteDigest> digests = new HashMap<>();
+        digests.put(first, firstDigest);
+        digests.put(second, secondDigest);
+        return digests;
+    }
+}
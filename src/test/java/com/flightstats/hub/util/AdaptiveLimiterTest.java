@@ -0,0 +1,77 @@
+package com.flightstats.hub.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void testIncreasesWhileStable() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 10);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.release(10);
+        }
+        assertEquals(10, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testBacksOffWhenDropped() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 10);
+        limiter.acquire();
+        limiter.releaseDropped();
+        assertEquals(6, limiter.getLimit());
+        limiter.acquire();
+        limiter.releaseDropped();
+        assertEquals(6, limiter.getLimit());
+    }
+
+    @Test
+    public void testReleaseIgnored() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 10);
+        for (int i = 0; i < 20; i++) {
+            limiter.acquire();
+            limiter.releaseIgnored();
+        }
+        assertEquals(8, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testDroppedWhileInFlight() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 10);
+        limiter.acquire();
+        limiter.dropped();
+        assertEquals(6, limiter.getLimit());
+        assertEquals(1, limiter.getInFlight());
+        limiter.release(10);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testBacksOffOnLatency() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 10);
+        limiter.acquire();
+        limiter.release(10);
+        int limit = limiter.getLimit();
+        for (int i = 0; i < limit; i++) {
+            limiter.acquire();
+            limiter.release(10);
+        }
+        limiter.acquire();
+        limiter.release(100);
+        assertTrue(limiter.getLimit() < limit);
+    }
+
+    @Test
+    public void testTryAcquire() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 10);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        limiter.release(1);
+        assertTrue(limiter.tryAcquire());
+    }
+}
@@ -2,6 +2,7 @@ package com.flightstats.hub.util;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -36,4 +37,15 @@ public class ByteRingTest {
         assertFalse(byteRing.compare(byteRing.getBuffer()));
         assertTrue(byteRing.compare(new byte[]{5, 6, 7, 8, 9, 10, 11}));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testGetBytes() {
+        ByteRing byteRing = new ByteRing(4);
+        byteRing.put((byte) 0);
+        assertArrayEquals(new byte[]{-1, -1, -1, 0}, byteRing.getBytes());
+        for (int i = 1; i < 6; i++) {
+            byteRing.put((byte) i);
+        }
+        assertArrayEquals(new byte[]{2, 3, 4, 5}, byteRing.getBytes());
+    }
+}
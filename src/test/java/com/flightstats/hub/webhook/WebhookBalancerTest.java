@@ -0,0 +1,35 @@
+package com.flightstats.hub.webhook;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class WebhookBalancerTest {
+
+    @Test
+    public void testTarget() {
+        assertEquals(Integer.MAX_VALUE, WebhookBalancer.getTarget(Collections.emptyList()));
+        assertEquals(67, WebhookBalancer.getTarget(Arrays.asList(100, 100, 0)));
+        assertEquals(2, WebhookBalancer.getTarget(Arrays.asList(2, 2, 2)));
+        assertEquals(1, WebhookBalancer.getTarget(Arrays.asList(1, 0, 0)));
+    }
+
+    @Test
+    public void testExcess() {
+        assertEquals(0, WebhookBalancer.getExcess(68, 67, 1, 5));
+        assertEquals(2, WebhookBalancer.getExcess(69, 67, 1, 5));
+        assertEquals(5, WebhookBalancer.getExcess(100, 67, 1, 5));
+        assertEquals(0, WebhookBalancer.getExcess(10, Integer.MAX_VALUE, 1, 5));
+    }
+
+    @Test
+    public void testOverShare() {
+        assertFalse(WebhookBalancer.isOverShare(10, Collections.emptyList(), 1));
+        assertFalse(WebhookBalancer.isOverShare(2, Arrays.asList(2, 2, 2), 1));
+        assertTrue(WebhookBalancer.isOverShare(4, Arrays.asList(4, 2, 2), 1));
+        assertFalse(WebhookBalancer.isOverShare(3, Arrays.asList(3, 3, 3), 1));
+    }
+}
@@ -0,0 +1,102 @@
+package com.flightstats.hub.webhook;
+
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.cluster.WatchManager;
+import com.flightstats.hub.dao.Dao;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.mockito.Mockito.*;
+
+public class WebhookManagerTest {
+
+    private Dao<Webhook> webhookDao;
+    private WebhookLeader first;
+    private WebhookLeader second;
+    private WebhookManager webhookManager;
+    private int version;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        webhookDao = mock(Dao.class);
+        first = mock(WebhookLeader.class);
+        second = mock(WebhookLeader.class);
+        WebhookLeader[] leaders = {first, second};
+        int[] created = {0};
+        webhookManager = new WebhookManager(mock(WatchManager.class), webhookDao, () -> leaders[created[0]++],
+                mock(LastContentPath.class), mock(CuratorFramework.class));
+    }
+
+    private Webhook webhook(String callbackUrl) {
+        return Webhook.builder().name("managed").channelUrl("http://hub/channel/managed")
+                .callbackUrl(callbackUrl).build().withDefaults();
+    }
+
+    private void changed() {
+        Stat stat = new Stat();
+        stat.setVersion(++version);
+        ChildData data = new ChildData("/groupCallback/versions/managed", stat, new byte[0]);
+        webhookManager.versionEvent(new PathChildrenCacheEvent(PathChildrenCacheEvent.Type.CHILD_UPDATED, data));
+    }
+
+    @Test
+    public void testChanged() {
+        Webhook original = webhook("http://original");
+        when(webhookDao.get("managed")).thenReturn(original);
+        changed();
+        verify(first, timeout(5000)).tryLeadership(original);
+
+        Webhook updated = webhook("http://updated");
+        when(first.getWebhook()).thenReturn(original);
+        when(webhookDao.get("managed")).thenReturn(updated);
+        changed();
+        verify(first, timeout(5000)).exit(false);
+        verify(second, timeout(5000)).tryLeadership(updated);
+    }
+
+    @Test
+    public void testDeleted() {
+        Webhook original = webhook("http://original");
+        when(webhookDao.get("managed")).thenReturn(original);
+        changed();
+        verify(first, timeout(5000)).tryLeadership(original);
+
+        when(webhookDao.get("managed")).thenReturn(null);
+        changed();
+        verify(first, timeout(5000)).exit(true);
+        verify(second, after(100).never()).tryLeadership(any(Webhook.class));
+    }
+
+    @Test
+    public void testStillStopping() throws Exception {
+        Webhook original = webhook("http://original");
+        when(webhookDao.get("managed")).thenReturn(original);
+        changed();
+        verify(first, timeout(5000)).tryLeadership(original);
+
+        CountDownLatch exiting = new CountDownLatch(1);
+        CountDownLatch exit = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            exiting.countDown();
+            exit.await();
+            return null;
+        }).when(first).exit(false);
+        Webhook updated = webhook("http://updated");
+        when(first.getWebhook()).thenReturn(original);
+        when(webhookDao.get("managed")).thenReturn(updated);
+        changed();
+        exiting.await();
+
+        changed();
+        verify(second, after(200).never()).tryLeadership(any(Webhook.class));
+        exit.countDown();
+        verify(second, timeout(5000)).tryLeadership(updated);
+    }
+}